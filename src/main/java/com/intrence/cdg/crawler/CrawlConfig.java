@@ -32,6 +32,8 @@ public class CrawlConfig {
     private String                   methodType;
     private String                   body;
     private boolean                  isBatchrequest;
+    // max links followed from a seed, 0 for no limit
+    private int                      maxDepth;
 
     private static final String SEED_PAGE_TYPE = "seed";
 
@@ -52,6 +54,7 @@ public class CrawlConfig {
         this.body = builder.body;
 
         this.isBatchrequest = builder.isBatchrequest;
+        this.maxDepth = builder.maxDepth;
 
     }
 
@@ -64,6 +67,10 @@ public class CrawlConfig {
         return isBatchrequest;
     }
 
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
     public IntegrationType getType() {
         return this.type;
     }
@@ -114,6 +121,8 @@ public class CrawlConfig {
         builder.crawlablePages = extractCrawlablePages(config);
         builder.paramsFormat = extractParamsFormat(config);
         builder.crawlGraph = extractCrawlGraph(config);
+        JsonNode maxDepthNode = config.get("max_depth");
+        builder.maxDepth = maxDepthNode != null && maxDepthNode.isNumber() ? maxDepthNode.asInt() : 0;
         builder.methodType = extractSeedMethodType(config);
 
         if (StringUtils.isNotBlank(builder.methodType) && builder.methodType.equalsIgnoreCase(HttpPost.METHOD_NAME)) {
@@ -205,7 +214,9 @@ public class CrawlConfig {
             for (JsonNode pattern : JsonNodeUtil.getArray(pageNode, "/pattern")) {
                 pagePatterns.add(pattern.asText());
             }
-            map.put(pageType, new CrawlablePage(pageType, pagePatterns, priority));
+            JsonNode quotaNode = pageNode.get("quota");
+            double quota = quotaNode != null && quotaNode.isNumber() ? quotaNode.asDouble() : 0;
+            map.put(pageType, new CrawlablePage(pageType, pagePatterns, priority, quota));
         }
 
         return ImmutableMap.copyOf(map);
@@ -323,6 +334,7 @@ public class CrawlConfig {
         private String                   methodType;
         private String                   body;
         private boolean                  isBatchrequest;
+        private int                      maxDepth;
 
         public CrawlConfig build() {
             return new CrawlConfig(this);
@@ -7,12 +7,19 @@ public class CrawlablePage {
     private final String pageType;
     private final Set<String> urlPattern;
     private final int priority;
+    // max share of the rule's max_records spent fetching this page type, 0 for no limit
+    private final double quota;
     
     
     public CrawlablePage(String pageType, Set<String> urlPattern, int priority) {
+        this(pageType, urlPattern, priority, 0);
+    }
+
+    public CrawlablePage(String pageType, Set<String> urlPattern, int priority, double quota) {
         this.pageType = pageType;
         this.urlPattern = urlPattern;
         this.priority = priority;
+        this.quota = quota;
     }
 
 
@@ -29,6 +36,11 @@ public class CrawlablePage {
     public int getPriority() {
         return priority;
     }
+
+
+    public double getQuota() {
+        return quota;
+    }
     
     @Override
     public boolean equals(Object o) {
@@ -40,6 +52,7 @@ public class CrawlablePage {
         if (pageType != null ? !pageType.equals(that.pageType) : that.pageType != null) return false;
         if (urlPattern != null ? !urlPattern.equals(that.urlPattern) : that.urlPattern != null) return false;
         if (priority != that.priority) return false;
+        if (Double.compare(quota, that.quota) != 0) return false;
         
         return true;
     }
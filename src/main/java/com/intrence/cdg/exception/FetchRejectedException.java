@@ -0,0 +1,21 @@
+package com.intrence.cdg.exception;
+
+/**
+ * Fetch turned down before any request was sent, by an open circuit breaker or a full bulkhead of the source. It says
+ * nothing about the request itself, which is to be sent again once retryAfterMillis are over rather than counted as a
+ * failed attempt.
+ */
+public class FetchRejectedException extends CdgBackendException {
+    private final long retryAfterMillis;
+
+    public FetchRejectedException(String message, long retryAfterMillis)
+    {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis()
+    {
+        return this.retryAfterMillis;
+    }
+}
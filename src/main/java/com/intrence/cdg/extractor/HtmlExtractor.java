@@ -61,9 +61,31 @@ public class HtmlExtractor extends BaseExtractor<TagNode> {
     public TagNode getContentTree(String content) {
         CleanerProperties cleanerProperties = new CleanerProperties();
         cleanerProperties.setCharset("UTF-8");
-        //replace <br> tags with space prefixed <br> tag so that during field extraction we will get data with spaces
-        content = content.replaceAll("<br>", " <br>").replaceAll("<br/>", " <br/>");
-        return new HtmlCleaner(cleanerProperties).clean(content);
+        return new HtmlCleaner(cleanerProperties).clean(spaceBrTags(content));
+    }
+
+    /**
+     * Prefixes <br> and <br/> tags with a space so that during field extraction we will get data with spaces. Single
+     * pass over the page, which is returned as is when it has no such tag.
+     */
+    public static String spaceBrTags(String content) {
+        int brIndex = content.indexOf("<br");
+        StringBuilder spaced = null;
+        int copied = 0;
+        while (brIndex >= 0) {
+            if (content.startsWith("<br>", brIndex) || content.startsWith("<br/>", brIndex)) {
+                if (spaced == null) {
+                    spaced = new StringBuilder(content.length() + 64);
+                }
+                spaced.append(content, copied, brIndex).append(' ');
+                copied = brIndex;
+            }
+            brIndex = content.indexOf("<br", brIndex + 3);
+        }
+        if (spaced == null) {
+            return content;
+        }
+        return spaced.append(content, copied, content.length()).toString();
     }
 
     @Override
@@ -128,7 +150,9 @@ public class HtmlExtractor extends BaseExtractor<TagNode> {
                         CrawlablePage destPage = crawlConfig.getCrawlablePages().get(destination);
                         if (destPage != null && UrlHelper.isUrlMatched(destPage.getUrlPatterns(), outLink)) {
                             outLink = removeQueryParameters ? UrlHelper.removeQueryParameters(outLink) : outLink;
-                            newReqs.add(new FetchRequest(outLink, destPage.getPriority()));
+                            FetchRequest newReq = new FetchRequest(outLink, destPage.getPriority());
+                            newReq.setPageType(destination);
+                            newReqs.add(newReq);
                             isUrlMatched = true;
                         }
                     }
@@ -65,6 +65,8 @@ public class JsonExtractor extends BaseExtractor<JsonNode> {
             if (NextPageUrlBuilder.KEY.equals(destination)) {
                 FetchRequest nextPageUrl = crawlConfig.getNextPageUrlBuilder().build(content);
                 if (nextPageUrl != null) {
+                    // next page of a listing is of the same page type
+                    nextPageUrl.setPageType(pageType);
                     newReqs.add(nextPageUrl);
                 }
             }
@@ -0,0 +1,123 @@
+package com.intrence.cdg.frontier;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bloom filter layout for a bitmap stored outside the jvm (e.g. redis), split into segments of bounded size.
+ *
+ * The number of bits and hash functions are derived from the expected insertions and the target false positive rate,
+ * bit positions are computed by double hashing over a single murmur3 128 bit hash of the value.
+ */
+public class BloomFilter {
+
+    private static final HashFunction MURMUR3_128 = Hashing.murmur3_128();
+    private static final double LN2 = Math.log(2);
+
+    private final long expectedInsertions;
+    private final double falsePositiveRate;
+    private final long numBits;
+    private final int numHashFunctions;
+    private final long segmentBits;
+    private final int numSegments;
+
+    public BloomFilter(long expectedInsertions, double falsePositiveRate, long maxSegmentBits) {
+        if (expectedInsertions <= 0) {
+            throw new IllegalArgumentException(String.format("expectedInsertions=%d must be positive",
+                    expectedInsertions));
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException(String.format("falsePositiveRate=%s must be in (0, 1)",
+                    falsePositiveRate));
+        }
+        if (maxSegmentBits <= 0) {
+            throw new IllegalArgumentException(String.format("maxSegmentBits=%d must be positive", maxSegmentBits));
+        }
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+        this.numBits = optimalNumOfBits(expectedInsertions, falsePositiveRate);
+        this.numHashFunctions = optimalNumOfHashFunctions(expectedInsertions, numBits);
+        this.numSegments = (int) ((numBits + maxSegmentBits - 1) / maxSegmentBits);
+        // spread the bits evenly, so that no segment is left almost empty
+        this.segmentBits = (numBits + numSegments - 1) / numSegments;
+    }
+
+    // m = -n * ln(p) / ln(2)^2
+    static long optimalNumOfBits(long n, double p) {
+        return Math.max(1, (long) Math.ceil(-n * Math.log(p) / (LN2 * LN2)));
+    }
+
+    // k = m / n * ln(2)
+    static int optimalNumOfHashFunctions(long n, long m) {
+        return Math.max(1, (int) Math.round((double) m / n * LN2));
+    }
+
+    /**
+     * @param value value to add or look up
+     * @return numHashFunctions bit positions of the value, each in [0, numBits)
+     */
+    public long[] positions(String value) {
+        ByteBuffer hash = ByteBuffer.wrap(MURMUR3_128.hashString(value, StandardCharsets.UTF_8).asBytes())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        long hash1 = hash.getLong();
+        long hash2 = hash.getLong();
+
+        long[] positions = new long[numHashFunctions];
+        long combinedHash = hash1;
+        for (int i = 0; i < numHashFunctions; i++) {
+            positions[i] = (combinedHash & Long.MAX_VALUE) % numBits;
+            combinedHash += hash2;
+        }
+        return positions;
+    }
+
+    public int segment(long position) {
+        return (int) (position / segmentBits);
+    }
+
+    public long offsetInSegment(long position) {
+        return position % segmentBits;
+    }
+
+    /**
+     * Expected false positive rate once the given fraction of bits is set, (fillRatio)^k.
+     */
+    public double estimatedFalsePositiveRate(double fillRatio) {
+        return Math.pow(fillRatio, numHashFunctions);
+    }
+
+    public long getExpectedInsertions() {
+        return expectedInsertions;
+    }
+
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    public long getNumBits() {
+        return numBits;
+    }
+
+    public int getNumHashFunctions() {
+        return numHashFunctions;
+    }
+
+    public long getSegmentBits() {
+        return segmentBits;
+    }
+
+    public int getNumSegments() {
+        return numSegments;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BloomFilter{expectedInsertions=%d, falsePositiveRate=%s, numBits=%d, " +
+                        "numHashFunctions=%d, numSegments=%d, segmentBits=%d}", expectedInsertions,
+                falsePositiveRate, numBits, numHashFunctions, numSegments, segmentBits);
+    }
+}
@@ -0,0 +1,253 @@
+package com.intrence.cdg.frontier;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.intrence.cdg.net.FetchRequest;
+import com.intrence.config.ConfigProvider;
+import com.intrence.config.collection.ConfigMap;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind buffer for the inserts into another FetchRequestFrontier.
+ *
+ * add/addAll only merge the requests into a per rule buffer, deduped on fingerprint, so that the workers extracting
+ * links do not wait on the frontier. A rule buffer is written with a single addAll once it holds bufferSize requests,
+ * or by a background flush every flushMillis.
+ *
+ * Pending inserts of a rule are always written before any other operation on that rule reaches the wrapped frontier:
+ * a request is never acked before the links extracted from it are in the frontier, and a claim that comes back empty
+ * really means the rule is drained.
+ */
+public class BufferedFetchReqFrontier implements FetchRequestFrontier {
+
+    private static final Logger LOGGER = Logger.getLogger(BufferedFetchReqFrontier.class);
+    private static final ConfigMap CONFIG_MAP = ConfigProvider.getConfig();
+
+    private final FetchRequestFrontier delegate;
+    private final int bufferSize;
+    private final Map<Integer, RuleBuffer> buffers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    public BufferedFetchReqFrontier(FetchRequestFrontier delegate) {
+        this(delegate, CONFIG_MAP.getInteger("frontier_write_buffer_size", 500),
+                CONFIG_MAP.getInteger("frontier_write_buffer_millis", 200));
+    }
+
+    public BufferedFetchReqFrontier(FetchRequestFrontier delegate, int bufferSize, long flushMillis) {
+        this.delegate = delegate;
+        this.bufferSize = bufferSize;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("frontier-flusher-%d").setDaemon(true).build());
+        if (flushMillis > 0) {
+            flusher.scheduleWithFixedDelay(this::flushAll, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public FetchRequest getNext(int taskRuleId) {
+        flush(taskRuleId);
+        return delegate.getNext(taskRuleId);
+    }
+
+    @Override
+    public Set<FetchRequest> getTopK(int taskRuleId, int K) {
+        flush(taskRuleId);
+        return delegate.getTopK(taskRuleId, K);
+    }
+
+    @Override
+    public List<Integer> peekPriorities(int taskRuleId, int K) {
+        flush(taskRuleId);
+        return delegate.peekPriorities(taskRuleId, K);
+    }
+
+    @Override
+    public void add(int taskRuleId, FetchRequest fetchReq) {
+        RuleBuffer buffer = buffer(taskRuleId);
+        if (buffer.add(fetchReq) >= bufferSize) {
+            buffer.flush();
+        }
+    }
+
+    @Override
+    public void addAll(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        RuleBuffer buffer = buffer(taskRuleId);
+        int buffered = 0;
+        for (FetchRequest fetchReq : fetchReqs) {
+            if (fetchReq != null) {
+                buffered = buffer.add(fetchReq);
+            }
+        }
+        if (buffered >= bufferSize) {
+            buffer.flush();
+        }
+    }
+
+    @Override
+    public void delete(int taskRuleId, FetchRequest fetchReq) {
+        flush(taskRuleId);
+        delegate.delete(taskRuleId, fetchReq);
+    }
+
+    @Override
+    public void deleteAll(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        flush(taskRuleId);
+        delegate.deleteAll(taskRuleId, fetchReqs);
+    }
+
+    @Override
+    public void deleteKey(int taskRuleId) {
+        RuleBuffer buffer = buffers.remove(taskRuleId);
+        if (buffer != null) {
+            buffer.discard();
+        }
+        delegate.deleteKey(taskRuleId);
+    }
+
+    @Override
+    public Set<FetchRequest> claim(int taskRuleId, int K, long leaseMillis) {
+        flush(taskRuleId);
+        return delegate.claim(taskRuleId, K, leaseMillis);
+    }
+
+    @Override
+    public void ack(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        flush(taskRuleId);
+        delegate.ack(taskRuleId, fetchReqs);
+    }
+
+    @Override
+    public void nack(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        flush(taskRuleId);
+        delegate.nack(taskRuleId, fetchReqs);
+    }
+
+    @Override
+    public int reapExpiredLeases(int taskRuleId) {
+        return delegate.reapExpiredLeases(taskRuleId);
+    }
+
+    @Override
+    public long leasedCount(int taskRuleId) {
+        return delegate.leasedCount(taskRuleId);
+    }
+
+    @Override
+    public void flush(int taskRuleId) {
+        RuleBuffer buffer = buffers.get(taskRuleId);
+        if (buffer != null) {
+            buffer.flush();
+        }
+        delegate.flush(taskRuleId);
+    }
+
+    @Override
+    public long exportSnapshot(int taskRuleId, Path file) throws IOException {
+        flush(taskRuleId);
+        return delegate.exportSnapshot(taskRuleId, file);
+    }
+
+    // the pending inserts are replaced along with the rest of the rule
+    @Override
+    public long importSnapshot(int taskRuleId, Path file) throws IOException {
+        RuleBuffer buffer = buffers.remove(taskRuleId);
+        if (buffer != null) {
+            buffer.discard();
+        }
+        return delegate.importSnapshot(taskRuleId, file);
+    }
+
+    public int pendingCount(int taskRuleId) {
+        RuleBuffer buffer = buffers.get(taskRuleId);
+        return buffer == null ? 0 : buffer.size();
+    }
+
+    /**
+     * Writes every pending insert and stops the background flush.
+     */
+    public void shutdown() {
+        flusher.shutdown();
+        for (RuleBuffer buffer : buffers.values()) {
+            buffer.flush();
+        }
+    }
+
+    private void flushAll() {
+        for (RuleBuffer buffer : buffers.values()) {
+            try {
+                buffer.flush();
+            } catch (Exception e) {
+                // kept in the buffer, retried on the next flush
+                LOGGER.warn(String.format("Exception=%s when flushing frontier inserts for taskrule=%s",
+                        e.getMessage(), buffer.taskRuleId), e);
+            }
+        }
+    }
+
+    private RuleBuffer buffer(int taskRuleId) {
+        return buffers.computeIfAbsent(taskRuleId, RuleBuffer::new);
+    }
+
+    /**
+     * Pending inserts of a single rule. Flushes of a rule are serialized so that a flush returning means that every
+     * insert buffered before it was called is in the wrapped frontier.
+     */
+    private class RuleBuffer {
+        private final int taskRuleId;
+        private final Object flushLock = new Object();
+        // fingerprint -> request, the highest priority wins when the same url is extracted twice
+        private Map<String, FetchRequest> pending = new LinkedHashMap<>();
+
+        private RuleBuffer(int taskRuleId) {
+            this.taskRuleId = taskRuleId;
+        }
+
+        synchronized int add(FetchRequest fetchReq) {
+            pending.merge(fetchReq.getFingerprint(), fetchReq,
+                    (buffered, added) -> added.getPriority() > buffered.getPriority() ? added : buffered);
+            return pending.size();
+        }
+
+        synchronized int size() {
+            return pending.size();
+        }
+
+        synchronized void discard() {
+            pending = new LinkedHashMap<>();
+        }
+
+        void flush() {
+            synchronized (flushLock) {
+                Map<String, FetchRequest> batch;
+                synchronized (this) {
+                    if (pending.isEmpty()) {
+                        return;
+                    }
+                    batch = pending;
+                    pending = new LinkedHashMap<>();
+                }
+                try {
+                    delegate.addAll(taskRuleId, new HashSet<>(batch.values()));
+                } catch (RuntimeException e) {
+                    synchronized (this) {
+                        for (FetchRequest fetchReq : batch.values()) {
+                            add(fetchReq);
+                        }
+                    }
+                    throw e;
+                }
+            }
+        }
+    }
+}
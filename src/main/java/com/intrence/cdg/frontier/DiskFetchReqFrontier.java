@@ -0,0 +1,622 @@
+package com.intrence.cdg.frontier;
+
+import com.intrence.cdg.net.FetchRequest;
+import com.intrence.cdg.net.FetchRequestCodec;
+import com.intrence.config.ConfigProvider;
+import com.intrence.config.collection.ConfigMap;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * FetchRequestFrontier backed by memory-mapped segment files, for crawls whose pending urls do not fit in memory.
+ *
+ * Every rule has a directory with one append log per priority, made of fixed size LogSegments holding the binary
+ * encoded requests. Requests are read in priority order, FIFO within a priority, through a small in-memory head
+ * buffer. Consumed records are marked done in the segment sidecar and a segment is deleted once it is sealed, read
+ * through and all its records are done, so the disk usage follows the pending urls. The seen-set is a bloom filter
+ * bitmap mapped from the rule directory as well.
+ *
+ * The last segment of a log stays mapped for as long as the rule runs, so the number of distinct priorities has to stay
+ * small; CrawlBudget ages priorities in coarse buckets for that reason.
+ *
+ * Leases are kept in memory only: on restart the logs are replayed and every record not marked done is pending
+ * again, including the ones that were in flight when the process went down.
+ *
+ * A request deleted while it is still in the logs gets a tombstone, appended to the tombstones file, and is skipped
+ * and marked done once the read cursor gets to it; until then it still counts in size(). The ids of the bloom filter
+ * that are not in the logs (already done, or false positives) leave stale tombstones, dropped once the cursor has read
+ * through every log, and the file is rewritten from the live tombstones when they are outnumbered by consumed ones.
+ * The replay marks the tombstoned records done and starts over without tombstones.
+ */
+public class DiskFetchReqFrontier implements FetchRequestFrontier {
+
+    private static final Logger LOGGER = Logger.getLogger(DiskFetchReqFrontier.class);
+    private static final ConfigMap CONFIG_MAP = ConfigProvider.getConfig();
+
+    private static final String SEEN_FILE = "seen.bloom";
+    private static final String TOMBSTONES_FILE = "tombstones";
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int DEFAULT_HEAD_BUFFER_SIZE = 1000;
+
+    private final Path baseDir;
+    private final int segmentSize;
+    private final int headBufferSize;
+    private final BloomFilter seenFilter;
+    private final Map<Integer, RuleLog> ruleLogs = new ConcurrentHashMap<>();
+
+    public DiskFetchReqFrontier() {
+        this(Paths.get(CONFIG_MAP.getString("disk_frontier_dir", "/var/tmp/cdg-frontier")),
+                CONFIG_MAP.getInteger("disk_frontier_segment_size", DEFAULT_SEGMENT_SIZE),
+                CONFIG_MAP.getInteger("disk_frontier_head_buffer_size", DEFAULT_HEAD_BUFFER_SIZE),
+                new BloomFilter(CONFIG_MAP.getInteger("bloom_expected_insertions", 1000000),
+                        Double.parseDouble(CONFIG_MAP.getString("bloom_false_positive_rate", "0.01")),
+                        Integer.MAX_VALUE));
+    }
+
+    public DiskFetchReqFrontier(Path baseDir, int segmentSize, int headBufferSize, BloomFilter seenFilter) {
+        this.baseDir = baseDir;
+        this.segmentSize = segmentSize;
+        this.headBufferSize = headBufferSize;
+        this.seenFilter = seenFilter;
+    }
+
+    @Override
+    public FetchRequest getNext(int taskRuleId) {
+        Set<FetchRequest> next = getTopK(taskRuleId, 1);
+        return next.isEmpty() ? null : next.iterator().next();
+    }
+
+    @Override
+    public Set<FetchRequest> getTopK(int taskRuleId, int K) {
+        return K <= 0 ? new HashSet<>() : ruleLog(taskRuleId).peek(K);
+    }
+
+    @Override
+    public void add(int taskRuleId, FetchRequest fetchReq) {
+        ruleLog(taskRuleId).add(fetchReq);
+    }
+
+    @Override
+    public void addAll(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        RuleLog ruleLog = ruleLog(taskRuleId);
+        for (FetchRequest fetchReq : fetchReqs) {
+            if (fetchReq != null) {
+                ruleLog.add(fetchReq);
+            }
+        }
+    }
+
+    @Override
+    public void delete(int taskRuleId, FetchRequest fetchReq) {
+        deleteAll(taskRuleId, Collections.singleton(fetchReq));
+    }
+
+    @Override
+    public void deleteAll(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        ack(taskRuleId, fetchReqs);
+    }
+
+    @Override
+    public void deleteKey(int taskRuleId) {
+        RuleLog ruleLog = ruleLogs.remove(taskRuleId);
+        if (ruleLog != null) {
+            ruleLog.close();
+        }
+        Path ruleDir = ruleDir(taskRuleId);
+        if (!Files.exists(ruleDir)) {
+            return;
+        }
+        // files first, then the directory
+        try (Stream<Path> paths = Files.walk(ruleDir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        } catch (IOException e) {
+            LOGGER.warn(String.format("Exception=%s when deleting frontier dir for taskrule=%s", e.getMessage(),
+                    taskRuleId));
+        }
+    }
+
+    @Override
+    public Set<FetchRequest> claim(int taskRuleId, int K, long leaseMillis) {
+        return K <= 0 ? new HashSet<>() : ruleLog(taskRuleId).claim(K, System.currentTimeMillis() + leaseMillis);
+    }
+
+    @Override
+    public void ack(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        if (CollectionUtils.isEmpty(fetchReqs)) {
+            return;
+        }
+        RuleLog ruleLog = ruleLog(taskRuleId);
+        for (FetchRequest fetchReq : fetchReqs) {
+            ruleLog.remove(fetchReq.getFingerprint());
+        }
+    }
+
+    @Override
+    public void nack(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        if (CollectionUtils.isEmpty(fetchReqs)) {
+            return;
+        }
+        RuleLog ruleLog = ruleLog(taskRuleId);
+        for (FetchRequest fetchReq : fetchReqs) {
+            ruleLog.release(fetchReq.getFingerprint());
+        }
+    }
+
+    @Override
+    public int reapExpiredLeases(int taskRuleId) {
+        return ruleLog(taskRuleId).reapExpiredLeases(System.currentTimeMillis());
+    }
+
+    @Override
+    public long leasedCount(int taskRuleId) {
+        return ruleLog(taskRuleId).leasedCount();
+    }
+
+    public long size(int taskRuleId) {
+        return ruleLog(taskRuleId).size();
+    }
+
+    /**
+     * Flushes the mapped files of every rule to disk.
+     */
+    public void force() {
+        for (RuleLog ruleLog : ruleLogs.values()) {
+            ruleLog.force();
+        }
+    }
+
+    public void shutdown() {
+        for (RuleLog ruleLog : ruleLogs.values()) {
+            ruleLog.force();
+            ruleLog.close();
+        }
+        ruleLogs.clear();
+    }
+
+    private Path ruleDir(int taskRuleId) {
+        return baseDir.resolve(String.valueOf(taskRuleId));
+    }
+
+    private RuleLog ruleLog(int taskRuleId) {
+        return ruleLogs.computeIfAbsent(taskRuleId, id -> {
+            try {
+                return new RuleLog(ruleDir(id));
+            } catch (IOException e) {
+                throw new UncheckedIOException(String.format("Cannot open frontier dir for taskrule=%s", id), e);
+            }
+        });
+    }
+
+    /**
+     * Position of a request in the logs, along with the decoded request.
+     */
+    private static class Entry {
+        private final FetchRequest fetchReq;
+        private final String id;
+        private final LogSegment segment;
+        private final int offset;
+        private long leaseExpiry;
+
+        private Entry(FetchRequest fetchReq, LogSegment segment, int offset) {
+            this.fetchReq = fetchReq;
+            this.id = fetchReq.getFingerprint();
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Append log of a single priority, the list of its segments and the read cursor.
+     */
+    private class PriorityLog {
+        private final Path dir;
+        private final int priority;
+        private final LinkedList<LogSegment> segments = new LinkedList<>();
+        private long nextSequence;
+
+        private LogSegment readSegment;
+        private int readOffset;
+
+        private PriorityLog(Path dir, int priority) {
+            this.dir = dir;
+            this.priority = priority;
+        }
+
+        private void addRecovered(LogSegment segment) {
+            if (!segments.isEmpty()) {
+                segments.getLast().seal();
+            }
+            segments.add(segment);
+            nextSequence = segment.getSequence() + 1;
+            if (readSegment == null) {
+                readSegment = segment;
+            }
+        }
+
+        private void append(byte[] payload) throws IOException {
+            LogSegment writeSegment = segments.peekLast();
+            if (writeSegment == null || writeSegment.append(payload) < 0) {
+                if (writeSegment != null) {
+                    writeSegment.seal();
+                }
+                // a request larger than a segment gets a segment of its own
+                writeSegment = LogSegment.create(dir, priority, nextSequence++, Math.max(segmentSize,
+                        payload.length + 4));
+                segments.add(writeSegment);
+                if (readSegment == null) {
+                    readSegment = writeSegment;
+                    readOffset = 0;
+                }
+                writeSegment.append(payload);
+            }
+        }
+
+        /**
+         * @return next record not marked done, or null once the cursor caught up with the writes
+         */
+        private Entry readNext() throws IOException {
+            while (readSegment != null) {
+                if (readOffset < readSegment.getWritePosition()) {
+                    int offset = readOffset;
+                    readOffset = readSegment.nextOffset(offset);
+                    if (!readSegment.isDone(offset)) {
+                        return new Entry(FetchRequestCodec.decode(readSegment.read(offset)), readSegment, offset);
+                    }
+                    continue;
+                }
+
+                int index = segments.indexOf(readSegment);
+                if (!readSegment.isSealed() || index == segments.size() - 1) {
+                    return null;
+                }
+                LogSegment passed = readSegment;
+                passed.setFullyRead(true);
+                readSegment = segments.get(index + 1);
+                readOffset = 0;
+                deleteIfDone(passed);
+            }
+            return null;
+        }
+
+        // moves the cursor back, used when buffered entries are handed back to the log
+        private void rewind(LogSegment segment, int offset) {
+            boolean after = false;
+            for (LogSegment s : segments) {
+                after |= s == segment;
+                if (after) {
+                    s.setFullyRead(false);
+                }
+            }
+            readSegment = segment;
+            readOffset = offset;
+        }
+
+        private void deleteIfDone(LogSegment segment) throws IOException {
+            if (segment.isDeletable()) {
+                segments.remove(segment);
+                segment.delete();
+            }
+        }
+
+        private void force() {
+            for (LogSegment segment : segments) {
+                segment.force();
+            }
+        }
+
+        private void close() {
+            for (LogSegment segment : segments) {
+                try {
+                    segment.close();
+                } catch (IOException e) {
+                    LOGGER.warn(String.format("Exception=%s when closing frontier segment priority=%d sequence=%d",
+                            e.getMessage(), priority, segment.getSequence()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Logs, head buffer, leases and seen-set of a single rule, guarded by the rule log monitor.
+     */
+    private class RuleLog {
+        private final Path dir;
+        // highest priority first
+        private final TreeMap<Integer, PriorityLog> logs = new TreeMap<>(Collections.reverseOrder());
+        private final ArrayDeque<Entry> head = new ArrayDeque<>();
+        private final Map<String, Entry> leases = new HashMap<>();
+        private final Set<String> tombstones = new HashSet<>();
+        // lines of the tombstones file that are no longer in tombstones
+        private int consumedTombstones;
+        private final FileChannel seenChannel;
+        private final MappedByteBuffer seenBits;
+        private long queued;
+
+        private RuleLog(Path dir) throws IOException {
+            this.dir = dir;
+            Files.createDirectories(dir);
+            long start = System.currentTimeMillis();
+
+            seenChannel = FileChannel.open(dir.resolve(SEEN_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            seenBits = seenChannel.map(FileChannel.MapMode.READ_WRITE, 0, ((seenFilter.getNumBits() + 63) >>> 6) * 8);
+
+            Path tombstonesFile = dir.resolve(TOMBSTONES_FILE);
+            if (Files.exists(tombstonesFile)) {
+                tombstones.addAll(Files.readAllLines(tombstonesFile, StandardCharsets.UTF_8));
+            }
+
+            // replay: every record of the segments that is not marked done nor tombstoned is pending
+            List<Path> segmentFiles = new ArrayList<>();
+            try (Stream<Path> files = Files.list(dir)) {
+                files.filter(f -> f.getFileName().toString().endsWith(LogSegment.LOG_SUFFIX))
+                        .forEach(segmentFiles::add);
+            }
+            segmentFiles.sort((a, b) -> Long.compare(sequence(a), sequence(b)));
+            for (Path segmentFile : segmentFiles) {
+                String name = segmentFile.getFileName().toString();
+                int priority = Integer.parseInt(name.substring(0, name.lastIndexOf('_')));
+                LogSegment segment = LogSegment.open(dir, priority, sequence(segmentFile));
+                if (!tombstones.isEmpty()) {
+                    markTombstonedDone(segment);
+                }
+                priorityLog(priority).addRecovered(segment);
+                queued += segment.liveRecords();
+            }
+            // the remaining ones are stale
+            tombstones.clear();
+            Files.deleteIfExists(tombstonesFile);
+
+            if (!segmentFiles.isEmpty()) {
+                LOGGER.info(String.format("Event=DiskFrontierReplay dir=%s segments=%d pending=%d timeTaken=%d", dir,
+                        segmentFiles.size(), queued, System.currentTimeMillis() - start));
+            }
+        }
+
+        private void markTombstonedDone(LogSegment segment) {
+            for (int offset = 0; offset < segment.getWritePosition(); offset = segment.nextOffset(offset)) {
+                if (!segment.isDone(offset)
+                        && tombstones.remove(FetchRequestCodec.decode(segment.read(offset)).getFingerprint())) {
+                    segment.markDone(offset);
+                }
+            }
+        }
+
+        private long sequence(Path segmentFile) {
+            String name = segmentFile.getFileName().toString();
+            return Long.parseLong(name.substring(name.lastIndexOf('_') + 1, name.length()
+                    - LogSegment.LOG_SUFFIX.length()));
+        }
+
+        private PriorityLog priorityLog(int priority) {
+            return logs.computeIfAbsent(priority, p -> new PriorityLog(dir, p));
+        }
+
+        synchronized void add(FetchRequest fetchReq) {
+            long[] positions = seenFilter.positions(fetchReq.getFingerprint());
+            if (isSeen(positions)) {
+                return;
+            }
+            for (long position : positions) {
+                int index = (int) (position >>> 6) * 8;
+                seenBits.putLong(index, seenBits.getLong(index) | (1L << position));
+            }
+            append(fetchReq.getPriority(), FetchRequestCodec.toBinary(fetchReq));
+        }
+
+        synchronized Set<FetchRequest> peek(int K) {
+            fillHead(K);
+            Set<FetchRequest> topK = new HashSet<>();
+            Iterator<Entry> it = head.iterator();
+            while (topK.size() < K && it.hasNext()) {
+                topK.add(it.next().fetchReq);
+            }
+            return topK;
+        }
+
+        synchronized Set<FetchRequest> claim(int K, long leaseExpiry) {
+            fillHead(K);
+            Set<FetchRequest> claimed = new HashSet<>();
+            while (claimed.size() < K && !head.isEmpty()) {
+                Entry entry = head.poll();
+                entry.leaseExpiry = leaseExpiry;
+                leases.put(entry.id, entry);
+                claimed.add(entry.fetchReq);
+                queued--;
+            }
+            return claimed;
+        }
+
+        synchronized void remove(String id) {
+            Entry entry = leases.remove(id);
+            if (entry != null) {
+                markDone(entry);
+                return;
+            }
+            for (Iterator<Entry> it = head.iterator(); it.hasNext(); ) {
+                entry = it.next();
+                if (entry.id.equals(id)) {
+                    it.remove();
+                    markDone(entry);
+                    queued--;
+                    return;
+                }
+            }
+            // maybe still in the logs, skipped and counted out once the cursor gets to it
+            if (isSeen(seenFilter.positions(id)) && tombstones.add(id)) {
+                try {
+                    Files.write(dir.resolve(TOMBSTONES_FILE), Collections.singleton(id), StandardCharsets.UTF_8,
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        // re-appended at the tail of its priority, the old record is marked done
+        synchronized void release(String id) {
+            Entry entry = leases.remove(id);
+            if (entry != null) {
+                requeue(entry);
+            }
+        }
+
+        synchronized int reapExpiredLeases(long now) {
+            List<Entry> expired = new ArrayList<>();
+            for (Entry entry : leases.values()) {
+                if (entry.leaseExpiry <= now) {
+                    expired.add(entry);
+                }
+            }
+            for (Entry entry : expired) {
+                leases.remove(entry.id);
+                requeue(entry);
+            }
+            return expired.size();
+        }
+
+        synchronized long leasedCount() {
+            return leases.size();
+        }
+
+        synchronized long size() {
+            return queued;
+        }
+
+        synchronized void force() {
+            seenBits.force();
+            for (PriorityLog log : logs.values()) {
+                log.force();
+            }
+        }
+
+        synchronized void close() {
+            for (PriorityLog log : logs.values()) {
+                log.close();
+            }
+            try {
+                seenChannel.close();
+            } catch (IOException e) {
+                LOGGER.warn(String.format("Exception=%s when closing frontier seen-set dir=%s", e.getMessage(), dir));
+            }
+        }
+
+        private void requeue(Entry entry) {
+            byte[] payload = entry.segment.read(entry.offset);
+            markDone(entry);
+            append(entry.fetchReq.getPriority(), payload);
+        }
+
+        private void append(int priority, byte[] payload) {
+            try {
+                priorityLog(priority).append(payload);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            queued++;
+
+            // buffered entries of lower priority have to wait behind this one
+            Entry last = head.peekLast();
+            if (last != null && priority > last.fetchReq.getPriority()) {
+                rewindHead();
+            }
+        }
+
+        private void fillHead(int K) {
+            int target = Math.max(K, headBufferSize);
+            try {
+                for (PriorityLog log : logs.values()) {
+                    Entry entry;
+                    while (head.size() < target && (entry = log.readNext()) != null) {
+                        if (tombstones.remove(entry.id)) {
+                            markDone(entry);
+                            queued--;
+                            consumedTombstones++;
+                            if (consumedTombstones > tombstones.size()) {
+                                writeTombstones();
+                            }
+                            continue;
+                        }
+                        head.add(entry);
+                    }
+                    if (head.size() >= target) {
+                        return;
+                    }
+                }
+                // every log was read through, the tombstones left match no record
+                if (!tombstones.isEmpty()) {
+                    tombstones.clear();
+                    writeTombstones();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // hands the buffered entries back to their logs, they are read again in priority order
+        private void rewindHead() {
+            Map<Integer, Entry> firstByPriority = new HashMap<>();
+            for (Entry entry : head) {
+                firstByPriority.putIfAbsent(entry.fetchReq.getPriority(), entry);
+            }
+            for (Entry first : firstByPriority.values()) {
+                logs.get(first.fetchReq.getPriority()).rewind(first.segment, first.offset);
+            }
+            head.clear();
+        }
+
+        private void markDone(Entry entry) {
+            entry.segment.markDone(entry.offset);
+            try {
+                logs.get(entry.segment.getPriority()).deleteIfDone(entry.segment);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void writeTombstones() throws IOException {
+            consumedTombstones = 0;
+            Path tombstonesFile = dir.resolve(TOMBSTONES_FILE);
+            if (tombstones.isEmpty()) {
+                Files.deleteIfExists(tombstonesFile);
+            } else {
+                Files.write(tombstonesFile, tombstones, StandardCharsets.UTF_8);
+            }
+        }
+
+        private boolean isSeen(long[] positions) {
+            for (long position : positions) {
+                if ((seenBits.getLong((int) (position >>> 6) * 8) & (1L << position)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -2,6 +2,13 @@ package com.intrence.cdg.frontier;
 
 import com.intrence.cdg.net.FetchRequest;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public interface FetchRequestFrontier {
@@ -28,4 +35,102 @@ public interface FetchRequestFrontier {
      * @param taskRuleId
      */
     void deleteKey(int taskRuleId);
+
+    /**
+     * Atomically moves up to K highest priority fetchReqs out of the queue into the in-flight set, leased for
+     * leaseMillis. Claimed fetchReqs are not handed out again until they are nacked or their lease expires, so several
+     * tasks or nodes can work on the same taskRuleId without fetching the same urls.
+     * @param taskRuleId
+     * @param K
+     * @param leaseMillis
+     * @return claimed fetchReqs, empty if nothing is queued
+     */
+    Set<FetchRequest> claim(int taskRuleId, int K, long leaseMillis);
+
+    /**
+     * Same as claim, along with the time the lease of each claimed fetchReq expires, for implementations that hand out
+     * fetchReqs they leased before the call
+     * @param taskRuleId
+     * @param K
+     * @param leaseMillis
+     * @return claimed fetchReqs and their lease expiry in epoch millis, empty if nothing is queued
+     */
+    default Map<FetchRequest, Long> claimWithLeases(int taskRuleId, int K, long leaseMillis) {
+        long leaseExpiry = System.currentTimeMillis() + leaseMillis;
+        Map<FetchRequest, Long> claimed = new HashMap<>();
+        for (FetchRequest fetchReq : claim(taskRuleId, K, leaseMillis)) {
+            claimed.put(fetchReq, leaseExpiry);
+        }
+        return claimed;
+    }
+
+    /**
+     * Marks claimed fetchReqs as done, they are removed from the in-flight set for good
+     * @param taskRuleId
+     * @param fetchReqs
+     */
+    void ack(int taskRuleId, Set<FetchRequest> fetchReqs);
+
+    /**
+     * Releases claimed fetchReqs back to the queue with their original priority
+     * @param taskRuleId
+     * @param fetchReqs
+     */
+    void nack(int taskRuleId, Set<FetchRequest> fetchReqs);
+
+    /**
+     * Puts back to the queue the in-flight fetchReqs whose lease has expired, e.g. claimed by a node that crashed
+     * @param taskRuleId
+     * @return number of fetchReqs requeued
+     */
+    int reapExpiredLeases(int taskRuleId);
+
+    /**
+     * @param taskRuleId
+     * @return number of fetchReqs currently claimed and neither acked nor nacked
+     */
+    long leasedCount(int taskRuleId);
+
+    /**
+     * Priorities of the top K fetchReqs of the queue, highest first, without their payloads
+     * @param taskRuleId
+     * @param K
+     * @return
+     */
+    default List<Integer> peekPriorities(int taskRuleId, int K) {
+        List<Integer> priorities = new ArrayList<>();
+        for (FetchRequest fetchReq : getTopK(taskRuleId, K)) {
+            priorities.add(fetchReq.getPriority());
+        }
+        priorities.sort(Collections.reverseOrder());
+        return priorities;
+    }
+
+    /**
+     * Makes sure every fetchReq added so far is in the frontier, for implementations that buffer their writes
+     * @param taskRuleId
+     */
+    default void flush(int taskRuleId) {
+    }
+
+    /**
+     * Writes the pending fetchReqs and the seen-set of the taskRuleId to a snapshot file, for the implementations that
+     * support it
+     * @param taskRuleId
+     * @param file
+     * @return number of fetchReqs exported
+     */
+    default long exportSnapshot(int taskRuleId, Path file) throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support snapshots");
+    }
+
+    /**
+     * Replaces the taskRuleId with the content of a snapshot file written by exportSnapshot
+     * @param taskRuleId
+     * @param file
+     * @return number of fetchReqs restored
+     */
+    default long importSnapshot(int taskRuleId, Path file) throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support snapshots");
+    }
 }
@@ -0,0 +1,100 @@
+package com.intrence.cdg.frontier;
+
+import com.intrence.config.ConfigProvider;
+import com.intrence.config.collection.ConfigMap;
+import org.apache.log4j.Logger;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Builds the FetchRequestFrontier of the tasks from config.
+ *
+ * frontier_backend picks where the requests are kept: redis (default), sharded (one redis per endpoint of the redis
+ * host config), disk or memory. On top of it, frontier_write_buffer_enabled batches the inserts in a
+ * BufferedFetchReqFrontier so that workers do not wait on the backend, and frontier_politeness_enabled (off by default)
+ * spreads the claims over hosts through a PoliteFetchReqFrontier. Its host window applies on top of the source rate
+ * ceilings, so politeness_host_delay_millis and politeness_host_concurrency have to allow the max_records_per_sec of
+ * the sources crawled.
+ */
+@Configuration
+public class FrontierConfiguration {
+
+    private static final Logger LOGGER = Logger.getLogger(FrontierConfiguration.class);
+
+    public static final String REDIS = "redis";
+    public static final String SHARDED = "sharded";
+    public static final String DISK = "disk";
+    public static final String MEMORY = "memory";
+
+    // frontiers of the chain to shut down, innermost first
+    private final List<Runnable> shutdownHooks = new ArrayList<>();
+
+    // the chain is shut down here, in order, rather than by the inferred shutdown of its outermost frontier
+    @Bean(destroyMethod = "")
+    public FetchRequestFrontier fetchRequestFrontier() {
+        return build(ConfigProvider.getConfig());
+    }
+
+    FetchRequestFrontier build(ConfigMap configMap) {
+        String backend = configMap.getString("frontier_backend", REDIS);
+        FetchRequestFrontier frontier;
+        switch (backend) {
+            case REDIS:
+                RedisFetchReqFrontier redisFrontier = new RedisFetchReqFrontier();
+                redisFrontier.init();
+                shutdownHooks.add(redisFrontier::shutdown);
+                frontier = redisFrontier;
+                break;
+            case SHARDED:
+                ShardedFetchReqFrontier shardedFrontier = new ShardedFetchReqFrontier();
+                shardedFrontier.init();
+                shutdownHooks.add(shardedFrontier::shutdown);
+                frontier = shardedFrontier;
+                break;
+            case DISK:
+                DiskFetchReqFrontier diskFrontier = new DiskFetchReqFrontier();
+                shutdownHooks.add(diskFrontier::shutdown);
+                frontier = diskFrontier;
+                break;
+            case MEMORY:
+                frontier = new InMemoryFetchReqFrontier();
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("Unknown frontier_backend=%s, expected one of %s",
+                        backend, String.join(",", REDIS, SHARDED, DISK, MEMORY)));
+        }
+
+        boolean writeBuffer = configMap.getBoolean("frontier_write_buffer_enabled", true);
+        if (writeBuffer) {
+            BufferedFetchReqFrontier bufferedFrontier = new BufferedFetchReqFrontier(frontier);
+            shutdownHooks.add(bufferedFrontier::shutdown);
+            frontier = bufferedFrontier;
+        }
+        boolean politeness = configMap.getBoolean("frontier_politeness_enabled", false);
+        if (politeness) {
+            frontier = new PoliteFetchReqFrontier(frontier);
+        }
+        LOGGER.info(String.format("Event=FrontierChain backend=%s writeBuffer=%s politeness=%s", backend,
+                writeBuffer, politeness));
+        return frontier;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // pending inserts are flushed before the backend goes away
+        List<Runnable> hooks = new ArrayList<>(shutdownHooks);
+        Collections.reverse(hooks);
+        for (Runnable hook : hooks) {
+            try {
+                hook.run();
+            } catch (Exception e) {
+                LOGGER.warn("Exception=FrontierShutdown", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.intrence.cdg.frontier;
+
+import com.codahale.metrics.CachedGauge;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.intrence.cdg.util.MetricsProvider;
+import com.intrence.config.ConfigProvider;
+import com.intrence.config.collection.ConfigMap;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Metrics of a frontier, registered under frontier.<name> in the MetricsProvider registry:
+ *
+ *  - <event>: latency of the calls to the frontier store, e.g. frontier.redis.RedisClaim
+ *  - <taskRuleId>.enqueued, admitted, seenHits, dequeued: requests offered to the frontier, the ones queued, the ones
+ *    dropped as already seen and the ones claimed
+ *  - <taskRuleId>.seenHitRatio: share of the offered requests dropped as already seen, over the last minute
+ *  - <taskRuleId>.pending, inFlight, seenFalsePositiveRate: read from the store and cached for gaugeMillis, a JMX
+ *    poll thus does not turn into a burst of store calls
+ *
+ * The metrics of a rule are registered on its first use and removed by removeRule.
+ */
+class FrontierMetrics {
+
+    private static final ConfigMap CONFIG_MAP = ConfigProvider.getConfig();
+
+    private final MetricRegistry registry;
+    private final String prefix;
+    private final long gaugeMillis;
+    private final IntToLongFunction pending;
+    private final IntToLongFunction inFlight;
+    private final IntToDoubleFunction seenFalsePositiveRate;
+    private final Map<Integer, RuleMetrics> rules = new ConcurrentHashMap<>();
+
+    FrontierMetrics(String name, IntToLongFunction pending, IntToLongFunction inFlight,
+                    IntToDoubleFunction seenFalsePositiveRate) {
+        this(MetricsProvider.getRegistry(), name, CONFIG_MAP.getInteger("frontier_metrics_gauge_millis", 10000),
+                pending, inFlight, seenFalsePositiveRate);
+    }
+
+    FrontierMetrics(MetricRegistry registry, String name, long gaugeMillis, IntToLongFunction pending,
+                    IntToLongFunction inFlight, IntToDoubleFunction seenFalsePositiveRate) {
+        this.registry = registry;
+        this.prefix = MetricRegistry.name("frontier", name);
+        this.gaugeMillis = gaugeMillis;
+        this.pending = pending;
+        this.inFlight = inFlight;
+        this.seenFalsePositiveRate = seenFalsePositiveRate;
+    }
+
+    void time(String event, long millis) {
+        registry.timer(MetricRegistry.name(prefix, event)).update(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param offered requests passed to add/addAll
+     * @param admitted requests actually queued, the others were already seen
+     */
+    void enqueued(int taskRuleId, int offered, int admitted) {
+        RuleMetrics rule = rule(taskRuleId);
+        rule.enqueued.mark(offered);
+        rule.admitted.mark(admitted);
+        rule.seenHits.mark(offered - admitted);
+    }
+
+    void dequeued(int taskRuleId, int claimed) {
+        rule(taskRuleId).dequeued.mark(claimed);
+    }
+
+    void removeRule(int taskRuleId) {
+        if (rules.remove(taskRuleId) != null) {
+            String rulePrefix = MetricRegistry.name(prefix, String.valueOf(taskRuleId)) + ".";
+            registry.removeMatching((name, metric) -> name.startsWith(rulePrefix));
+        }
+    }
+
+    private RuleMetrics rule(int taskRuleId) {
+        return rules.computeIfAbsent(taskRuleId, RuleMetrics::new);
+    }
+
+    private class RuleMetrics {
+        private final Meter enqueued;
+        private final Meter admitted;
+        private final Meter seenHits;
+        private final Meter dequeued;
+
+        private RuleMetrics(int taskRuleId) {
+            String rulePrefix = MetricRegistry.name(prefix, String.valueOf(taskRuleId));
+            enqueued = registry.meter(MetricRegistry.name(rulePrefix, "enqueued"));
+            admitted = registry.meter(MetricRegistry.name(rulePrefix, "admitted"));
+            seenHits = registry.meter(MetricRegistry.name(rulePrefix, "seenHits"));
+            dequeued = registry.meter(MetricRegistry.name(rulePrefix, "dequeued"));
+
+            register(MetricRegistry.name(rulePrefix, "seenHitRatio"), new RatioGauge() {
+                @Override
+                protected Ratio getRatio() {
+                    return Ratio.of(seenHits.getOneMinuteRate(), enqueued.getOneMinuteRate());
+                }
+            });
+            register(MetricRegistry.name(rulePrefix, "pending"),
+                    new CachedGauge<Long>(gaugeMillis, TimeUnit.MILLISECONDS) {
+                        @Override
+                        protected Long loadValue() {
+                            return pending.applyAsLong(taskRuleId);
+                        }
+                    });
+            register(MetricRegistry.name(rulePrefix, "inFlight"),
+                    new CachedGauge<Long>(gaugeMillis, TimeUnit.MILLISECONDS) {
+                        @Override
+                        protected Long loadValue() {
+                            return inFlight.applyAsLong(taskRuleId);
+                        }
+                    });
+            // counting the seen-set bits is the costliest read, refreshed less often
+            register(MetricRegistry.name(rulePrefix, "seenFalsePositiveRate"),
+                    new CachedGauge<Double>(gaugeMillis * 6, TimeUnit.MILLISECONDS) {
+                        @Override
+                        protected Double loadValue() {
+                            return seenFalsePositiveRate.applyAsDouble(taskRuleId);
+                        }
+                    });
+        }
+
+        // a frontier recreated under the same name takes over the gauges of the previous one
+        private void register(String name, Gauge<?> gauge) {
+            registry.remove(name);
+            registry.register(name, gauge);
+        }
+    }
+}
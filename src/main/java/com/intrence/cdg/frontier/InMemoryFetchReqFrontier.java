@@ -0,0 +1,324 @@
+package com.intrence.cdg.frontier;
+
+import com.intrence.cdg.net.FetchRequest;
+import com.intrence.cdg.net.FetchRequestCodec;
+import com.intrence.config.ConfigProvider;
+import com.intrence.config.collection.ConfigMap;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Embedded FetchRequestFrontier, same contract as RedisFetchReqFrontier without the network hop. Meant for single node
+ * crawls and as a local stand-in for redis in tests, the state lives only as long as the process.
+ *
+ * Per rule, requests are ordered in a primitive array heap, their binary encoded payloads are kept off-heap in a
+ * PayloadArena and the seen-set is an in-memory bloom filter sized like the redis one.
+ */
+public class InMemoryFetchReqFrontier implements FetchRequestFrontier {
+
+    private static final Logger LOGGER = Logger.getLogger(InMemoryFetchReqFrontier.class);
+    private static final ConfigMap CONFIG_MAP = ConfigProvider.getConfig();
+
+    private static final int DEFAULT_ARENA_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    private final long expectedInsertions;
+    private final double falsePositiveRate;
+    private final int arenaChunkSize;
+    private final Map<Integer, RuleQueue> queues = new ConcurrentHashMap<>();
+
+    public InMemoryFetchReqFrontier() {
+        this(CONFIG_MAP.getInteger("bloom_expected_insertions", 1000000),
+                Double.parseDouble(CONFIG_MAP.getString("bloom_false_positive_rate", "0.01")),
+                CONFIG_MAP.getInteger("frontier_arena_chunk_size", DEFAULT_ARENA_CHUNK_SIZE));
+    }
+
+    public InMemoryFetchReqFrontier(long expectedInsertions, double falsePositiveRate, int arenaChunkSize) {
+        this.expectedInsertions = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+        this.arenaChunkSize = arenaChunkSize;
+    }
+
+    @Override
+    public FetchRequest getNext(int taskRuleId) {
+        Set<FetchRequest> next = getTopK(taskRuleId, 1);
+        return next.isEmpty() ? null : next.iterator().next();
+    }
+
+    @Override
+    public Set<FetchRequest> getTopK(int taskRuleId, int K) {
+        RuleQueue queue = queues.get(taskRuleId);
+        return queue == null || K <= 0 ? new HashSet<>() : queue.peek(K);
+    }
+
+    @Override
+    public void add(int taskRuleId, FetchRequest fetchReq) {
+        queue(taskRuleId).add(fetchReq);
+    }
+
+    @Override
+    public void addAll(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        RuleQueue queue = queue(taskRuleId);
+        for (FetchRequest fetchReq : fetchReqs) {
+            if (fetchReq != null) {
+                queue.add(fetchReq);
+            }
+        }
+    }
+
+    @Override
+    public void delete(int taskRuleId, FetchRequest fetchReq) {
+        RuleQueue queue = queues.get(taskRuleId);
+        if (queue != null) {
+            queue.remove(fetchReq);
+        }
+    }
+
+    @Override
+    public void deleteAll(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        ack(taskRuleId, fetchReqs);
+    }
+
+    @Override
+    public void deleteKey(int taskRuleId) {
+        RuleQueue queue = queues.remove(taskRuleId);
+        if (queue != null) {
+            queue.release();
+        }
+    }
+
+    @Override
+    public Set<FetchRequest> claim(int taskRuleId, int K, long leaseMillis) {
+        RuleQueue queue = queues.get(taskRuleId);
+        return queue == null || K <= 0 ? new HashSet<>()
+                : queue.claim(K, System.currentTimeMillis() + leaseMillis);
+    }
+
+    @Override
+    public void ack(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        RuleQueue queue = queues.get(taskRuleId);
+        if (queue == null || CollectionUtils.isEmpty(fetchReqs)) {
+            return;
+        }
+        for (FetchRequest fetchReq : fetchReqs) {
+            queue.remove(fetchReq);
+        }
+    }
+
+    @Override
+    public void nack(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        RuleQueue queue = queues.get(taskRuleId);
+        if (queue == null || CollectionUtils.isEmpty(fetchReqs)) {
+            return;
+        }
+        for (FetchRequest fetchReq : fetchReqs) {
+            queue.release(fetchReq.getFingerprint());
+        }
+    }
+
+    @Override
+    public int reapExpiredLeases(int taskRuleId) {
+        RuleQueue queue = queues.get(taskRuleId);
+        return queue == null ? 0 : queue.reapExpiredLeases(System.currentTimeMillis());
+    }
+
+    @Override
+    public long leasedCount(int taskRuleId) {
+        RuleQueue queue = queues.get(taskRuleId);
+        return queue == null ? 0 : queue.leasedCount();
+    }
+
+    public int size(int taskRuleId) {
+        RuleQueue queue = queues.get(taskRuleId);
+        return queue == null ? 0 : queue.size();
+    }
+
+    public boolean isSeen(int taskRuleId, FetchRequest fetchReq) {
+        RuleQueue queue = queues.get(taskRuleId);
+        return queue != null && queue.isSeen(fetchReq.getFingerprint());
+    }
+
+    private RuleQueue queue(int taskRuleId) {
+        return queues.computeIfAbsent(taskRuleId, id -> new RuleQueue(
+                new BloomFilter(expectedInsertions, falsePositiveRate, Integer.MAX_VALUE), arenaChunkSize));
+    }
+
+    /**
+     * Queue, leases, payloads and seen-set of a single rule, guarded by the queue monitor.
+     */
+    private static class RuleQueue {
+
+        private final BloomFilter seenFilter;
+        private final long[] seenBits;
+
+        private final PriorityHeap heap = new PriorityHeap(1024);
+        private final Map<String, Integer> slotsById = new HashMap<>();
+        private final Map<String, Long> leaseExpiries = new HashMap<>();
+        private String[] ids = new String[1024];
+        private long[] handles = new long[1024];
+        private int[] freeSlots = new int[16];
+        private int freeSlotCount;
+        private int nextSlot;
+        private long sequence;
+
+        private PayloadArena arena;
+
+        RuleQueue(BloomFilter seenFilter, int arenaChunkSize) {
+            this.seenFilter = seenFilter;
+            this.seenBits = new long[(int) ((seenFilter.getNumBits() + 63) >>> 6)];
+            this.arena = new PayloadArena(arenaChunkSize);
+        }
+
+        synchronized void add(FetchRequest fetchReq) {
+            String id = fetchReq.getFingerprint();
+            long[] positions = seenFilter.positions(id);
+            if (isSeen(positions)) {
+                return;
+            }
+            for (long position : positions) {
+                seenBits[(int) (position >>> 6)] |= 1L << position;
+            }
+
+            int slot = allocateSlot();
+            ids[slot] = id;
+            handles[slot] = arena.put(FetchRequestCodec.toBinary(fetchReq));
+            slotsById.put(id, slot);
+            heap.push(slot, fetchReq.getPriority(), sequence++);
+        }
+
+        synchronized Set<FetchRequest> peek(int K) {
+            List<Integer> slots = new ArrayList<>(K);
+            while (slots.size() < K && !heap.isEmpty()) {
+                slots.add(heap.pop());
+            }
+            Set<FetchRequest> topK = new HashSet<>();
+            for (int slot : slots) {
+                topK.add(load(slot));
+                heap.push(slot, heap.priority(slot), heap.sequence(slot));
+            }
+            return topK;
+        }
+
+        synchronized Set<FetchRequest> claim(int K, long leaseExpiry) {
+            Set<FetchRequest> claimed = new HashSet<>();
+            while (claimed.size() < K && !heap.isEmpty()) {
+                int slot = heap.pop();
+                leaseExpiries.put(ids[slot], leaseExpiry);
+                claimed.add(load(slot));
+            }
+            return claimed;
+        }
+
+        // back to the queue with its original priority and position among equals
+        synchronized void release(String id) {
+            Integer slot = slotsById.get(id);
+            if (slot != null && leaseExpiries.remove(id) != null) {
+                heap.push(slot, heap.priority(slot), heap.sequence(slot));
+            }
+        }
+
+        synchronized int reapExpiredLeases(long now) {
+            int reaped = 0;
+            Iterator<Map.Entry<String, Long>> it = leaseExpiries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Long> lease = it.next();
+                if (lease.getValue() <= now) {
+                    int slot = slotsById.get(lease.getKey());
+                    heap.push(slot, heap.priority(slot), heap.sequence(slot));
+                    it.remove();
+                    reaped++;
+                }
+            }
+            return reaped;
+        }
+
+        synchronized void remove(FetchRequest fetchReq) {
+            String id = fetchReq.getFingerprint();
+            Integer slot = slotsById.remove(id);
+            if (slot == null) {
+                return;
+            }
+            heap.remove(slot);
+            leaseExpiries.remove(id);
+            arena.free(handles[slot]);
+            ids[slot] = null;
+            freeSlot(slot);
+
+            if (arena.needsCompaction()) {
+                compact();
+            }
+        }
+
+        synchronized boolean isSeen(String id) {
+            return isSeen(seenFilter.positions(id));
+        }
+
+        synchronized int size() {
+            return heap.size();
+        }
+
+        synchronized long leasedCount() {
+            return leaseExpiries.size();
+        }
+
+        synchronized void release() {
+            arena.release();
+            slotsById.clear();
+            leaseExpiries.clear();
+        }
+
+        private boolean isSeen(long[] positions) {
+            for (long position : positions) {
+                if ((seenBits[(int) (position >>> 6)] & (1L << position)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private FetchRequest load(int slot) {
+            return FetchRequestCodec.decode(arena.get(handles[slot]));
+        }
+
+        // copies the live payloads into a fresh arena, the old buffers are dropped
+        private void compact() {
+            long start = System.currentTimeMillis();
+            long deadBytes = arena.getDeadBytes();
+            PayloadArena compacted = new PayloadArena(arena.getChunkSize());
+            for (int slot : slotsById.values()) {
+                handles[slot] = compacted.put(arena.get(handles[slot]));
+            }
+            arena.release();
+            arena = compacted;
+            LOGGER.info(String.format("Event=PayloadArenaCompaction reclaimedBytes=%d liveBytes=%d timeTaken=%d",
+                    deadBytes, arena.getLiveBytes(), System.currentTimeMillis() - start));
+        }
+
+        private int allocateSlot() {
+            if (freeSlotCount > 0) {
+                return freeSlots[--freeSlotCount];
+            }
+            if (nextSlot == ids.length) {
+                ids = Arrays.copyOf(ids, nextSlot * 2);
+                handles = Arrays.copyOf(handles, nextSlot * 2);
+            }
+            return nextSlot++;
+        }
+
+        private void freeSlot(int slot) {
+            if (freeSlotCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeSlotCount * 2);
+            }
+            freeSlots[freeSlotCount++] = slot;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.intrence.cdg.frontier;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Fixed size, memory-mapped append log of payloads for one priority of a DiskFetchReqFrontier.
+ *
+ * Records are laid out as [int length][payload], the payload is written before its length so that a record torn by a
+ * crash is simply not there on replay. Offsets of the consumed records are appended to a sidecar .done file, once a
+ * sealed segment has all its records done the pair of files is deleted. Not thread-safe.
+ */
+class LogSegment implements Closeable {
+
+    static final String LOG_SUFFIX = ".log";
+    static final String DONE_SUFFIX = ".done";
+    private static final int LENGTH_SIZE = 4;
+
+    private final int priority;
+    private final long sequence;
+    private final Path file;
+    private final Path doneFile;
+    private final FileChannel channel;
+    private final FileChannel doneChannel;
+    private final MappedByteBuffer buffer;
+    private final Set<Integer> doneOffsets = new HashSet<>();
+
+    private int writePosition;
+    private int records;
+    private boolean sealed;
+    // the read cursor of the priority log went past the last record
+    private boolean fullyRead;
+
+    private LogSegment(Path dir, int priority, long sequence, int size) throws IOException {
+        this.priority = priority;
+        this.sequence = sequence;
+        this.file = dir.resolve(fileName(priority, sequence));
+        this.doneFile = dir.resolve(priority + "_" + sequence + DONE_SUFFIX);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        int mappedSize = size > 0 ? size : (int) channel.size();
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, mappedSize);
+        this.doneChannel = FileChannel.open(doneFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    static LogSegment create(Path dir, int priority, long sequence, int size) throws IOException {
+        return new LogSegment(dir, priority, sequence, size);
+    }
+
+    /**
+     * Maps an existing segment and recovers its write position and done records.
+     */
+    static LogSegment open(Path dir, int priority, long sequence) throws IOException {
+        LogSegment segment = new LogSegment(dir, priority, sequence, 0);
+        segment.recover();
+        return segment;
+    }
+
+    static String fileName(int priority, long sequence) {
+        return priority + "_" + sequence + LOG_SUFFIX;
+    }
+
+    private void recover() throws IOException {
+        int position = 0;
+        while (position + LENGTH_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + LENGTH_SIZE + length > buffer.capacity()) {
+                break;
+            }
+            position += LENGTH_SIZE + length;
+            records++;
+        }
+        writePosition = position;
+
+        ByteBuffer done = ByteBuffer.wrap(Files.readAllBytes(doneFile));
+        while (done.remaining() >= LENGTH_SIZE) {
+            doneOffsets.add(done.getInt());
+        }
+    }
+
+    /**
+     * @return offset of the appended record, or -1 if the segment has no room left for it
+     */
+    int append(byte[] payload) {
+        if (sealed || writePosition + LENGTH_SIZE + payload.length > buffer.capacity()) {
+            return -1;
+        }
+        int offset = writePosition;
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset + LENGTH_SIZE);
+        slice.put(payload);
+        buffer.putInt(offset, payload.length);
+        writePosition += LENGTH_SIZE + payload.length;
+        records++;
+        return offset;
+    }
+
+    byte[] read(int offset) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset);
+        byte[] payload = new byte[slice.getInt()];
+        slice.get(payload);
+        return payload;
+    }
+
+    int nextOffset(int offset) {
+        return offset + LENGTH_SIZE + buffer.getInt(offset);
+    }
+
+    boolean isDone(int offset) {
+        return doneOffsets.contains(offset);
+    }
+
+    void markDone(int offset) {
+        if (!doneOffsets.add(offset)) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(LENGTH_SIZE).putInt(offset);
+        record.flip();
+        try {
+            while (record.hasRemaining()) {
+                doneChannel.write(record);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    int liveRecords() {
+        return records - doneOffsets.size();
+    }
+
+    boolean isDeletable() {
+        return sealed && fullyRead && liveRecords() == 0;
+    }
+
+    void seal() {
+        sealed = true;
+    }
+
+    boolean isSealed() {
+        return sealed;
+    }
+
+    void setFullyRead(boolean fullyRead) {
+        this.fullyRead = fullyRead;
+    }
+
+    int getWritePosition() {
+        return writePosition;
+    }
+
+    int getPriority() {
+        return priority;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        doneChannel.close();
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(doneFile);
+    }
+}
@@ -0,0 +1,81 @@
+package com.intrence.cdg.frontier;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only store of byte payloads in off-heap (direct) buffers, so that queued requests do not weigh on the gc.
+ *
+ * A payload is addressed by the handle returned from {@link #put(byte[])}, the chunk index in the upper 32 bits and the
+ * offset in the lower ones. Freed payloads are only accounted for, the space is reclaimed by copying the live payloads
+ * to a new arena (see {@link #needsCompaction()}). Not thread-safe.
+ */
+class PayloadArena {
+
+    private static final int LENGTH_SIZE = 4;
+
+    private final int chunkSize;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private ByteBuffer current;
+
+    private long liveBytes;
+    private long deadBytes;
+
+    PayloadArena(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    long put(byte[] payload) {
+        int required = LENGTH_SIZE + payload.length;
+        if (current == null || current.remaining() < required) {
+            current = ByteBuffer.allocateDirect(Math.max(chunkSize, required));
+            chunks.add(current);
+        }
+        long handle = ((long) (chunks.size() - 1) << 32) | current.position();
+        current.putInt(payload.length);
+        current.put(payload);
+        liveBytes += required;
+        return handle;
+    }
+
+    byte[] get(long handle) {
+        ByteBuffer chunk = chunks.get((int) (handle >>> 32)).duplicate();
+        chunk.position((int) handle);
+        byte[] payload = new byte[chunk.getInt()];
+        chunk.get(payload);
+        return payload;
+    }
+
+    void free(long handle) {
+        ByteBuffer chunk = chunks.get((int) (handle >>> 32));
+        int freed = LENGTH_SIZE + chunk.getInt((int) handle);
+        liveBytes -= freed;
+        deadBytes += freed;
+    }
+
+    // worth copying the live payloads once more than half of the allocated space is garbage
+    boolean needsCompaction() {
+        return deadBytes > chunkSize && deadBytes > liveBytes;
+    }
+
+    long getLiveBytes() {
+        return liveBytes;
+    }
+
+    long getDeadBytes() {
+        return deadBytes;
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    void release() {
+        // direct buffers are released once collected
+        chunks.clear();
+        current = null;
+        liveBytes = 0;
+        deadBytes = 0;
+    }
+}
@@ -0,0 +1,377 @@
+package com.intrence.cdg.frontier;
+
+import com.intrence.cdg.net.FetchRequest;
+import com.intrence.config.ConfigProvider;
+import com.intrence.config.collection.ConfigMap;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Host-aware scheduling on top of another FetchRequestFrontier, so that a batch of top priority urls does not all go to
+ * the same host.
+ *
+ * claim() leases a window of claimFactor * K requests from the delegate and spreads them over one queue per host.
+ * Requests are then handed out from the hosts whose next fetch is due, earliest first, with at most hostConcurrency
+ * requests of a host in flight and at most hostConcurrency dispatches to the same host per hostDelayMillis window. What
+ * is not due yet stays buffered, leased in the delegate, until a later claim. Requests buffered for more than half of
+ * their lease go back to the delegate instead of being dispatched, and claimWithLeases returns the lease taken in the
+ * delegate, not one starting at dispatch. ack/nack free the host slot and are passed through.
+ *
+ * The default window caps a host at hostConcurrency * 1000 / hostDelayMillis requests per second, on top of the rate
+ * limits of the WebFetcher, so politeness is off unless frontier_politeness_enabled is set.
+ */
+public class PoliteFetchReqFrontier implements FetchRequestFrontier {
+
+    private static final Logger LOGGER = Logger.getLogger(PoliteFetchReqFrontier.class);
+    private static final ConfigMap CONFIG_MAP = ConfigProvider.getConfig();
+
+    private final FetchRequestFrontier delegate;
+    private final long hostDelayMillis;
+    private final int hostConcurrency;
+    private final int claimFactor;
+    private final int maxBuffered;
+    private final Map<String, HostPolicy> hostPolicies = new ConcurrentHashMap<>();
+    private final Map<Integer, RuleHosts> rules = new ConcurrentHashMap<>();
+
+    public PoliteFetchReqFrontier(FetchRequestFrontier delegate) {
+        this(delegate, CONFIG_MAP.getInteger("politeness_host_delay_millis", 1000),
+                CONFIG_MAP.getInteger("politeness_host_concurrency", 2),
+                CONFIG_MAP.getInteger("politeness_claim_factor", 4),
+                CONFIG_MAP.getInteger("politeness_max_buffered", 2000));
+    }
+
+    public PoliteFetchReqFrontier(FetchRequestFrontier delegate, long hostDelayMillis, int hostConcurrency,
+                                  int claimFactor, int maxBuffered) {
+        this.delegate = delegate;
+        this.hostDelayMillis = hostDelayMillis;
+        this.hostConcurrency = hostConcurrency;
+        this.claimFactor = claimFactor;
+        this.maxBuffered = maxBuffered;
+    }
+
+    /**
+     * Overrides the default delay and concurrency for a single host, e.g. a partner api that allows more traffic.
+     */
+    public void setHostPolicy(String host, long delayMillis, int concurrency) {
+        hostPolicies.put(host.toLowerCase(), new HostPolicy(delayMillis, concurrency));
+    }
+
+    @Override
+    public FetchRequest getNext(int taskRuleId) {
+        return delegate.getNext(taskRuleId);
+    }
+
+    @Override
+    public Set<FetchRequest> getTopK(int taskRuleId, int K) {
+        return delegate.getTopK(taskRuleId, K);
+    }
+
+    @Override
+    public List<Integer> peekPriorities(int taskRuleId, int K) {
+        return delegate.peekPriorities(taskRuleId, K);
+    }
+
+    @Override
+    public void add(int taskRuleId, FetchRequest fetchReq) {
+        delegate.add(taskRuleId, fetchReq);
+    }
+
+    @Override
+    public void addAll(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        delegate.addAll(taskRuleId, fetchReqs);
+    }
+
+    @Override
+    public void delete(int taskRuleId, FetchRequest fetchReq) {
+        rule(taskRuleId).release(Collections.singleton(fetchReq));
+        delegate.delete(taskRuleId, fetchReq);
+    }
+
+    @Override
+    public void deleteAll(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        rule(taskRuleId).release(fetchReqs);
+        delegate.deleteAll(taskRuleId, fetchReqs);
+    }
+
+    @Override
+    public void deleteKey(int taskRuleId) {
+        rules.remove(taskRuleId);
+        delegate.deleteKey(taskRuleId);
+    }
+
+    @Override
+    public Set<FetchRequest> claim(int taskRuleId, int K, long leaseMillis) {
+        return new HashSet<>(claimWithLeases(taskRuleId, K, leaseMillis).keySet());
+    }
+
+    @Override
+    public Map<FetchRequest, Long> claimWithLeases(int taskRuleId, int K, long leaseMillis) {
+        if (K <= 0) {
+            return new HashMap<>();
+        }
+        RuleHosts ruleHosts = rule(taskRuleId);
+        synchronized (ruleHosts) {
+            evictStale(taskRuleId, ruleHosts);
+            int window = Math.min(K * claimFactor, maxBuffered) - ruleHosts.buffered;
+            if (window > 0) {
+                ruleHosts.buffer(delegate.claimWithLeases(taskRuleId, window, leaseMillis), leaseMillis);
+            }
+            return ruleHosts.dispatch(K, System.currentTimeMillis());
+        }
+    }
+
+    @Override
+    public void ack(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        rule(taskRuleId).release(fetchReqs);
+        delegate.ack(taskRuleId, fetchReqs);
+    }
+
+    @Override
+    public void nack(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        rule(taskRuleId).release(fetchReqs);
+        delegate.nack(taskRuleId, fetchReqs);
+    }
+
+    /**
+     * Also hands back to the delegate the buffered requests held for more than half of their lease, so that they are
+     * not reaped while still buffered here.
+     */
+    @Override
+    public int reapExpiredLeases(int taskRuleId) {
+        evictStale(taskRuleId, rule(taskRuleId));
+        return delegate.reapExpiredLeases(taskRuleId);
+    }
+
+    private void evictStale(int taskRuleId, RuleHosts ruleHosts) {
+        Set<FetchRequest> stale = ruleHosts.evictStale(System.currentTimeMillis());
+        if (!stale.isEmpty()) {
+            LOGGER.info(String.format("Event=PolitenessStaleRequests taskrule=%s requests=%d", taskRuleId,
+                    stale.size()));
+            delegate.nack(taskRuleId, stale);
+        }
+    }
+
+    @Override
+    public long leasedCount(int taskRuleId) {
+        return delegate.leasedCount(taskRuleId);
+    }
+
+    @Override
+    public void flush(int taskRuleId) {
+        delegate.flush(taskRuleId);
+    }
+
+    // buffered requests are leased in the delegate, exported there as queued
+    @Override
+    public long exportSnapshot(int taskRuleId, Path file) throws IOException {
+        return delegate.exportSnapshot(taskRuleId, file);
+    }
+
+    @Override
+    public long importSnapshot(int taskRuleId, Path file) throws IOException {
+        rules.remove(taskRuleId);
+        return delegate.importSnapshot(taskRuleId, file);
+    }
+
+    /**
+     * @return number of requests claimed from the delegate and waiting for their host to be due
+     */
+    public int bufferedCount(int taskRuleId) {
+        RuleHosts ruleHosts = rule(taskRuleId);
+        synchronized (ruleHosts) {
+            return ruleHosts.buffered;
+        }
+    }
+
+    private RuleHosts rule(int taskRuleId) {
+        return rules.computeIfAbsent(taskRuleId, id -> new RuleHosts());
+    }
+
+    private HostPolicy policy(String host) {
+        HostPolicy policy = hostPolicies.get(host);
+        return policy != null ? policy : new HostPolicy(hostDelayMillis, hostConcurrency);
+    }
+
+    private static class HostPolicy {
+        private final long delayMillis;
+        private final int concurrency;
+
+        private HostPolicy(long delayMillis, int concurrency) {
+            this.delayMillis = delayMillis;
+            this.concurrency = concurrency;
+        }
+    }
+
+    private static class Buffered {
+        private final FetchRequest fetchReq;
+        private final long staleAt;
+        private final long leaseExpiry;
+
+        private Buffered(FetchRequest fetchReq, long staleAt, long leaseExpiry) {
+            this.fetchReq = fetchReq;
+            this.staleAt = staleAt;
+            this.leaseExpiry = leaseExpiry;
+        }
+    }
+
+    private static class HostQueue {
+        private final String host;
+        private final HostPolicy policy;
+        // highest priority first
+        private final PriorityQueue<Buffered> pending = new PriorityQueue<>(
+                Comparator.comparingInt((Buffered b) -> b.fetchReq.getPriority()).reversed());
+        // times of the last dispatches, at most concurrency of them
+        private final ArrayDeque<Long> dispatchTimes = new ArrayDeque<>();
+        private int inFlight;
+        private long readyAt;
+        private boolean scheduled;
+
+        private HostQueue(String host, HostPolicy policy) {
+            this.host = host;
+            this.policy = policy;
+        }
+
+        private boolean isEligible() {
+            return !pending.isEmpty() && inFlight < policy.concurrency;
+        }
+
+        // due again once the oldest of the last concurrency dispatches is delayMillis old
+        private void dispatched(long now) {
+            dispatchTimes.addLast(now);
+            while (dispatchTimes.size() > policy.concurrency) {
+                dispatchTimes.removeFirst();
+            }
+            readyAt = dispatchTimes.size() < policy.concurrency ? now : dispatchTimes.peekFirst() + policy.delayMillis;
+        }
+    }
+
+    /**
+     * Host queues of a single rule and the heap of the hosts that have something to fetch, by time they are due.
+     */
+    private class RuleHosts {
+        private final Map<String, HostQueue> hosts = new HashMap<>();
+        private final PriorityQueue<HostQueue> readyHeap = new PriorityQueue<>(
+                Comparator.comparingLong((HostQueue h) -> h.readyAt)
+                        .thenComparing(h -> -h.pending.peek().fetchReq.getPriority()));
+        // fingerprint -> host of the requests buffered or in flight
+        private final Map<String, HostQueue> hostsById = new HashMap<>();
+        private final Set<String> inFlightIds = new HashSet<>();
+        private int buffered;
+
+        synchronized void buffer(Map<FetchRequest, Long> fetchReqs, long leaseMillis) {
+            for (Map.Entry<FetchRequest, Long> claimed : fetchReqs.entrySet()) {
+                FetchRequest fetchReq = claimed.getKey();
+                long leaseExpiry = claimed.getValue();
+                String id = fetchReq.getFingerprint();
+                if (hostsById.containsKey(id)) {
+                    // reaped by the delegate and claimed again, already buffered or in flight here
+                    continue;
+                }
+                String host = fetchReq.getHost();
+                HostQueue hostQueue = hosts.computeIfAbsent(host, h -> new HostQueue(h, policy(h)));
+                unschedule(hostQueue);
+                hostQueue.pending.add(new Buffered(fetchReq, leaseExpiry - leaseMillis / 2, leaseExpiry));
+                hostsById.put(id, hostQueue);
+                buffered++;
+                schedule(hostQueue);
+            }
+        }
+
+        synchronized Map<FetchRequest, Long> dispatch(int K, long now) {
+            Map<FetchRequest, Long> dispatched = new HashMap<>();
+            while (dispatched.size() < K && !readyHeap.isEmpty() && readyHeap.peek().readyAt <= now) {
+                HostQueue hostQueue = readyHeap.poll();
+                hostQueue.scheduled = false;
+                Buffered next = hostQueue.pending.poll();
+                buffered--;
+                hostQueue.inFlight++;
+                hostQueue.dispatched(now);
+                inFlightIds.add(next.fetchReq.getFingerprint());
+                dispatched.put(next.fetchReq, next.leaseExpiry);
+                schedule(hostQueue);
+            }
+            return dispatched;
+        }
+
+        synchronized void release(Set<FetchRequest> fetchReqs) {
+            if (CollectionUtils.isEmpty(fetchReqs)) {
+                return;
+            }
+            for (FetchRequest fetchReq : fetchReqs) {
+                String id = fetchReq.getFingerprint();
+                HostQueue hostQueue = hostsById.remove(id);
+                if (hostQueue == null) {
+                    continue;
+                }
+                unschedule(hostQueue);
+                if (inFlightIds.remove(id)) {
+                    hostQueue.inFlight--;
+                } else if (removePending(hostQueue, id)) {
+                    buffered--;
+                }
+                if (hostQueue.inFlight == 0 && hostQueue.pending.isEmpty()) {
+                    hosts.remove(hostQueue.host);
+                } else {
+                    schedule(hostQueue);
+                }
+            }
+        }
+
+        synchronized Set<FetchRequest> evictStale(long now) {
+            Set<FetchRequest> stale = new HashSet<>();
+            for (HostQueue hostQueue : new ArrayList<>(hosts.values())) {
+                List<Buffered> evicted = new ArrayList<>();
+                for (Buffered b : hostQueue.pending) {
+                    if (b.staleAt <= now) {
+                        evicted.add(b);
+                    }
+                }
+                for (Buffered b : evicted) {
+                    stale.add(b.fetchReq);
+                }
+            }
+            release(stale);
+            return stale;
+        }
+
+        private boolean removePending(HostQueue hostQueue, String id) {
+            for (Iterator<Buffered> it = hostQueue.pending.iterator(); it.hasNext(); ) {
+                if (it.next().fetchReq.getFingerprint().equals(id)) {
+                    it.remove();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // the heap orders on mutable fields, a host is taken out before they change and put back after
+        private void unschedule(HostQueue hostQueue) {
+            if (hostQueue.scheduled) {
+                readyHeap.remove(hostQueue);
+                hostQueue.scheduled = false;
+            }
+        }
+
+        private void schedule(HostQueue hostQueue) {
+            if (!hostQueue.scheduled && hostQueue.isEligible()) {
+                readyHeap.add(hostQueue);
+                hostQueue.scheduled = true;
+            }
+        }
+    }
+}
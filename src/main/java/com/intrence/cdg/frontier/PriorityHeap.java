@@ -0,0 +1,155 @@
+package com.intrence.cdg.frontier;
+
+import java.util.Arrays;
+
+/**
+ * Binary max-heap of int slots keyed on (priority desc, sequence asc), backed by primitive arrays.
+ *
+ * Slots are small non-negative ints handed out by the caller, the heap keeps the position of each slot so that any of
+ * them can be removed in O(log n). Not thread-safe.
+ */
+class PriorityHeap {
+
+    private static final int NOT_IN_HEAP = -1;
+
+    private int[] heap;
+    private int size;
+
+    // indexed by slot
+    private int[] positions;
+    private int[] priorities;
+    private long[] sequences;
+
+    PriorityHeap(int initialSlots) {
+        int capacity = Math.max(16, initialSlots);
+        heap = new int[capacity];
+        positions = new int[capacity];
+        Arrays.fill(positions, NOT_IN_HEAP);
+        priorities = new int[capacity];
+        sequences = new long[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean contains(int slot) {
+        return slot < positions.length && positions[slot] != NOT_IN_HEAP;
+    }
+
+    void push(int slot, int priority, long sequence) {
+        ensureSlot(slot);
+        if (positions[slot] != NOT_IN_HEAP) {
+            throw new IllegalStateException(String.format("slot=%d is already queued", slot));
+        }
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        priorities[slot] = priority;
+        sequences[slot] = sequence;
+        heap[size] = slot;
+        positions[slot] = size;
+        size++;
+        siftUp(size - 1);
+    }
+
+    /**
+     * @return slot with the highest priority, oldest first among equal priorities, or -1 if empty
+     */
+    int pop() {
+        if (size == 0) {
+            return NOT_IN_HEAP;
+        }
+        int top = heap[0];
+        removeAt(0);
+        return top;
+    }
+
+    boolean remove(int slot) {
+        if (!contains(slot)) {
+            return false;
+        }
+        removeAt(positions[slot]);
+        return true;
+    }
+
+    int priority(int slot) {
+        return priorities[slot];
+    }
+
+    long sequence(int slot) {
+        return sequences[slot];
+    }
+
+    private void removeAt(int index) {
+        int slot = heap[index];
+        size--;
+        positions[slot] = NOT_IN_HEAP;
+        if (index == size) {
+            return;
+        }
+        int last = heap[size];
+        heap[index] = last;
+        positions[last] = index;
+        siftDown(index);
+        siftUp(positions[last]);
+    }
+
+    private void siftUp(int index) {
+        int slot = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!before(slot, heap[parent])) {
+                break;
+            }
+            heap[index] = heap[parent];
+            positions[heap[index]] = index;
+            index = parent;
+        }
+        heap[index] = slot;
+        positions[slot] = index;
+    }
+
+    private void siftDown(int index) {
+        int slot = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && before(heap[right], heap[child])) {
+                child = right;
+            }
+            if (!before(heap[child], slot)) {
+                break;
+            }
+            heap[index] = heap[child];
+            positions[heap[index]] = index;
+            index = child;
+        }
+        heap[index] = slot;
+        positions[slot] = index;
+    }
+
+    private boolean before(int a, int b) {
+        if (priorities[a] != priorities[b]) {
+            return priorities[a] > priorities[b];
+        }
+        return sequences[a] < sequences[b];
+    }
+
+    private void ensureSlot(int slot) {
+        if (slot < positions.length) {
+            return;
+        }
+        int capacity = Math.max(slot + 1, positions.length * 2);
+        int oldCapacity = positions.length;
+        positions = Arrays.copyOf(positions, capacity);
+        Arrays.fill(positions, oldCapacity, capacity, NOT_IN_HEAP);
+        priorities = Arrays.copyOf(priorities, capacity);
+        sequences = Arrays.copyOf(sequences, capacity);
+    }
+}
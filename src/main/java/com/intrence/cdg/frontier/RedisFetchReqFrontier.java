@@ -1,44 +1,137 @@
 package com.intrence.cdg.frontier;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.google.common.hash.HashCode;
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
 import com.intrence.cdg.util.Constants;
 import com.intrence.config.ConfigProvider;
 import com.intrence.config.collection.ConfigMap;
 import com.intrence.cdg.net.FetchRequest;
+import com.intrence.cdg.net.FetchRequestCodec;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.apache.log4j.Logger;
-import org.springframework.stereotype.Component;
 import redis.clients.jedis.*;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
 import redis.clients.util.Pool;
+import redis.clients.util.SafeEncoder;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-@Component
+/**
+ * Frontier kept in redis, the default backend of FrontierConfiguration.
+ */
 public class RedisFetchReqFrontier implements FetchRequestFrontier {
 
     private static final Logger LOGGER = Logger.getLogger(RedisFetchReqFrontier.class);
     private static final ConfigMap CONFIG_MAP = ConfigProvider.getConfig();
-    private static final String CACHE_PREFIX = "cache-";
+    // seen-set bloom filter, stored as bitmap segments cache-<taskRuleId>-<segment>
+    static final String CACHE_PREFIX = "cache-";
+    private static final int DEFAULT_BLOOM_EXPECTED_INSERTIONS = 1000000;
+    private static final String DEFAULT_BLOOM_FALSE_POSITIVE_RATE = "0.01";
+    // 8M bits, 1MB per redis key
+    private static final int DEFAULT_BLOOM_SEGMENT_BITS = 1 << 23;
+    // queue, lease and seen-set are keyed on FetchRequest fingerprints, the serialized requests are kept in this hash
+    static final String PAYLOAD_PREFIX = "payload-";
+    // members of queues created before the fingerprints were introduced are the serialized requests themselves
+    private static final String LEGACY_MEMBER_PATTERN = "{*";
+    // in-flight set, members scored by their lease expiry time
+    static final String LEASE_PREFIX = "lease-";
+    // original priority of the in-flight members, used to requeue them
+    static final String LEASE_PRIORITY_PREFIX = "lprio-";
+    private static final int MAX_REAPED_PER_CALL = 1000;
+
+    // KEYS: queue, lease, lease priority, payload - ARGV: K, lease expiry
+    // returns id1, payload1, id2, payload2... with an empty payload for the members that have none, those are dropped
+    // from the queue without being leased, nothing could ever ack them
+    private static final String CLAIM_SCRIPT =
+            "local members = redis.call('ZREVRANGE', KEYS[1], 0, tonumber(ARGV[1]) - 1, 'WITHSCORES') " +
+            "local claimed = {} " +
+            "for i = 1, #members, 2 do " +
+            "  redis.call('ZREM', KEYS[1], members[i]) " +
+            "  local payload = redis.call('HGET', KEYS[4], members[i]) " +
+            "  if payload then " +
+            "    redis.call('ZADD', KEYS[2], ARGV[2], members[i]) " +
+            "    redis.call('HSET', KEYS[3], members[i], members[i + 1]) " +
+            "  end " +
+            "  claimed[#claimed + 1] = members[i] " +
+            "  claimed[#claimed + 1] = payload or '' " +
+            "end " +
+            "return claimed";
+
+    // KEYS: queue, lease, lease priority - ARGV: members
+    private static final String NACK_SCRIPT =
+            "local requeued = 0 " +
+            "for i = 1, #ARGV do " +
+            "  local priority = redis.call('HGET', KEYS[3], ARGV[i]) " +
+            "  if redis.call('ZREM', KEYS[2], ARGV[i]) == 1 and priority then " +
+            "    redis.call('ZADD', KEYS[1], priority, ARGV[i]) " +
+            "    requeued = requeued + 1 " +
+            "  end " +
+            "  redis.call('HDEL', KEYS[3], ARGV[i]) " +
+            "end " +
+            "return requeued";
+
+    // KEYS: queue, lease, lease priority - ARGV: now, max members to reap
+    private static final String REAP_SCRIPT =
+            "local expired = redis.call('ZRANGEBYSCORE', KEYS[2], '-inf', ARGV[1], 'LIMIT', 0, tonumber(ARGV[2])) " +
+            "for i = 1, #expired do " +
+            "  local priority = redis.call('HGET', KEYS[3], expired[i]) " +
+            "  redis.call('ZADD', KEYS[1], priority or 0, expired[i]) " +
+            "  redis.call('ZREM', KEYS[2], expired[i]) " +
+            "  redis.call('HDEL', KEYS[3], expired[i]) " +
+            "end " +
+            "return #expired";
 
     Pool<Jedis> pool;
-    Set<HashFunction> hashFns = initHashes();
+    private final Set<Integer> migratedRules = ConcurrentHashMap.newKeySet();
+    // sha1 of the lua scripts loaded on this redis, sent instead of the script body
+    private final Map<String, byte[]> scriptShas = new ConcurrentHashMap<>();
+    // encoding of the payloads written from now on, both encodings are always readable
+    FetchRequestCodec payloadCodec = new FetchRequestCodec(
+            CONFIG_MAP.getString("frontier_payload_codec", FetchRequestCodec.JSON));
+    BloomFilter seenFilter = new BloomFilter(
+            CONFIG_MAP.getInteger("bloom_expected_insertions", DEFAULT_BLOOM_EXPECTED_INSERTIONS),
+            Double.parseDouble(CONFIG_MAP.getString("bloom_false_positive_rate", DEFAULT_BLOOM_FALSE_POSITIVE_RATE)),
+            CONFIG_MAP.getInteger("bloom_segment_bits", DEFAULT_BLOOM_SEGMENT_BITS));
+    FrontierMetrics metrics;
+
+    public RedisFetchReqFrontier() {
+        this.metrics = newMetrics("redis");
+    }
+
+    /**
+     * Frontier on an already configured pool, e.g. one shard of a ShardedFetchReqFrontier
+     */
+    public RedisFetchReqFrontier(Pool<Jedis> pool) {
+        this(pool, "redis");
+    }
 
-    private static Set<HashFunction> initHashes() {
-        Set<HashFunction> hashFns = new HashSet<>();
-        hashFns.add(Hashing.adler32());
-        hashFns.add(Hashing.crc32());
-        hashFns.add(Hashing.murmur3_32());
-        hashFns.add(Hashing.crc32c());
-        return hashFns;
+    /**
+     * @param name metrics of this frontier are registered under frontier.<name>
+     */
+    public RedisFetchReqFrontier(Pool<Jedis> pool, String name) {
+        this.pool = pool;
+        this.metrics = newMetrics(name);
+    }
+
+    private FrontierMetrics newMetrics(String name) {
+        return new FrontierMetrics(name, this::pendingCount, this::leasedCount,
+                taskRuleId -> seenFilter.estimatedFalsePositiveRate(getSeenFillRatio(taskRuleId)));
     }
 
     @PostConstruct
@@ -61,6 +154,7 @@ public class RedisFetchReqFrontier implements FetchRequestFrontier {
             int port = Integer.valueOf(redisHosts.split(":")[1]);
             pool = new JedisPool(host, port);
         }
+        LOGGER.info(String.format("Event=SeenFilterLayout %s", seenFilter));
 
     }
 
@@ -73,16 +167,13 @@ public class RedisFetchReqFrontier implements FetchRequestFrontier {
     public FetchRequest getNext(int taskRuleId) {
 
         Jedis jedis = null;
-        FetchRequest fetchReq = null;
         long start = System.currentTimeMillis();
         try {
             jedis = pool.getResource();
-            Set<Tuple> set = jedis.zrevrangeWithScores(String.valueOf(taskRuleId), 0, 0);
-            for (Tuple tuple : set) {
-                fetchReq = FetchRequest.fromJson(tuple.getElement());
-                break;
-            }
-            return fetchReq;
+            migrateLegacyMembers(jedis, taskRuleId);
+            Set<String> ids = jedis.zrevrange(String.valueOf(taskRuleId), 0, 0);
+            List<FetchRequest> fetchReqs = loadPayloads(jedis, taskRuleId, ids);
+            return fetchReqs.isEmpty() ? null : fetchReqs.get(0);
         } finally {
             close(jedis);
             logTime("RedisGetNext", taskRuleId, start);
@@ -95,13 +186,10 @@ public class RedisFetchReqFrontier implements FetchRequestFrontier {
         long start = System.currentTimeMillis();
         try {
             jedis = pool.getResource();
-            jedis.zrem(String.valueOf(taskRuleId), fetchReq.toJson());
-        } catch (JsonProcessingException e) {
-            //json processing exception
-            LOGGER.warn(String.format("Exception=%s when deleting fetchRequest=%s to redis for taskrule=%s",
-                                      e.getMessage(),
-                                      fetchReq.getWorkRequest(),
-                                      taskRuleId));
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.zrem(String.valueOf(taskRuleId), fetchReq.getFingerprint());
+            pipeline.hdel(PAYLOAD_PREFIX + taskRuleId, fetchReq.getFingerprint());
+            pipeline.sync();
         } finally {
             close(jedis);
             logTime("RedisDelete", taskRuleId, start);
@@ -115,12 +203,10 @@ public class RedisFetchReqFrontier implements FetchRequestFrontier {
         long start = System.currentTimeMillis();
         try {
             jedis = pool.getResource();
-            LOGGER.info("jedis connection " + jedis.info());
             if (K > 0) {
-                Set<Tuple> set = jedis.zrevrangeWithScores(String.valueOf(taskRuleId), new Long(0), new Long(K - 1));
-                for (Tuple tuple : set) {
-                    topK.add(FetchRequest.fromJson(tuple.getElement()));
-                }
+                migrateLegacyMembers(jedis, taskRuleId);
+                Set<String> ids = jedis.zrevrange(String.valueOf(taskRuleId), 0, K - 1);
+                topK.addAll(loadPayloads(jedis, taskRuleId, ids));
             }
             return topK;
         } finally {
@@ -130,32 +216,29 @@ public class RedisFetchReqFrontier implements FetchRequestFrontier {
     }
 
     @Override
-    public void add(int taskRuleId, FetchRequest fetchReq) {
+    public List<Integer> peekPriorities(int taskRuleId, int K) {
+        List<Integer> priorities = new ArrayList<>();
+        if (K <= 0) {
+            return priorities;
+        }
         Jedis jedis = null;
-        long start = System.currentTimeMillis();
-        String fetchRequestJson;
         try {
             jedis = pool.getResource();
-            if (!isSeen(jedis, taskRuleId, fetchReq)) {
-                fetchRequestJson = fetchReq.toJson();
-                jedis.zadd(String.valueOf(taskRuleId),
-                           fetchReq.getPriority(), fetchRequestJson);
-                addToCache(jedis, taskRuleId, fetchRequestJson);
+            migrateLegacyMembers(jedis, taskRuleId);
+            for (Tuple tuple : jedis.zrevrangeWithScores(String.valueOf(taskRuleId), 0, K - 1)) {
+                priorities.add((int) tuple.getScore());
             }
-        }
-        catch (JsonProcessingException e) {
-            //json processing exception
-            LOGGER.warn(String.format("Exception=%s when adding fetchRequest=%s to redis for taskrule=%s",
-                                      e.getMessage(),
-                                      fetchReq.getWorkRequest(),
-                                      taskRuleId));
-        }
-        finally {
+            return priorities;
+        } finally {
             close(jedis);
-            logTime("RedisAdd", taskRuleId, start);
         }
     }
 
+    @Override
+    public void add(int taskRuleId, FetchRequest fetchReq) {
+        addAllInternal(taskRuleId, Collections.singleton(fetchReq));
+    }
+
 
     // redis has limits on number of entries that could be added to set in single shot
     //  - so, adding in batches
@@ -191,21 +274,11 @@ public class RedisFetchReqFrontier implements FetchRequestFrontier {
         long start = System.currentTimeMillis();
         try {
             jedis = pool.getResource();
-            String[] members = new String[fetchReqs.size()];
-            int i = 0;
-            for (FetchRequest fetchReq : fetchReqs) {
-                members[i] = fetchReq.toJson();
-                i++;
-            }
-            jedis.zrem(String.valueOf(taskRuleId), members);
-        }
-        catch (JsonProcessingException e) {
-            //json processing exception
-            LOGGER.warn(String.format(
-                    "Exception=%s when deleting set of fetchRequests(size=%s) to redis for taskrule=%s",
-                    e.getMessage(),
-                    fetchReqs.size(),
-                    taskRuleId));
+            String[] ids = toIds(fetchReqs);
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.zrem(String.valueOf(taskRuleId), ids);
+            pipeline.hdel(PAYLOAD_PREFIX + taskRuleId, ids);
+            pipeline.sync();
         }
         finally {
             close(jedis);
@@ -219,7 +292,19 @@ public class RedisFetchReqFrontier implements FetchRequestFrontier {
         long start = System.currentTimeMillis();
         try {
             jedis = pool.getResource();
-            jedis.del(String.valueOf(taskRuleId), CACHE_PREFIX + taskRuleId);
+            List<String> keys = new ArrayList<>();
+            keys.add(String.valueOf(taskRuleId));
+            keys.add(LEASE_PREFIX + taskRuleId);
+            keys.add(LEASE_PRIORITY_PREFIX + taskRuleId);
+            keys.add(PAYLOAD_PREFIX + taskRuleId);
+            // unsegmented seen-set of the rules started before the bloom filter was sized
+            keys.add(CACHE_PREFIX + taskRuleId);
+            for (int segment = 0; segment < seenFilter.getNumSegments(); segment++) {
+                keys.add(CACHE_PREFIX + taskRuleId + "-" + segment);
+            }
+            jedis.del(keys.toArray(new String[keys.size()]));
+            migratedRules.remove(taskRuleId);
+            metrics.removeRule(taskRuleId);
         }
         finally {
             close(jedis);
@@ -227,6 +312,174 @@ public class RedisFetchReqFrontier implements FetchRequestFrontier {
         }
     }
 
+    @Override
+    public Set<FetchRequest> claim(int taskRuleId, int K, long leaseMillis) {
+        Set<FetchRequest> claimed = new HashSet<>();
+        if (K <= 0) {
+            return claimed;
+        }
+
+        Jedis jedis = null;
+        long start = System.currentTimeMillis();
+        try {
+            jedis = pool.getResource();
+            migrateLegacyMembers(jedis, taskRuleId);
+            long leaseExpiry = System.currentTimeMillis() + leaseMillis;
+            List<String> keys = new ArrayList<>(leaseKeys(taskRuleId));
+            keys.add(PAYLOAD_PREFIX + taskRuleId);
+            // members are moved to the lease set and their payloads returned in the same round trip
+            @SuppressWarnings("unchecked")
+            List<byte[]> reply = (List<byte[]>) evalScript(jedis, CLAIM_SCRIPT, keys,
+                    Arrays.asList(String.valueOf(K), String.valueOf(leaseExpiry)));
+            for (int i = 0; i < reply.size(); i += 2) {
+                byte[] payload = reply.get(i + 1);
+                if (payload.length == 0) {
+                    // already dropped from the queue by the script
+                    LOGGER.warn(String.format("Event=MissingPayload key=%s id=%s", taskRuleId,
+                            SafeEncoder.encode(reply.get(i))));
+                    continue;
+                }
+                claimed.add(FetchRequestCodec.decode(payload));
+            }
+            metrics.dequeued(taskRuleId, claimed.size());
+            return claimed;
+        } finally {
+            close(jedis);
+            logTime("RedisClaim", taskRuleId, start);
+        }
+    }
+
+    @Override
+    public void ack(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        if (CollectionUtils.isEmpty(fetchReqs)) {
+            return;
+        }
+
+        Jedis jedis = null;
+        long start = System.currentTimeMillis();
+        try {
+            jedis = pool.getResource();
+            String[] ids = toIds(fetchReqs);
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.zrem(LEASE_PREFIX + taskRuleId, ids);
+            pipeline.hdel(LEASE_PRIORITY_PREFIX + taskRuleId, ids);
+            // lease may have expired and the member been requeued meanwhile
+            pipeline.zrem(String.valueOf(taskRuleId), ids);
+            pipeline.hdel(PAYLOAD_PREFIX + taskRuleId, ids);
+            pipeline.sync();
+        }
+        finally {
+            close(jedis);
+            logTime("RedisAck", taskRuleId, start);
+        }
+    }
+
+    @Override
+    public void nack(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        if (CollectionUtils.isEmpty(fetchReqs)) {
+            return;
+        }
+
+        Jedis jedis = null;
+        long start = System.currentTimeMillis();
+        try {
+            jedis = pool.getResource();
+            evalScript(jedis, NACK_SCRIPT, leaseKeys(taskRuleId), Arrays.asList(toIds(fetchReqs)));
+        }
+        finally {
+            close(jedis);
+            logTime("RedisNack", taskRuleId, start);
+        }
+    }
+
+    @Override
+    public int reapExpiredLeases(int taskRuleId) {
+        Jedis jedis = null;
+        long start = System.currentTimeMillis();
+        try {
+            jedis = pool.getResource();
+            Long reaped = (Long) evalScript(jedis, REAP_SCRIPT, leaseKeys(taskRuleId),
+                    Arrays.asList(String.valueOf(System.currentTimeMillis()), String.valueOf(MAX_REAPED_PER_CALL)));
+            if (reaped > 0) {
+                LOGGER.info(String.format("Event=RedisReapExpiredLeases key=%s reaped=%d", taskRuleId, reaped));
+            }
+            return reaped.intValue();
+        } finally {
+            close(jedis);
+            logTime("RedisReapExpiredLeases", taskRuleId, start);
+        }
+    }
+
+    public long pendingCount(int taskRuleId) {
+        Jedis jedis = null;
+        try {
+            jedis = pool.getResource();
+            return jedis.zcard(String.valueOf(taskRuleId));
+        } finally {
+            close(jedis);
+        }
+    }
+
+    @Override
+    public long leasedCount(int taskRuleId) {
+        Jedis jedis = null;
+        try {
+            jedis = pool.getResource();
+            return jedis.zcard(LEASE_PREFIX + taskRuleId);
+        } finally {
+            close(jedis);
+        }
+    }
+
+    /**
+     * Writes the pending requests and the seen-set of the rule to a gzipped snapshot file
+     * @param taskRuleId
+     * @param file
+     * @return number of requests exported, queued and leased
+     * @throws IOException
+     */
+    @Override
+    public long exportSnapshot(int taskRuleId, Path file) throws IOException {
+        Jedis jedis = null;
+        long start = System.currentTimeMillis();
+        try (OutputStream out = Files.newOutputStream(file)) {
+            jedis = pool.getResource();
+            migrateLegacyMembers(jedis, taskRuleId);
+            long exported = new RedisFrontierSnapshot(seenFilter, this::deleteKey).export(jedis, taskRuleId, out);
+            LOGGER.info(String.format("Event=RedisExportSnapshot key=%s file=%s requests=%d bytes=%d", taskRuleId,
+                    file, exported, Files.size(file)));
+            return exported;
+        } finally {
+            close(jedis);
+            logTime("RedisExportSnapshot", taskRuleId, start);
+        }
+    }
+
+    /**
+     * Replaces the rule with the content of a snapshot file written by exportSnapshot, possibly of another rule
+     * @param taskRuleId
+     * @param file
+     * @return number of requests restored
+     * @throws IOException
+     */
+    @Override
+    public long importSnapshot(int taskRuleId, Path file) throws IOException {
+        Jedis jedis = null;
+        long start = System.currentTimeMillis();
+        try {
+            jedis = pool.getResource();
+            long restored = new RedisFrontierSnapshot(seenFilter, this::deleteKey).restore(jedis, taskRuleId, file);
+            // restored members are all fingerprints already
+            migratedRules.add(taskRuleId);
+            LOGGER.info(String.format("Event=RedisImportSnapshot key=%s file=%s requests=%d", taskRuleId, file,
+                    restored));
+            return restored;
+        } finally {
+            close(jedis);
+            logTime("RedisImportSnapshot", taskRuleId, start);
+        }
+    }
+
     //currently only used in test
     public void addToCache(int taskRuleId, String value) {
         Jedis jedis = null;
@@ -245,46 +498,151 @@ public class RedisFetchReqFrontier implements FetchRequestFrontier {
             jedis = pool.getResource();
             return isSeen(jedis, taskRuleId, fetchReq);
         }
-        catch (JsonProcessingException e) {
-            //json processing exception
-            LOGGER.warn(String.format("Exception=%s when checking isSeen for fetchRequest=%s to redis for taskrule=%s",
-                                      e.getMessage(),
-                                      fetchReq.getWorkRequest(),
-                                      taskRuleId));
-            return false;
-        }
         finally {
             close(jedis);
         }
     }
 
-    protected Set<Long> hash(String s) {
-        Set<Long> hashes = new HashSet<>();
-        for (HashFunction hashFn : hashFns) {
-            HashCode hashCode = hashFn.hashUnencodedChars(s);
-            int h = hashCode.asInt();
-            if (h < 0) {
-                int positiveH = Math.abs(h);
-                hashes.add((long) Integer.MAX_VALUE + (long) positiveH);
+    protected boolean isSeen(Jedis jedis, int taskRuleId, FetchRequest fetchReq) {
+        return _isSeen(jedis, (CACHE_PREFIX + taskRuleId), fetchReq.getFingerprint());
+    }
+
+    protected boolean _isSeen(Jedis jedis, String key, String value) {
+        Pipeline pipeline = jedis.pipelined();
+        List<Response<Boolean>> bits = new ArrayList<>();
+        for (long position : seenFilter.positions(value)) {
+            bits.add(pipeline.getbit(segmentKey(key, position), seenFilter.offsetInSegment(position)));
+        }
+        pipeline.sync();
+        return isSeen(bits);
+    }
+
+    /**
+     * @param taskRuleId
+     * @return fraction of the seen-set bits that are set, the false positive rate grows with it as fillRatio^k
+     */
+    public double getSeenFillRatio(int taskRuleId) {
+        Jedis jedis = null;
+        long start = System.currentTimeMillis();
+        try {
+            jedis = pool.getResource();
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<Long>> counts = new ArrayList<>(seenFilter.getNumSegments());
+            for (int segment = 0; segment < seenFilter.getNumSegments(); segment++) {
+                counts.add(pipeline.bitcount(CACHE_PREFIX + taskRuleId + "-" + segment));
             }
-            else {
-                hashes.add((long) h);
+            pipeline.sync();
+
+            long bitsSet = 0;
+            for (Response<Long> count : counts) {
+                bitsSet += count.get();
             }
+            double fillRatio = (double) bitsSet / seenFilter.getNumBits();
+            LOGGER.debug(String.format("Event=SeenFillRatio key=%s fillRatio=%.4f estimatedFalsePositiveRate=%.6f",
+                    taskRuleId, fillRatio, seenFilter.estimatedFalsePositiveRate(fillRatio)));
+            return fillRatio;
+        } finally {
+            close(jedis);
+            // read on every scrape of the seen-set gauges, timed without the info log of logTime
+            metrics.time("RedisSeenFillRatio", System.currentTimeMillis() - start);
         }
-        return hashes;
     }
 
-    protected boolean isSeen(Jedis jedis, int taskRuleId, FetchRequest fetchReq) throws JsonProcessingException {
-        return _isSeen(jedis, (CACHE_PREFIX + taskRuleId), fetchReq.toJson());
+    private String segmentKey(String key, long position) {
+        return key + "-" + seenFilter.segment(position);
     }
 
-    protected boolean _isSeen(Jedis jedis, String key, String value) {
-        Set<Long> hashes = hash(value);
-        boolean seen = true;
-        for (long hash : hashes) {
-            seen = seen & jedis.getbit(key, hash);
+    private List<String> leaseKeys(int taskRuleId) {
+        return Arrays.asList(String.valueOf(taskRuleId), LEASE_PREFIX + taskRuleId, LEASE_PRIORITY_PREFIX + taskRuleId);
+    }
+
+    // EVALSHA of the binary-safe eval, the script is (re)loaded when redis does not know it, e.g. after a restart
+    private Object evalScript(Jedis jedis, String script, List<String> keys, List<String> args) {
+        List<byte[]> binaryKeys = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            binaryKeys.add(SafeEncoder.encode(key));
+        }
+        List<byte[]> binaryArgs = new ArrayList<>(args.size());
+        for (String arg : args) {
+            binaryArgs.add(SafeEncoder.encode(arg));
+        }
+
+        byte[] sha = scriptShas.get(script);
+        if (sha != null) {
+            try {
+                return jedis.evalsha(sha, binaryKeys, binaryArgs);
+            } catch (JedisNoScriptException e) {
+                LOGGER.info("Event=RedisScriptReload, script cache was flushed");
+            }
+        }
+        sha = jedis.scriptLoad(SafeEncoder.encode(script));
+        scriptShas.put(script, sha);
+        return jedis.evalsha(sha, binaryKeys, binaryArgs);
+    }
+
+    private String[] toIds(Set<FetchRequest> fetchReqs) {
+        String[] ids = new String[fetchReqs.size()];
+        int i = 0;
+        for (FetchRequest fetchReq : fetchReqs) {
+            ids[i] = fetchReq.getFingerprint();
+            i++;
+        }
+        return ids;
+    }
+
+    private List<FetchRequest> loadPayloads(Jedis jedis, int taskRuleId, Collection<String> ids) {
+        List<FetchRequest> fetchReqs = new ArrayList<>(ids.size());
+        if (ids.isEmpty()) {
+            return fetchReqs;
+        }
+        byte[][] fields = new byte[ids.size()][];
+        int i = 0;
+        for (String id : ids) {
+            fields[i++] = SafeEncoder.encode(id);
+        }
+        // payloads may be in either encoding, e.g. written before the codec was switched
+        List<byte[]> payloads = jedis.hmget(SafeEncoder.encode(PAYLOAD_PREFIX + taskRuleId), fields);
+        Iterator<String> idIterator = ids.iterator();
+        for (byte[] payload : payloads) {
+            String id = idIterator.next();
+            if (payload == null) {
+                LOGGER.warn(String.format("Event=MissingPayload key=%s id=%s", taskRuleId, id));
+                continue;
+            }
+            fetchReqs.add(FetchRequestCodec.decode(payload));
+        }
+        return fetchReqs;
+    }
+
+    // rewrites the queue members that are still serialized requests into fingerprint + payload, once per rule
+    private void migrateLegacyMembers(Jedis jedis, int taskRuleId) {
+        if (migratedRules.contains(taskRuleId)) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        int migrated = 0;
+        String cursor = ScanParams.SCAN_POINTER_START;
+        ScanParams scanParams = new ScanParams().match(LEGACY_MEMBER_PATTERN).count(1000);
+        do {
+            ScanResult<Tuple> scanResult = jedis.zscan(String.valueOf(taskRuleId), cursor, scanParams);
+            Pipeline pipeline = jedis.pipelined();
+            for (Tuple tuple : scanResult.getResult()) {
+                FetchRequest fetchReq = FetchRequest.fromJson(tuple.getElement());
+                pipeline.zrem(String.valueOf(taskRuleId), tuple.getElement());
+                pipeline.zadd(String.valueOf(taskRuleId), tuple.getScore(), fetchReq.getFingerprint());
+                pipeline.hset(PAYLOAD_PREFIX + taskRuleId, fetchReq.getFingerprint(), tuple.getElement());
+                migrated++;
+            }
+            pipeline.sync();
+            cursor = scanResult.getStringCursor();
+        } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+
+        migratedRules.add(taskRuleId);
+        if (migrated > 0) {
+            LOGGER.info(String.format("Event=MigrateLegacyMembers key=%s migrated=%d timeTaken=%d", taskRuleId,
+                    migrated, System.currentTimeMillis() - start));
         }
-        return seen;
     }
 
     protected void close(Jedis jedis) {
@@ -294,11 +652,13 @@ public class RedisFetchReqFrontier implements FetchRequestFrontier {
     }
 
     protected void logTime(String event, int key, long start) {
-        LOGGER.info(String.format("Event=%s key=%s timeTaken=%s", event, key, (System.currentTimeMillis() - start)));
+        logTime(event, String.valueOf(key), start);
     }
 
     protected void logTime(String event, String key, long start) {
-        LOGGER.info(String.format("Event=%s key=%s timeTaken=%s", event, key, (System.currentTimeMillis() - start)));
+        long timeTaken = System.currentTimeMillis() - start;
+        metrics.time(event, timeTaken);
+        LOGGER.info(String.format("Event=%s key=%s timeTaken=%s", event, key, timeTaken));
     }
 
     protected void addToCache(Jedis jedis, int taskRuleId, String value) {
@@ -306,30 +666,64 @@ public class RedisFetchReqFrontier implements FetchRequestFrontier {
     }
 
     protected void _addToCache(Jedis jedis, String key, String value) {
-        Set<Long> hashes = hash(value);
-        for (long hash : hashes) {
-            jedis.setbit(key, hash, true);
+        Pipeline pipeline = jedis.pipelined();
+        for (long position : seenFilter.positions(value)) {
+            pipeline.setbit(segmentKey(key, position), seenFilter.offsetInSegment(position), true);
         }
+        pipeline.sync();
     }
 
+    // seen-check and insert of the whole batch take two pipelined round trips, independent of the batch size:
+    //  - first all GETBITs of the bloom filter, then the ZADD along with the SETBITs of the unseen members
     private void addAllInternal(int taskRuleId, Set<FetchRequest> fetchReqs) {
         Jedis jedis = null;
         long start = System.currentTimeMillis();
+        String cacheKey = CACHE_PREFIX + taskRuleId;
         try {
             jedis = pool.getResource();
 
-            Map<String, Double> scoredMembers = new HashMap<>();
+            Map<String, long[]> positionsByMember = new HashMap<>();
+            Map<String, FetchRequest> fetchReqsById = new HashMap<>();
             for (FetchRequest fetchReq : fetchReqs) {
-                if (!isSeen(jedis, taskRuleId, fetchReq)) {
-                    scoredMembers.put(fetchReq.toJson(), (double) fetchReq.getPriority());
+                String id = fetchReq.getFingerprint();
+                positionsByMember.put(id, seenFilter.positions(id));
+                fetchReqsById.put(id, fetchReq);
+            }
+
+            Pipeline pipeline = jedis.pipelined();
+            Map<String, List<Response<Boolean>>> bitsByMember = new HashMap<>();
+            for (Map.Entry<String, long[]> entry : positionsByMember.entrySet()) {
+                List<Response<Boolean>> bits = new ArrayList<>(entry.getValue().length);
+                for (long position : entry.getValue()) {
+                    bits.add(pipeline.getbit(segmentKey(cacheKey, position), seenFilter.offsetInSegment(position)));
+                }
+                bitsByMember.put(entry.getKey(), bits);
+            }
+            pipeline.sync();
+
+            // only the unseen requests are serialized
+            Map<String, Double> scoredMembers = new HashMap<>();
+            Map<byte[], byte[]> payloads = new HashMap<>();
+            for (Map.Entry<String, List<Response<Boolean>>> entry : bitsByMember.entrySet()) {
+                if (!isSeen(entry.getValue())) {
+                    FetchRequest fetchReq = fetchReqsById.get(entry.getKey());
+                    scoredMembers.put(entry.getKey(), (double) fetchReq.getPriority());
+                    payloads.put(SafeEncoder.encode(entry.getKey()), payloadCodec.encode(fetchReq));
                 }
             }
+
             if (!scoredMembers.isEmpty()) {
-                jedis.zadd(String.valueOf(taskRuleId), scoredMembers);
+                pipeline = jedis.pipelined();
+                pipeline.hmset(SafeEncoder.encode(PAYLOAD_PREFIX + taskRuleId), payloads);
+                pipeline.zadd(String.valueOf(taskRuleId), scoredMembers);
                 for (String member : scoredMembers.keySet()) {
-                    addToCache(jedis, taskRuleId, member);
+                    for (long position : positionsByMember.get(member)) {
+                        pipeline.setbit(segmentKey(cacheKey, position), seenFilter.offsetInSegment(position), true);
+                    }
                 }
+                pipeline.sync();
             }
+            metrics.enqueued(taskRuleId, fetchReqs.size(), scoredMembers.size());
         }
         catch (JsonProcessingException e) {
             //json processing exception
@@ -343,4 +737,13 @@ public class RedisFetchReqFrontier implements FetchRequestFrontier {
             logTime("RedisAddAll", taskRuleId, start);
         }
     }
+
+    private boolean isSeen(List<Response<Boolean>> bits) {
+        for (Response<Boolean> bit : bits) {
+            if (!bit.get()) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,316 @@
+package com.intrence.cdg.frontier;
+
+import com.intrence.cdg.net.FetchRequestCodec;
+import org.apache.log4j.Logger;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+import redis.clients.jedis.Tuple;
+import redis.clients.util.SafeEncoder;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzipped dump of the pending requests and the seen-set of a rule of a RedisFetchReqFrontier, e.g. to resume a crawl
+ * on another redis or to reproduce it.
+ *
+ * Layout: magic, version, bloom filter layout, the seen-set bitmap segments, then one record per queued or leased
+ * request as [priority][id][payload] and an end marker. The rule is scanned and restored in pages of PAGE_SIZE
+ * requests, neither side holds more than a page or a bitmap segment in memory. Leased requests are exported as
+ * queued: whoever holds their lease is not around after a restore.
+ *
+ * The whole file is read through and checked against its record count before the rule is touched, a truncated or
+ * corrupt snapshot leaves the rule as it was.
+ */
+class RedisFrontierSnapshot {
+
+    private static final Logger LOGGER = Logger.getLogger(RedisFrontierSnapshot.class);
+
+    private static final int MAGIC = 0x43444746;
+    private static final byte VERSION = 1;
+    private static final byte RECORD = 1;
+    private static final byte END = 0;
+    private static final int PAGE_SIZE = 1000;
+
+    private final BloomFilter seenFilter;
+    private final IntConsumer deleteKey;
+
+    /**
+     * @param seenFilter layout of the seen-set of the frontier
+     * @param deleteKey clears a rule of the frontier before it is restored
+     */
+    RedisFrontierSnapshot(BloomFilter seenFilter, IntConsumer deleteKey) {
+        this.seenFilter = seenFilter;
+        this.deleteKey = deleteKey;
+    }
+
+    /**
+     * @return number of requests exported
+     */
+    long export(Jedis jedis, int taskRuleId, OutputStream out) throws IOException {
+        Writer writer = new Writer(out, seenFilter);
+        for (int segment = 0; segment < seenFilter.getNumSegments(); segment++) {
+            byte[] bits = jedis.get(SafeEncoder.encode(RedisFetchReqFrontier.CACHE_PREFIX + taskRuleId + "-" + segment));
+            writer.writeSegment(bits != null ? bits : new byte[0]);
+        }
+        exportMembers(jedis, taskRuleId, String.valueOf(taskRuleId), false, writer);
+        exportMembers(jedis, taskRuleId, RedisFetchReqFrontier.LEASE_PREFIX + taskRuleId, true, writer);
+        return writer.finish();
+    }
+
+    /**
+     * Replaces the rule with the content of the snapshot, once the whole file is checked.
+     * @return number of requests restored
+     */
+    long restore(Jedis jedis, int taskRuleId, Path file) throws IOException {
+        verify(file);
+
+        try (Reader reader = new Reader(Files.newInputStream(file))) {
+            // bitmaps of another layout map urls to other bits, the seen-set is then rebuilt from the requests only
+            boolean sameLayout = reader.sameLayout(seenFilter);
+            if (!sameLayout) {
+                LOGGER.warn(String.format("Event=SnapshotSeenFilterMismatch key=%s numBits=%d numHashFunctions=%d " +
+                        "expected=%s, seen-set is rebuilt from the pending requests", taskRuleId, reader.numBits,
+                        reader.numHashFunctions, seenFilter));
+            }
+
+            deleteKey.accept(taskRuleId);
+
+            for (int segment = 0; segment < reader.numSegments; segment++) {
+                byte[] bits = reader.readSegment();
+                if (sameLayout && bits.length > 0) {
+                    jedis.set(SafeEncoder.encode(RedisFetchReqFrontier.CACHE_PREFIX + taskRuleId + "-" + segment),
+                            bits);
+                }
+            }
+
+            String queueKey = String.valueOf(taskRuleId);
+            byte[] payloadKey = SafeEncoder.encode(RedisFetchReqFrontier.PAYLOAD_PREFIX + taskRuleId);
+            String cacheKey = RedisFetchReqFrontier.CACHE_PREFIX + taskRuleId;
+            long restored = 0;
+            Pipeline pipeline = jedis.pipelined();
+            for (Record record; (record = reader.readRecord()) != null; ) {
+                pipeline.zadd(queueKey, record.priority, record.id);
+                pipeline.hset(payloadKey, SafeEncoder.encode(record.id), record.payload);
+                if (!sameLayout) {
+                    for (long position : seenFilter.positions(record.id)) {
+                        pipeline.setbit(cacheKey + "-" + seenFilter.segment(position),
+                                seenFilter.offsetInSegment(position), true);
+                    }
+                }
+                restored++;
+                if (restored % PAGE_SIZE == 0) {
+                    pipeline.sync();
+                    pipeline = jedis.pipelined();
+                }
+            }
+            pipeline.sync();
+            return restored;
+        }
+    }
+
+    /**
+     * Reads the snapshot through without restoring it
+     * @return number of requests in the snapshot
+     * @throws IOException if the file is not a snapshot, is truncated or does not hold the records it counts
+     */
+    static long verify(Path file) throws IOException {
+        try (Reader reader = new Reader(Files.newInputStream(file))) {
+            for (int segment = 0; segment < reader.numSegments; segment++) {
+                reader.readSegment();
+            }
+            while (reader.readRecord() != null) {
+                // records are counted by the reader
+            }
+            return reader.records;
+        }
+    }
+
+    // leased members are exported with the priority they had when claimed
+    private void exportMembers(Jedis jedis, int taskRuleId, String key, boolean leased, Writer writer)
+            throws IOException {
+        String cursor = ScanParams.SCAN_POINTER_START;
+        ScanParams scanParams = new ScanParams().count(PAGE_SIZE);
+        byte[] payloadKey = SafeEncoder.encode(RedisFetchReqFrontier.PAYLOAD_PREFIX + taskRuleId);
+        do {
+            ScanResult<Tuple> scanResult = jedis.zscan(key, cursor, scanParams);
+            List<Tuple> members = scanResult.getResult();
+            if (!members.isEmpty()) {
+                String[] ids = new String[members.size()];
+                byte[][] fields = new byte[members.size()][];
+                for (int i = 0; i < members.size(); i++) {
+                    ids[i] = members.get(i).getElement();
+                    fields[i] = SafeEncoder.encode(ids[i]);
+                }
+                List<byte[]> payloads = jedis.hmget(payloadKey, fields);
+                List<String> priorities = leased
+                        ? jedis.hmget(RedisFetchReqFrontier.LEASE_PRIORITY_PREFIX + taskRuleId, ids) : new ArrayList<>();
+
+                for (int i = 0; i < ids.length; i++) {
+                    byte[] payload = payloads.get(i);
+                    if (payload == null) {
+                        LOGGER.warn(String.format("Event=MissingPayload key=%s id=%s", taskRuleId, ids[i]));
+                        continue;
+                    }
+                    double priority = leased
+                            ? (priorities.get(i) != null ? Double.parseDouble(priorities.get(i)) : 0)
+                            : members.get(i).getScore();
+                    writer.writeRecord(priority, ids[i], FetchRequestCodec.isBinary(payload) ? payload
+                            : FetchRequestCodec.toBinary(FetchRequestCodec.decode(payload)));
+                }
+            }
+            cursor = scanResult.getStringCursor();
+        } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+    }
+
+    /**
+     * Queued request of a snapshot.
+     */
+    static class Record {
+        final double priority;
+        final String id;
+        final byte[] payload;
+
+        Record(double priority, String id, byte[] payload) {
+            this.priority = priority;
+            this.id = id;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * Writes the header on creation, then the numSegments bitmap segments, the records, and the end marker on finish.
+     */
+    static class Writer {
+        private final DataOutputStream data;
+        private long records;
+
+        Writer(OutputStream out, BloomFilter seenFilter) throws IOException {
+            data = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(out)));
+            data.writeInt(MAGIC);
+            data.writeByte(VERSION);
+            data.writeLong(seenFilter.getNumBits());
+            data.writeInt(seenFilter.getNumHashFunctions());
+            data.writeLong(seenFilter.getSegmentBits());
+            data.writeInt(seenFilter.getNumSegments());
+        }
+
+        void writeSegment(byte[] bits) throws IOException {
+            writeBytes(data, bits);
+        }
+
+        void writeRecord(double priority, String id, byte[] payload) throws IOException {
+            data.writeByte(RECORD);
+            data.writeDouble(priority);
+            data.writeUTF(id);
+            writeBytes(data, payload);
+            records++;
+        }
+
+        /**
+         * @return number of records written
+         */
+        long finish() throws IOException {
+            data.writeByte(END);
+            data.writeLong(records);
+            data.close();
+            return records;
+        }
+    }
+
+    /**
+     * Reads the header on creation, then the numSegments bitmap segments and the records. The record count written
+     * after the end marker is checked once the records are read through.
+     */
+    static class Reader implements Closeable {
+        private final DataInputStream data;
+        final long numBits;
+        final int numHashFunctions;
+        final long segmentBits;
+        final int numSegments;
+        private long records;
+
+        Reader(InputStream in) throws IOException {
+            data = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in)));
+            if (data.readInt() != MAGIC) {
+                data.close();
+                throw new IOException("Not a frontier snapshot");
+            }
+            byte version = data.readByte();
+            if (version != VERSION) {
+                data.close();
+                throw new IOException(String.format("Unsupported frontier snapshot version=%d", version));
+            }
+            numBits = data.readLong();
+            numHashFunctions = data.readInt();
+            segmentBits = data.readLong();
+            numSegments = data.readInt();
+        }
+
+        boolean sameLayout(BloomFilter seenFilter) {
+            return numBits == seenFilter.getNumBits() && numHashFunctions == seenFilter.getNumHashFunctions()
+                    && segmentBits == seenFilter.getSegmentBits();
+        }
+
+        byte[] readSegment() throws IOException {
+            return readBytes(data);
+        }
+
+        /**
+         * @return next record, null after the last one
+         */
+        Record readRecord() throws IOException {
+            byte marker = data.readByte();
+            if (marker == END) {
+                long expected = data.readLong();
+                if (expected != records) {
+                    throw new IOException(String.format("Truncated frontier snapshot, records=%d expected=%d",
+                            records, expected));
+                }
+                return null;
+            }
+            if (marker != RECORD) {
+                throw new IOException(String.format("Corrupt frontier snapshot, marker=%d after records=%d", marker,
+                        records));
+            }
+            Record record = new Record(data.readDouble(), data.readUTF(), readBytes(data));
+            records++;
+            return record;
+        }
+
+        @Override
+        public void close() throws IOException {
+            data.close();
+        }
+    }
+
+    private static void writeBytes(DataOutputStream data, byte[] bytes) throws IOException {
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream data) throws IOException {
+        int length = data.readInt();
+        if (length < 0) {
+            throw new IOException(String.format("Corrupt frontier snapshot, length=%d", length));
+        }
+        byte[] bytes = new byte[length];
+        data.readFully(bytes);
+        return bytes;
+    }
+}
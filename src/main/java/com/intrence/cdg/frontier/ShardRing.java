@@ -0,0 +1,52 @@
+package com.intrence.cdg.frontier;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring over named shards, each shard owns virtualNodes points of the ring. Adding or removing a shard
+ * only moves the keys of the ring arcs it gains or loses, about 1/n of them.
+ */
+class ShardRing {
+
+    private static final HashFunction RING_HASH = Hashing.murmur3_128();
+
+    private final TreeMap<Long, Integer> ring = new TreeMap<>();
+    private final int numShards;
+
+    /**
+     * @param shardNames stable names of the shards, e.g. host:port, a key is mapped to the index of its shard
+     */
+    ShardRing(List<String> shardNames, int virtualNodes) {
+        if (shardNames.isEmpty()) {
+            throw new IllegalArgumentException("Cannot build a shard ring without shards");
+        }
+        this.numShards = shardNames.size();
+        for (int shard = 0; shard < shardNames.size(); shard++) {
+            for (int node = 0; node < virtualNodes; node++) {
+                ring.put(hash(shardNames.get(shard) + "#" + node), shard);
+            }
+        }
+    }
+
+    int shardFor(String key) {
+        if (numShards == 1) {
+            return 0;
+        }
+        Map.Entry<Long, Integer> owner = ring.ceilingEntry(hash(key));
+        return owner != null ? owner.getValue() : ring.firstEntry().getValue();
+    }
+
+    int getNumShards() {
+        return numShards;
+    }
+
+    private static long hash(String key) {
+        return RING_HASH.hashString(key, StandardCharsets.UTF_8).asLong();
+    }
+}
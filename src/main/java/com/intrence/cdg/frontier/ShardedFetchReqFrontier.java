@@ -0,0 +1,324 @@
+package com.intrence.cdg.frontier;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.intrence.cdg.net.FetchRequest;
+import com.intrence.config.ConfigProvider;
+import com.intrence.config.collection.ConfigMap;
+import org.apache.commons.collections.CollectionUtils;
+import org.apache.log4j.Logger;
+import redis.clients.jedis.JedisPool;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Frontier spread over several redis nodes, so that queue and seen-set of a rule are not bound to the memory and
+ * throughput of a single one.
+ *
+ * Every request of a rule is routed on a consistent hash ring, either by its host (all urls of a host on the same
+ * shard, needed for per-host scheduling) or by its fingerprint (even spread). Since a request always lands on the
+ * same shard, that shard's seen-set is enough to dedupe it. Writes are grouped per shard, reads scatter to all shards
+ * and gather: claim() first merges the top priorities of every shard, then claims from each shard its share of the
+ * global top K.
+ */
+public class ShardedFetchReqFrontier implements FetchRequestFrontier {
+
+    private static final Logger LOGGER = Logger.getLogger(ShardedFetchReqFrontier.class);
+    private static final ConfigMap CONFIG_MAP = ConfigProvider.getConfig();
+    private static final int VIRTUAL_NODES = 160;
+
+    public enum ShardKey {
+        HOST, FINGERPRINT
+    }
+
+    private List<FetchRequestFrontier> shards;
+    private ShardRing ring;
+    private ShardKey shardKey;
+    private ExecutorService scatterThreads;
+
+    public ShardedFetchReqFrontier() {
+    }
+
+    public ShardedFetchReqFrontier(List<String> shardNames, List<FetchRequestFrontier> shards, ShardKey shardKey) {
+        init(shardNames, shards, shardKey);
+    }
+
+    /**
+     * One RedisFetchReqFrontier per endpoint of the comma separated redis host config, e.g. "r1:6379,r2:6379"
+     */
+    public void init() {
+        String redisHosts = CONFIG_MAP.getMap("redis").getString("host");
+        List<String> shardNames = new ArrayList<>();
+        List<FetchRequestFrontier> redisShards = new ArrayList<>();
+        for (String endpoint : redisHosts.split(",")) {
+            String[] hostPort = endpoint.trim().split(":");
+            shardNames.add(endpoint.trim());
+            redisShards.add(new RedisFetchReqFrontier(new JedisPool(hostPort[0], Integer.valueOf(hostPort[1])),
+                    "redis-" + hostPort[0] + "-" + hostPort[1]));
+        }
+        init(shardNames, redisShards,
+                ShardKey.valueOf(CONFIG_MAP.getString("frontier_shard_key", "fingerprint").toUpperCase()));
+    }
+
+    private void init(List<String> shardNames, List<FetchRequestFrontier> shards, ShardKey shardKey) {
+        this.shards = shards;
+        this.ring = new ShardRing(shardNames, VIRTUAL_NODES);
+        this.shardKey = shardKey;
+        this.scatterThreads = Executors.newFixedThreadPool(shards.size(),
+                new ThreadFactoryBuilder().setNameFormat("frontier-shard-%d").setDaemon(true).build());
+        LOGGER.info(String.format("Event=ShardedFrontierInit shards=%s shardKey=%s", shardNames, shardKey));
+    }
+
+    public void shutdown() {
+        scatterThreads.shutdown();
+        for (FetchRequestFrontier shard : shards) {
+            if (shard instanceof RedisFetchReqFrontier) {
+                ((RedisFetchReqFrontier) shard).shutdown();
+            }
+        }
+    }
+
+    @Override
+    public FetchRequest getNext(int taskRuleId) {
+        Set<FetchRequest> next = getTopK(taskRuleId, 1);
+        return next.isEmpty() ? null : next.iterator().next();
+    }
+
+    @Override
+    public Set<FetchRequest> getTopK(int taskRuleId, int K) {
+        if (K <= 0) {
+            return new HashSet<>();
+        }
+        List<FetchRequest> merged = new ArrayList<>();
+        for (Set<FetchRequest> shardTopK : scatter(shard -> shard.getTopK(taskRuleId, K))) {
+            merged.addAll(shardTopK);
+        }
+        merged.sort(Comparator.comparingInt(FetchRequest::getPriority).reversed());
+        return new HashSet<>(merged.subList(0, Math.min(K, merged.size())));
+    }
+
+    @Override
+    public List<Integer> peekPriorities(int taskRuleId, int K) {
+        List<Integer> merged = new ArrayList<>();
+        for (List<Integer> priorities : scatter(shard -> shard.peekPriorities(taskRuleId, K))) {
+            merged.addAll(priorities);
+        }
+        merged.sort(Collections.reverseOrder());
+        return merged.subList(0, Math.min(K, merged.size()));
+    }
+
+    @Override
+    public void add(int taskRuleId, FetchRequest fetchReq) {
+        shards.get(shardFor(fetchReq)).add(taskRuleId, fetchReq);
+    }
+
+    @Override
+    public void addAll(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        gather(fetchReqs, (shard, shardReqs) -> shard.addAll(taskRuleId, shardReqs));
+    }
+
+    @Override
+    public void delete(int taskRuleId, FetchRequest fetchReq) {
+        shards.get(shardFor(fetchReq)).delete(taskRuleId, fetchReq);
+    }
+
+    @Override
+    public void deleteAll(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        gather(fetchReqs, (shard, shardReqs) -> shard.deleteAll(taskRuleId, shardReqs));
+    }
+
+    @Override
+    public void deleteKey(int taskRuleId) {
+        scatter(shard -> {
+            shard.deleteKey(taskRuleId);
+            return null;
+        });
+    }
+
+    @Override
+    public Set<FetchRequest> claim(int taskRuleId, int K, long leaseMillis) {
+        Set<FetchRequest> claimed = new HashSet<>();
+        if (K <= 0) {
+            return claimed;
+        }
+
+        // share of each shard in the global top K, by merging the top K priorities of every shard
+        List<List<Integer>> shardPriorities = scatter(shard -> shard.peekPriorities(taskRuleId, K));
+        int[] shares = new int[shards.size()];
+        int[] heads = new int[shards.size()];
+        for (int taken = 0; taken < K; taken++) {
+            int best = -1;
+            for (int i = 0; i < shards.size(); i++) {
+                if (heads[i] < shardPriorities.get(i).size() && (best < 0
+                        || shardPriorities.get(i).get(heads[i]) > shardPriorities.get(best).get(heads[best]))) {
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            heads[best]++;
+            shares[best]++;
+        }
+
+        List<Integer> claimFrom = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            if (shares[i] > 0) {
+                claimFrom.add(i);
+            }
+        }
+        List<CompletableFuture<Set<FetchRequest>>> futures = new ArrayList<>();
+        for (int i : claimFrom) {
+            futures.add(CompletableFuture.supplyAsync(
+                    () -> shards.get(i).claim(taskRuleId, shares[i], leaseMillis), scatterThreads));
+        }
+        for (CompletableFuture<Set<FetchRequest>> future : futures) {
+            claimed.addAll(join(future));
+        }
+        return claimed;
+    }
+
+    @Override
+    public void ack(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        gather(fetchReqs, (shard, shardReqs) -> shard.ack(taskRuleId, shardReqs));
+    }
+
+    @Override
+    public void nack(int taskRuleId, Set<FetchRequest> fetchReqs) {
+        gather(fetchReqs, (shard, shardReqs) -> shard.nack(taskRuleId, shardReqs));
+    }
+
+    @Override
+    public int reapExpiredLeases(int taskRuleId) {
+        int reaped = 0;
+        for (Integer shardReaped : scatter(shard -> shard.reapExpiredLeases(taskRuleId))) {
+            reaped += shardReaped;
+        }
+        return reaped;
+    }
+
+    @Override
+    public long leasedCount(int taskRuleId) {
+        long leased = 0;
+        for (Long shardLeased : scatter(shard -> shard.leasedCount(taskRuleId))) {
+            leased += shardLeased;
+        }
+        return leased;
+    }
+
+    @Override
+    public void flush(int taskRuleId) {
+        for (FetchRequestFrontier shard : shards) {
+            shard.flush(taskRuleId);
+        }
+    }
+
+    /**
+     * Snapshots the shards one at a time, shard i to the file name suffixed with .i
+     */
+    @Override
+    public long exportSnapshot(int taskRuleId, Path file) throws IOException {
+        long exported = 0;
+        for (int i = 0; i < shards.size(); i++) {
+            exported += shards.get(i).exportSnapshot(taskRuleId, shardFile(file, i));
+        }
+        return exported;
+    }
+
+    /**
+     * Restores the shard files written by exportSnapshot, the ring must have the same shards in the same order
+     */
+    @Override
+    public long importSnapshot(int taskRuleId, Path file) throws IOException {
+        for (int i = 0; i < shards.size(); i++) {
+            if (!Files.exists(shardFile(file, i))) {
+                throw new IOException(String.format("Missing frontier snapshot of shard=%d file=%s", i,
+                        shardFile(file, i)));
+            }
+        }
+        long restored = 0;
+        for (int i = 0; i < shards.size(); i++) {
+            restored += shards.get(i).importSnapshot(taskRuleId, shardFile(file, i));
+        }
+        return restored;
+    }
+
+    private static Path shardFile(Path file, int shard) {
+        return file.resolveSibling(file.getFileName() + "." + shard);
+    }
+
+    int shardFor(FetchRequest fetchReq) {
+        if (shardKey == ShardKey.HOST) {
+            String host = fetchReq.getHost();
+            if (!host.isEmpty()) {
+                return ring.shardFor(host);
+            }
+        }
+        return ring.shardFor(fetchReq.getFingerprint());
+    }
+
+    // runs the call on every shard in parallel, results in shard order
+    private <T> List<T> scatter(Function<FetchRequestFrontier, T> call) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards.size());
+        for (FetchRequestFrontier shard : shards) {
+            futures.add(CompletableFuture.supplyAsync(() -> call.apply(shard), scatterThreads));
+        }
+        List<T> results = new ArrayList<>(shards.size());
+        for (CompletableFuture<T> future : futures) {
+            results.add(join(future));
+        }
+        return results;
+    }
+
+    // groups the requests per shard and runs the call on the shards that got some, in parallel
+    private void gather(Set<FetchRequest> fetchReqs, BiConsumer<FetchRequestFrontier, Set<FetchRequest>> call) {
+        if (CollectionUtils.isEmpty(fetchReqs)) {
+            return;
+        }
+        Map<Integer, Set<FetchRequest>> byShard = new HashMap<>();
+        for (FetchRequest fetchReq : fetchReqs) {
+            if (fetchReq != null) {
+                byShard.computeIfAbsent(shardFor(fetchReq), s -> new HashSet<>()).add(fetchReq);
+            }
+        }
+        if (byShard.size() == 1) {
+            Map.Entry<Integer, Set<FetchRequest>> only = byShard.entrySet().iterator().next();
+            call.accept(shards.get(only.getKey()), only.getValue());
+            return;
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (Map.Entry<Integer, Set<FetchRequest>> entry : byShard.entrySet()) {
+            futures.add(CompletableFuture.runAsync(
+                    () -> call.accept(shards.get(entry.getKey()), entry.getValue()), scatterThreads));
+        }
+        for (CompletableFuture<Void> future : futures) {
+            join(future);
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
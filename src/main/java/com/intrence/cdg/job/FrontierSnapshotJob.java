@@ -0,0 +1,41 @@
+package com.intrence.cdg.job;
+
+import com.intrence.cdg.frontier.FetchRequestFrontier;
+import com.intrence.cdg.frontier.FrontierConfiguration;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Exports the frontier of a rule to a snapshot file, or replaces it with one, on the frontier configured for the
+ * environment. The rule should not be running meanwhile.
+ *
+ * usage: FrontierSnapshotJob export|import taskRuleId file
+ */
+public class FrontierSnapshotJob {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3 || !("export".equals(args[0]) || "import".equals(args[0]))) {
+            System.err.println("usage: FrontierSnapshotJob export|import taskRuleId file");
+            System.exit(1);
+        }
+        int taskRuleId = Integer.parseInt(args[1]);
+        Path file = Paths.get(args[2]);
+
+        FrontierConfiguration frontierConfiguration = new FrontierConfiguration();
+        FetchRequestFrontier frontier = frontierConfiguration.fetchRequestFrontier();
+        try {
+            if ("export".equals(args[0])) {
+                long exported = frontier.exportSnapshot(taskRuleId, file);
+                System.out.println(String.format("Exported taskrule=%d requests=%d file=%s", taskRuleId, exported,
+                        file));
+            } else {
+                long restored = frontier.importSnapshot(taskRuleId, file);
+                System.out.println(String.format("Imported taskrule=%d requests=%d file=%s", taskRuleId, restored,
+                        file));
+            }
+        } finally {
+            frontierConfiguration.shutdown();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.intrence.cdg.net;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.RateLimiter;
+import com.intrence.config.collection.ConfigMap;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limiter of a source, adapted to the responses in AIMD fashion, for the source as a whole and for each host it
+ * fetches from.
+ *
+ * The configured max_records_per_sec is the ceiling and the starting rate. A 429 or 503 response, or a fetch that
+ * timed out, cuts the rate by decreaseFactor, at most once per cooldown so that the requests already in flight at the
+ * time do not cut it again. Every healthy response, 2xx or 3xx within latencyMillis, adds increaseRatio * ceiling / rate,
+ * i.e. the rate grows back by increaseRatio of the ceiling for every second of healthy traffic. Other responses leave
+ * the rate unchanged.
+ *
+ * Hosts have their own limiter under the same ceiling, so that a host throttling the crawl does not slow down the
+ * other hosts of the source.
+ */
+public class AdaptiveRateLimiter {
+
+    private static final Logger LOGGER = Logger.getLogger(AdaptiveRateLimiter.class);
+
+    private static final Set<Integer> BACKOFF_STATUS_CODES = ImmutableSet.of(429, 503);
+    private static final double MIN_RATE = 0.01;
+    private static final long MIN_COOLDOWN_MILLIS = 1000;
+    private static final int MAX_HOSTS = 10000;
+
+    private final String source;
+    private final double increaseRatio;
+    private final double decreaseFactor;
+    private final double minRatio;
+    private final long latencyMillis;
+    private final Limiter sourceLimiter;
+    private final Cache<String, Limiter> hostLimiters = CacheBuilder.newBuilder().maximumSize(MAX_HOSTS)
+            .expireAfterAccess(10, TimeUnit.MINUTES).build();
+    private volatile double ceiling;
+
+    public AdaptiveRateLimiter(String source, double ceiling, ConfigMap configMap) {
+        this(source, ceiling, Double.parseDouble(configMap.getString("adaptive_rate_increase_ratio", "0.05")),
+                Double.parseDouble(configMap.getString("adaptive_rate_decrease_factor", "0.5")),
+                Double.parseDouble(configMap.getString("adaptive_rate_min_ratio", "0.02")),
+                configMap.getInteger("adaptive_rate_latency_millis", 5000));
+    }
+
+    /**
+     * @param ceiling max requests per second, the starting rate
+     * @param increaseRatio share of the ceiling the rate grows by per second of healthy responses
+     * @param decreaseFactor factor applied to the rate on backoff
+     * @param minRatio share of the ceiling the rate never goes below
+     * @param latencyMillis slower responses do not increase the rate
+     */
+    public AdaptiveRateLimiter(String source, double ceiling, double increaseRatio, double decreaseFactor,
+                               double minRatio, long latencyMillis) {
+        this.source = source;
+        this.ceiling = ceiling;
+        this.increaseRatio = increaseRatio;
+        this.decreaseFactor = decreaseFactor;
+        this.minRatio = minRatio;
+        this.latencyMillis = latencyMillis;
+        this.sourceLimiter = new Limiter(source, ceiling);
+    }
+
+    /**
+     * Waits for a permit of the source and of the host
+     * @param host host of the request, empty or null for none
+     */
+    public void acquire(String host) {
+        sourceLimiter.rateLimiter.acquire();
+        Limiter hostLimiter = hostLimiter(host);
+        if (hostLimiter != null) {
+            hostLimiter.rateLimiter.acquire();
+        }
+    }
+
+    /**
+     * Takes a permit of the host and of the source if both are free right away, without waiting. The host is tried
+     * first, its permit is given back when the source has none, so retries held back by the source do not use up the
+     * permits of the host.
+     * @param host host of the request, empty or null for none
+     * @return 0 when the permits were taken, else the millis to wait before trying again
+     */
+    public long tryAcquire(String host) {
+        Limiter hostLimiter = hostLimiter(host);
+        if (hostLimiter != null && !hostLimiter.tryAcquire()) {
+            return hostLimiter.intervalMillis();
+        }
+        if (!sourceLimiter.tryAcquire()) {
+            if (hostLimiter != null) {
+                hostLimiter.giveBack();
+            }
+            return sourceLimiter.intervalMillis();
+        }
+        return 0;
+    }
+
+    public void onResponse(String host, int status, long responseMillis) {
+        if (BACKOFF_STATUS_CODES.contains(status)) {
+            backoff(host);
+        } else if (status >= 200 && status < 400 && responseMillis <= latencyMillis) {
+            sourceLimiter.increase();
+            Limiter hostLimiter = hostLimiter(host);
+            if (hostLimiter != null) {
+                hostLimiter.increase();
+            }
+        }
+    }
+
+    public void onTimeout(String host) {
+        backoff(host);
+    }
+
+    private void backoff(String host) {
+        sourceLimiter.decrease();
+        Limiter hostLimiter = hostLimiter(host);
+        if (hostLimiter != null) {
+            hostLimiter.decrease();
+        }
+    }
+
+    /**
+     * New ceiling, e.g. after a config update, the current rates are capped to it
+     */
+    public void setCeiling(double ceiling) {
+        this.ceiling = ceiling;
+        sourceLimiter.cap();
+        for (Limiter hostLimiter : hostLimiters.asMap().values()) {
+            hostLimiter.cap();
+        }
+    }
+
+    public double getCeiling() {
+        return ceiling;
+    }
+
+    /**
+     * @return current rate of the source
+     */
+    public double getRate() {
+        return sourceLimiter.rateLimiter.getRate();
+    }
+
+    double getRate(String host) {
+        Limiter hostLimiter = hostLimiters.getIfPresent(host);
+        return hostLimiter != null ? hostLimiter.rateLimiter.getRate() : ceiling;
+    }
+
+    private Limiter hostLimiter(String host) {
+        if (StringUtils.isEmpty(host)) {
+            return null;
+        }
+        try {
+            return hostLimiters.get(host, () -> new Limiter(host, ceiling));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final class Limiter {
+        private final String key;
+        private final RateLimiter rateLimiter;
+        // guarded by this
+        private double rate;
+        private long lastDecrease;
+        // permits taken but not used, handed out again while they are younger than an interval
+        private int returnedPermits;
+        private long returnedAt;
+
+        private Limiter(String key, double rate) {
+            this.key = key;
+            this.rate = rate;
+            this.rateLimiter = RateLimiter.create(rate);
+        }
+
+        synchronized void increase() {
+            if (rate < ceiling) {
+                apply(Math.min(ceiling, rate + increaseRatio * ceiling / rate));
+            }
+        }
+
+        synchronized void decrease() {
+            long now = System.currentTimeMillis();
+            long cooldown = Math.max(MIN_COOLDOWN_MILLIS, (long) (1000 / rate));
+            if (now - lastDecrease < cooldown) {
+                return;
+            }
+            lastDecrease = now;
+            double decreased = Math.max(Math.max(MIN_RATE, ceiling * minRatio), rate * decreaseFactor);
+            if (decreased < rate) {
+                LOGGER.info(String.format("Event=RateBackoff source=%s key=%s rate=%.3f newRate=%.3f", source, key,
+                        rate, decreased));
+                apply(decreased);
+            }
+        }
+
+        boolean tryAcquire() {
+            synchronized (this) {
+                if (returnedPermits > 0 && System.currentTimeMillis() - returnedAt <= intervalMillis()) {
+                    returnedPermits--;
+                    return true;
+                }
+                returnedPermits = 0;
+            }
+            return rateLimiter.tryAcquire();
+        }
+
+        // RateLimiter has no way to hand a permit back, it is kept aside instead
+        synchronized void giveBack() {
+            returnedPermits++;
+            returnedAt = System.currentTimeMillis();
+        }
+
+        long intervalMillis() {
+            return Math.max(1, (long) (1000 / rateLimiter.getRate()));
+        }
+
+        synchronized void cap() {
+            apply(Math.min(rate, ceiling));
+        }
+
+        // RateLimiter.setRate resyncs the limiter, skipped for changes below 1%
+        private void apply(double newRate) {
+            boolean significant = Math.abs(newRate - rateLimiter.getRate()) > rateLimiter.getRate() * 0.01;
+            rate = newRate;
+            if (significant || (newRate == ceiling && rateLimiter.getRate() != ceiling)) {
+                rateLimiter.setRate(newRate);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.intrence.cdg.net;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reusable byte and char arrays for response bodies, shared by the fetch and parse threads.
+ *
+ * Arrays come in power of two sizes from MIN_BUFFER_SIZE, so that a body can reuse the buffer of any earlier body of
+ * similar size. Released arrays are kept as long as the pool holds less than maxPooledBytes, larger amounts are left to
+ * the garbage collector, as are arrays that are never released.
+ */
+public class BufferPool {
+
+    public static final int MIN_BUFFER_SIZE = 8 * 1024;
+    private static final int MIN_SIZE_SHIFT = 32 - Integer.numberOfLeadingZeros(MIN_BUFFER_SIZE - 1);
+
+    private final long maxPooledBytes;
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final ConcurrentLinkedQueue<byte[]>[] byteBuffers = newQueues();
+    private final ConcurrentLinkedQueue<char[]>[] charBuffers = newQueues();
+
+    /**
+     * @param maxPooledBytes max size of the released arrays kept for reuse, chars counted as two bytes
+     */
+    public BufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * @return array of at least minSize bytes, with any content
+     */
+    public byte[] acquireBytes(int minSize) {
+        int sizeClass = sizeClass(minSize);
+        byte[] buffer = sizeClass < byteBuffers.length ? byteBuffers[sizeClass].poll() : null;
+        if (buffer == null) {
+            return new byte[bufferSize(minSize)];
+        }
+        pooledBytes.addAndGet(-buffer.length);
+        return buffer;
+    }
+
+    /**
+     * @return array of at least minSize chars, with any content
+     */
+    public char[] acquireChars(int minSize) {
+        int sizeClass = sizeClass(minSize);
+        char[] buffer = sizeClass < charBuffers.length ? charBuffers[sizeClass].poll() : null;
+        if (buffer == null) {
+            return new char[bufferSize(minSize)];
+        }
+        pooledBytes.addAndGet(-2L * buffer.length);
+        return buffer;
+    }
+
+    public void release(byte[] buffer) {
+        int sizeClass = pooledSizeClass(buffer.length);
+        if (sizeClass >= 0 && reserve(buffer.length)) {
+            byteBuffers[sizeClass].offer(buffer);
+        }
+    }
+
+    public void release(char[] buffer) {
+        int sizeClass = pooledSizeClass(buffer.length);
+        if (sizeClass >= 0 && reserve(2L * buffer.length)) {
+            charBuffers[sizeClass].offer(buffer);
+        }
+    }
+
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    private boolean reserve(long bytes) {
+        while (true) {
+            long pooled = pooledBytes.get();
+            if (pooled + bytes > maxPooledBytes) {
+                return false;
+            }
+            if (pooledBytes.compareAndSet(pooled, pooled + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    // arrays not acquired from a pool, i.e. not a power of two from MIN_BUFFER_SIZE, are not pooled
+    private static int pooledSizeClass(int length) {
+        if (length < MIN_BUFFER_SIZE || Integer.bitCount(length) != 1) {
+            return -1;
+        }
+        return sizeClass(length);
+    }
+
+    private static int sizeClass(int minSize) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(minSize, MIN_BUFFER_SIZE) - 1) - MIN_SIZE_SHIFT;
+    }
+
+    private static int bufferSize(int minSize) {
+        return minSize <= MIN_BUFFER_SIZE ? MIN_BUFFER_SIZE : Integer.highestOneBit(minSize - 1) << 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> ConcurrentLinkedQueue<T>[] newQueues() {
+        ConcurrentLinkedQueue<T>[] queues = new ConcurrentLinkedQueue[31 - MIN_SIZE_SHIFT];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ConcurrentLinkedQueue<>();
+        }
+        return queues;
+    }
+}
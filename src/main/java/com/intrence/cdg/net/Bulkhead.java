@@ -0,0 +1,91 @@
+package com.intrence.cdg.net;
+
+import com.intrence.cdg.exception.FetchRejectedException;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the fetches of a source in flight at once, so that a slow or failing source cannot take all the fetch threads
+ * and pooled connections shared with the other running tasks. Every successful enter must be followed by one exit.
+ */
+public class Bulkhead {
+
+    private static final Logger LOGGER = Logger.getLogger(Bulkhead.class);
+
+    private final String source;
+    private final ResizableSemaphore permits;
+    private final AtomicLong rejectedCount = new AtomicLong();
+    // guarded by this
+    private int limit;
+
+    public Bulkhead(String source, int limit) {
+        this.source = source;
+        this.limit = limit;
+        this.permits = new ResizableSemaphore(limit);
+    }
+
+    /**
+     * Waits for a free slot of the source
+     * @param timeoutMillis max time to wait
+     * @throws FetchRejectedException when the source still has limit fetches in flight after timeoutMillis
+     */
+    public void enter(long timeoutMillis) throws FetchRejectedException, InterruptedException {
+        if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            rejectedCount.incrementAndGet();
+            throw new FetchRejectedException(String.format("Event=BulkheadFull source=%s limit=%d", source,
+                    getLimit()), 0);
+        }
+    }
+
+    /**
+     * Takes a free slot of the source without waiting
+     * @return whether a slot was free, to be followed by one exit if so
+     */
+    public boolean tryEnter() {
+        return permits.tryAcquire();
+    }
+
+    public void exit() {
+        permits.release();
+    }
+
+    /**
+     * New limit, e.g. after a config update. Fetches in flight above a lower limit finish, the next ones wait.
+     */
+    public synchronized void setLimit(int limit) {
+        if (limit > this.limit) {
+            permits.release(limit - this.limit);
+        } else if (limit < this.limit) {
+            permits.reducePermits(this.limit - limit);
+        }
+        this.limit = limit;
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return getLimit() - permits.availablePermits();
+    }
+
+    public void logStats() {
+        LOGGER.info(String.format("Event=BulkheadStats source=%s limit=%d inFlight=%d rejected=%d", source, getLimit(),
+                getInFlight(), rejectedCount.get()));
+    }
+
+    // exposes reducePermits, available permits go negative until enough fetches exit
+    private static final class ResizableSemaphore extends Semaphore {
+        private ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.intrence.cdg.net;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.intrence.cdg.exception.FetchRejectedException;
+import com.intrence.config.collection.ConfigMap;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker of a source, for the source as a whole and for each host it fetches from.
+ *
+ * After failureThreshold consecutive failures, i.e. connect or read errors, timeouts and 5xx responses, the circuit
+ * opens and requests fail right away instead of holding a fetch thread for the whole timeout. Once openMillis is over
+ * the circuit is half-open: a single probe request goes through and either closes it or opens it again. A probe that
+ * never reports back, e.g. rejected further down, is retried after another openMillis.
+ *
+ * The source circuit trips when the source is down altogether, a host circuit when only that host is.
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class);
+
+    private static final int MAX_HOSTS = 10000;
+
+    private final String source;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final Circuit sourceCircuit;
+    private final Cache<String, Circuit> hostCircuits = CacheBuilder.newBuilder().maximumSize(MAX_HOSTS)
+            .expireAfterAccess(10, TimeUnit.MINUTES).build();
+
+    public CircuitBreaker(String source, ConfigMap configMap) {
+        this(source, configMap.getInteger("circuit_breaker_failures", 10),
+                configMap.getInteger("circuit_breaker_open_millis", 30000));
+    }
+
+    /**
+     * @param failureThreshold consecutive failures opening a circuit
+     * @param openMillis time a circuit stays open before the probe
+     */
+    public CircuitBreaker(String source, int failureThreshold, long openMillis) {
+        this.source = source;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.sourceCircuit = new Circuit(source);
+    }
+
+    /**
+     * @param host host of the request, empty or null for none
+     * @throws FetchRejectedException when the circuit of the host or of the source is open, with the time left until
+     *         its probe
+     */
+    public void checkAllowed(String host) throws FetchRejectedException {
+        long now = System.currentTimeMillis();
+        // the host first, so that an open host does not use up the probe of the source
+        Circuit hostCircuit = hostCircuit(host);
+        if (hostCircuit != null && !hostCircuit.allow(now)) {
+            throw new FetchRejectedException(String.format("Event=CircuitOpen source=%s host=%s", source, host),
+                    hostCircuit.millisUntilProbe(now));
+        }
+        if (!sourceCircuit.allow(now)) {
+            throw new FetchRejectedException(String.format("Event=CircuitOpen source=%s", source),
+                    sourceCircuit.millisUntilProbe(now));
+        }
+    }
+
+    public void onSuccess(String host) {
+        sourceCircuit.onSuccess();
+        Circuit hostCircuit = hostCircuit(host);
+        if (hostCircuit != null) {
+            hostCircuit.onSuccess();
+        }
+    }
+
+    public void onFailure(String host) {
+        sourceCircuit.onFailure();
+        Circuit hostCircuit = hostCircuit(host);
+        if (hostCircuit != null) {
+            hostCircuit.onFailure();
+        }
+    }
+
+    public boolean isOpen() {
+        return sourceCircuit.openUntil != 0;
+    }
+
+    boolean isOpen(String host) {
+        Circuit hostCircuit = hostCircuits.getIfPresent(host);
+        return hostCircuit != null && hostCircuit.openUntil != 0;
+    }
+
+    public int openHostCount() {
+        int open = 0;
+        for (Circuit hostCircuit : hostCircuits.asMap().values()) {
+            if (hostCircuit.openUntil != 0) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    public void logStats() {
+        LOGGER.info(String.format("Event=CircuitBreakerStats source=%s open=%s openHosts=%d", source, isOpen(),
+                openHostCount()));
+    }
+
+    private Circuit hostCircuit(String host) {
+        if (StringUtils.isEmpty(host)) {
+            return null;
+        }
+        try {
+            return hostCircuits.get(host, () -> new Circuit(host));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final class Circuit {
+        private final String key;
+        // guarded by this
+        private int consecutiveFailures;
+        private boolean probing;
+        // 0 when closed, written under this
+        private volatile long openUntil;
+
+        private Circuit(String key) {
+            this.key = key;
+        }
+
+        boolean allow(long now) {
+            if (openUntil == 0) {
+                return true;
+            }
+            synchronized (this) {
+                if (openUntil == 0) {
+                    return true;
+                }
+                if (openUntil > now) {
+                    return false;
+                }
+                // half-open, this request is the probe
+                openUntil = now + openMillis;
+                probing = true;
+                return true;
+            }
+        }
+
+        long millisUntilProbe(long now) {
+            long until = openUntil;
+            return until == 0 ? 0 : Math.max(0, until - now);
+        }
+
+        synchronized void onSuccess() {
+            consecutiveFailures = 0;
+            probing = false;
+            if (openUntil != 0) {
+                openUntil = 0;
+                LOGGER.info(String.format("Event=CircuitClosed source=%s key=%s", source, key));
+            }
+        }
+
+        synchronized void onFailure() {
+            consecutiveFailures++;
+            boolean probe = probing;
+            probing = false;
+            if (probe || (openUntil == 0 && consecutiveFailures >= failureThreshold)) {
+                openUntil = System.currentTimeMillis() + openMillis;
+                LOGGER.warn(String.format("Event=CircuitOpened source=%s key=%s consecutiveFailures=%d openMillis=%d",
+                        source, key, consecutiveFailures, openMillis));
+            }
+        }
+    }
+}
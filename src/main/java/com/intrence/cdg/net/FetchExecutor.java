@@ -0,0 +1,108 @@
+package com.intrence.cdg.net;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.intrence.cdg.exception.CdgBackendException;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-lived, bounded thread pool shared by every http fetch issued from WebFetcher and ParserWebFetcher.
+ *
+ * Each fetch is still bounded by its source specific timeout, when the timeout is hit the worker is interrupted and
+ * the underlying http request is aborted so that the pooled connection is released.
+ */
+public class FetchExecutor {
+
+    private static final Logger LOGGER = Logger.getLogger(FetchExecutor.class);
+
+    public static final int DEFAULT_THREADS = 200;
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong timedOutCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    public FetchExecutor(int threads, int queueSize) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder().setNameFormat("fetch-worker-%d").setDaemon(true).build());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs the worker on the shared pool and waits at most timeoutSeconds for its result.
+     *
+     * @param worker callable executing the http request
+     * @param httpUriRequest request executed by the worker, aborted on timeout
+     * @param timeoutSeconds max time to wait for the worker
+     * @return result of the worker
+     * @throws Exception TimeoutException when the fetch expired, CdgBackendException when the pool is saturated
+     */
+    public <T> T execute(Callable<T> worker, HttpUriRequest httpUriRequest, int timeoutSeconds) throws Exception {
+        Future<T> future;
+        try {
+            future = executor.submit(worker);
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            throw new CdgBackendException(String.format("Event=FetchRejected fetch queue is full, queueDepth=%d, " +
+                    "activeCount=%d", getQueueDepth(), getActiveCount()), e);
+        }
+
+        try {
+            return future.get(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            timedOutCount.incrementAndGet();
+            if (httpUriRequest instanceof HttpRequestBase) {
+                ((HttpRequestBase) httpUriRequest).abort();
+            }
+            throw e;
+        } finally {
+            // no-op when the worker already finished, otherwise interrupts it (timeout or caller interruption)
+            future.cancel(true);
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public int getPoolSize() {
+        return executor.getPoolSize();
+    }
+
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    public long getTimedOutCount() {
+        return timedOutCount.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public void logStats() {
+        LOGGER.info(String.format("Event=FetchExecutorStats queueDepth=%d, activeCount=%d, poolSize=%d, " +
+                        "completed=%d, timedOut=%d, rejected=%d", getQueueDepth(), getActiveCount(), getPoolSize(),
+                getCompletedCount(), getTimedOutCount(), getRejectedCount()));
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -3,28 +3,43 @@
  */
 package com.intrence.cdg.net;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import com.intrence.cdg.crawler.NormalizeURL;
 import com.intrence.models.util.JsonHandler;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.client.methods.HttpGet;
 
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.TreeMap;
 
 @JsonInclude(JsonInclude.Include.NON_EMPTY)
 public class FetchRequest implements Comparable {
 
+    private static final HashFunction FINGERPRINT_HASH = Hashing.murmur3_128();
+
     String workRequest; //example: urls to crawl, factual_id to fetch etc.
     int priority;
     String methodType;
     String httpBody;
     String httpResponse;
+    int depth; // links followed from the seed request
+    String pageType; // crawlable page type the url was matched to, null for seeds and api requests
 
     @JsonProperty
     Map<String,String> inputParamters;
+
+    @JsonIgnore
+    private transient String fingerprint;
+
     public FetchRequest() {}
 
     public FetchRequest(Map<String,String> inputParamters) {
@@ -70,10 +85,82 @@ public class FetchRequest implements Comparable {
         return workRequest;
     }
 
+    public int getDepth() {
+        return depth;
+    }
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    public String getPageType() {
+        return pageType;
+    }
+
+    public void setPageType(String pageType) {
+        this.pageType = pageType;
+    }
+
     public int getPriority() {
         return this.priority;
     }
 
+    /**
+     * Copy of the request with another priority. Priority is part of equals and hashCode, so the request itself is
+     * left untouched in the sets and maps holding it.
+     */
+    public FetchRequest withPriority(int priority) {
+        FetchRequest copy = new FetchRequest();
+        copy.workRequest = workRequest;
+        copy.priority = priority;
+        copy.methodType = methodType;
+        copy.httpBody = httpBody;
+        copy.httpResponse = httpResponse;
+        copy.depth = depth;
+        copy.pageType = pageType;
+        copy.inputParamters = inputParamters;
+        copy.fingerprint = fingerprint;
+        return copy;
+    }
+
+    /**
+     * Stable 128 bit id of the request, murmur3 of the normalized workRequest, method and body. Unlike toJson() it
+     * does not depend on priority, input parameters or response, so the same url found again is recognized as seen.
+     * Requests built only from input parameters are identified by them instead.
+     */
+    @JsonIgnore
+    public String getFingerprint() {
+        if (fingerprint == null) {
+            String request = workRequest != null ? workRequest
+                    : (inputParamters != null ? new TreeMap<>(inputParamters).toString() : "");
+            fingerprint = FINGERPRINT_HASH.newHasher()
+                    .putString(request, StandardCharsets.UTF_8)
+                    .putByte((byte) 0)
+                    .putString(methodType != null ? methodType : HttpGet.METHOD_NAME, StandardCharsets.UTF_8)
+                    .putByte((byte) 0)
+                    .putString(httpBody != null ? httpBody : "", StandardCharsets.UTF_8)
+                    .hash()
+                    .toString();
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Lower-cased host of the workRequest url, empty if the workRequest is not an url (e.g. api input parameters).
+     */
+    @JsonIgnore
+    public String getHost() {
+        if (workRequest == null || !workRequest.startsWith("http")) {
+            return "";
+        }
+        try {
+            String host = new URL(workRequest).getHost();
+            return host != null ? host.toLowerCase() : "";
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
     public String getInputParameter(String key){
         if(inputParamters != null) {
             return inputParamters.get(key);
@@ -90,6 +177,8 @@ public class FetchRequest implements Comparable {
                 ", httpBody='" + httpBody + '\'' +
                 ", httpResponse='" + httpResponse + '\'' +
                 ", inputParamters=" + inputParamters +
+                ", depth=" + depth +
+                ", pageType='" + pageType + '\'' +
                 '}';
     }
 
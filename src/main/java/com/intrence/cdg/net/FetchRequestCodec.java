@@ -0,0 +1,262 @@
+package com.intrence.cdg.net;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact, versioned binary encoding of FetchRequest used for the frontier payloads.
+ *
+ * Layout (version 2), strings are utf-8 prefixed with their varint length:
+ * <pre>
+ *   magic(1) version(1) priority(4) flags(1) workRequest [method] [httpBody] [httpResponse] [inputParamters]
+ *   [depth] [pageType]
+ * </pre>
+ * Version 1 is the same layout without depth and pageType, both versions are decoded.
+ * Payloads that start with '{' are the legacy JSON encoding, {@link #decode(byte[])} accepts both so queues written
+ * before the switch stay readable.
+ */
+public class FetchRequestCodec {
+
+    public static final String JSON = "json";
+    public static final String BINARY = "binary";
+
+    static final byte MAGIC = (byte) 0xF7;
+    static final byte VERSION = 2;
+    private static final byte VERSION_1 = 1;
+
+    private static final int PRIORITY_OFFSET = 2;
+    private static final int FLAGS_OFFSET = 6;
+    private static final int HEADER_SIZE = 7;
+
+    private static final int HAS_METHOD = 1;
+    private static final int HAS_BODY = 1 << 1;
+    private static final int HAS_RESPONSE = 1 << 2;
+    private static final int HAS_PARAMS = 1 << 3;
+    private static final int HAS_DEPTH = 1 << 4;
+    private static final int HAS_PAGE_TYPE = 1 << 5;
+
+    // common methods take one byte, others are written out after the CUSTOM_METHOD code
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE", "HEAD", "PATCH", "OPTIONS"};
+    private static final byte CUSTOM_METHOD = (byte) 0xFF;
+
+    private final boolean binary;
+
+    /**
+     * @param format payloads written by {@link #encode(FetchRequest)}, either JSON or BINARY
+     */
+    public FetchRequestCodec(String format) {
+        if (BINARY.equalsIgnoreCase(format)) {
+            this.binary = true;
+        } else if (JSON.equalsIgnoreCase(format)) {
+            this.binary = false;
+        } else {
+            throw new IllegalArgumentException(String.format("Unknown payload codec=%s, expected %s or %s", format,
+                    JSON, BINARY));
+        }
+    }
+
+    public String getFormat() {
+        return binary ? BINARY : JSON;
+    }
+
+    public byte[] encode(FetchRequest fetchReq) throws JsonProcessingException {
+        return binary ? toBinary(fetchReq) : fetchReq.toJson().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes a payload in either encoding.
+     */
+    public static FetchRequest decode(byte[] payload) {
+        if (isBinary(payload)) {
+            return fromBinary(payload);
+        }
+        return FetchRequest.fromJson(new String(payload, StandardCharsets.UTF_8));
+    }
+
+    public static boolean isBinary(byte[] payload) {
+        return payload.length >= HEADER_SIZE && payload[0] == MAGIC;
+    }
+
+    public static byte[] toBinary(FetchRequest fetchReq) {
+        byte[] workRequest = utf8(fetchReq.workRequest != null ? fetchReq.workRequest : "");
+        int methodCode = methodCode(fetchReq.methodType);
+        byte[] customMethod = methodCode == CUSTOM_METHOD ? utf8(fetchReq.methodType) : null;
+        byte[] body = utf8(fetchReq.httpBody);
+        byte[] response = utf8(fetchReq.httpResponse);
+        byte[] pageType = utf8(fetchReq.pageType);
+
+        byte[][] params = null;
+        if (fetchReq.inputParamters != null && !fetchReq.inputParamters.isEmpty()) {
+            params = new byte[fetchReq.inputParamters.size() * 2][];
+            int i = 0;
+            for (Map.Entry<String, String> param : fetchReq.inputParamters.entrySet()) {
+                params[i++] = utf8(param.getKey());
+                params[i++] = utf8(param.getValue() != null ? param.getValue() : "");
+            }
+        }
+
+        int flags = 0;
+        int size = HEADER_SIZE + sizeOf(workRequest);
+        if (fetchReq.methodType != null) {
+            flags |= HAS_METHOD;
+            size += 1 + (customMethod != null ? sizeOf(customMethod) : 0);
+        }
+        if (body != null) {
+            flags |= HAS_BODY;
+            size += sizeOf(body);
+        }
+        if (response != null) {
+            flags |= HAS_RESPONSE;
+            size += sizeOf(response);
+        }
+        if (params != null) {
+            flags |= HAS_PARAMS;
+            size += varIntSize(params.length / 2);
+            for (byte[] param : params) {
+                size += sizeOf(param);
+            }
+        }
+        if (fetchReq.depth > 0) {
+            flags |= HAS_DEPTH;
+            size += varIntSize(fetchReq.depth);
+        }
+        if (pageType != null) {
+            flags |= HAS_PAGE_TYPE;
+            size += sizeOf(pageType);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(MAGIC).put(VERSION).putInt(fetchReq.priority).put((byte) flags);
+        putBytes(buffer, workRequest);
+        if ((flags & HAS_METHOD) != 0) {
+            buffer.put((byte) methodCode);
+            if (customMethod != null) {
+                putBytes(buffer, customMethod);
+            }
+        }
+        if (body != null) {
+            putBytes(buffer, body);
+        }
+        if (response != null) {
+            putBytes(buffer, response);
+        }
+        if (params != null) {
+            putVarInt(buffer, params.length / 2);
+            for (byte[] param : params) {
+                putBytes(buffer, param);
+            }
+        }
+        if ((flags & HAS_DEPTH) != 0) {
+            putVarInt(buffer, fetchReq.depth);
+        }
+        if (pageType != null) {
+            putBytes(buffer, pageType);
+        }
+        return buffer.array();
+    }
+
+    private static FetchRequest fromBinary(byte[] payload) {
+        if (payload[1] != VERSION && payload[1] != VERSION_1) {
+            throw new IllegalArgumentException(String.format("Unsupported FetchRequest payload version=%d",
+                    payload[1]));
+        }
+        int flags = payload[FLAGS_OFFSET];
+        ByteBuffer buffer = ByteBuffer.wrap(payload, PRIORITY_OFFSET, payload.length - PRIORITY_OFFSET);
+
+        // fields are set directly, the workRequest was normalized when the request was first built
+        FetchRequest fetchReq = new FetchRequest();
+        fetchReq.priority = buffer.getInt();
+        buffer.position(HEADER_SIZE);
+        fetchReq.workRequest = getString(buffer);
+        if ((flags & HAS_METHOD) != 0) {
+            byte methodCode = buffer.get();
+            fetchReq.methodType = methodCode == CUSTOM_METHOD ? getString(buffer) : METHODS[methodCode];
+        }
+        if ((flags & HAS_BODY) != 0) {
+            fetchReq.httpBody = getString(buffer);
+        }
+        if ((flags & HAS_RESPONSE) != 0) {
+            fetchReq.httpResponse = getString(buffer);
+        }
+        if ((flags & HAS_PARAMS) != 0) {
+            int count = getVarInt(buffer);
+            Map<String, String> params = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                params.put(getString(buffer), getString(buffer));
+            }
+            fetchReq.inputParamters = params;
+        }
+        if ((flags & HAS_DEPTH) != 0) {
+            fetchReq.depth = getVarInt(buffer);
+        }
+        if ((flags & HAS_PAGE_TYPE) != 0) {
+            fetchReq.pageType = getString(buffer);
+        }
+        return fetchReq;
+    }
+
+    private static int methodCode(String methodType) {
+        if (methodType != null) {
+            for (int i = 0; i < METHODS.length; i++) {
+                if (METHODS[i].equals(methodType)) {
+                    return i;
+                }
+            }
+        }
+        return CUSTOM_METHOD;
+    }
+
+    private static byte[] utf8(String s) {
+        return s != null ? s.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return varIntSize(bytes.length) + bytes.length;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        putVarInt(buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = getVarInt(buffer);
+        String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return s;
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int getVarInt(ByteBuffer buffer) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
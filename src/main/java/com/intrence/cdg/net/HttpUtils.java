@@ -49,7 +49,7 @@ public class HttpUtils {
     // http://stackoverflow.com/questions/6047996/ignore-self-signed-ssl-cert-using-jersey-client
 
     // Good discussion between Mark and Taylor here: https://github.groupondev.com/voltron/khan-proxy-service/pull/39
-    private static  SSLContext getSslContext() {
+    static SSLContext getSslContext() {
         SSLContext sslContext = null;
 
         // Create a trust manager that does not validate certificate chains
@@ -0,0 +1,95 @@
+package com.intrence.cdg.net;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.methods.RequestBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Validators of a page fetched by a previous run, stored in page_validators by rule and FetchRequest fingerprint (two
+ * rules crawling the same url with different parsers or params keep their own validators). Refetches
+ * send them as If-None-Match / If-Modified-Since so that an unchanged page comes back as a bodyless 304, and the
+ * content hash still recognizes an unchanged page from servers that ignore the conditional headers.
+ */
+public class PageValidator {
+    public static final String TASK_RULE_ID = "task_rule_id";
+    public static final String FINGERPRINT = "fingerprint";
+    public static final String SOURCE = "source";
+    public static final String URL = "url";
+    public static final String ETAG = "etag";
+    public static final String LAST_MODIFIED = "last_modified";
+    public static final String CONTENT_HASH = "content_hash";
+    public static final String UPDATED_AT = "updated_at";
+
+    private static final HashFunction CONTENT_HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final String etag;
+    private final String lastModified;
+    private final String contentHash;
+
+    public PageValidator(String etag, String lastModified, String contentHash) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return validators of a 2xx response, null when it has no body to hash
+     */
+    public static PageValidator fromResponse(RequestResponse response) {
+        CharSequence content = response.getResponseContent();
+        if (content == null) {
+            return null;
+        }
+        return new PageValidator(response.getHeaderMap().get(HttpHeaders.ETAG),
+                response.getHeaderMap().get(HttpHeaders.LAST_MODIFIED), contentHash(content));
+    }
+
+    public static String contentHash(CharSequence content) {
+        return CONTENT_HASH_FUNCTION.hashString(content, StandardCharsets.UTF_8).toString();
+    }
+
+    void addConditionalHeaders(RequestBuilder requestBuilder) {
+        if (etag != null) {
+            requestBuilder.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        }
+        if (lastModified != null) {
+            requestBuilder.addHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+        }
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PageValidator that = (PageValidator) o;
+        return Objects.equals(etag, that.etag) && Objects.equals(lastModified, that.lastModified)
+                && Objects.equals(contentHash, that.contentHash);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(etag, lastModified, contentHash);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{ etag: %s, last_modified: %s, content_hash: %s }", etag, lastModified, contentHash);
+    }
+}
@@ -1,31 +1,27 @@
 package com.intrence.cdg.net;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.util.concurrent.RateLimiter;
+import com.intrence.cdg.exception.CdgBackendException;
 import com.intrence.config.collection.ConfigMap;
 import com.intrence.cdg.util.Constants;
 import oauth.signpost.OAuthConsumer;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
-import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.protocol.HttpClientContext;
-import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
+import java.net.URL;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.concurrent.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  *
@@ -36,40 +32,48 @@ public class ParserWebFetcher {
     public static final Integer CONNECTION_TIMEOUT = 10;
     public static final Integer SOCKET_TIMEOUT = 10;
     private static final Logger LOGGER = Logger.getLogger(ParserWebFetcher.class);
-    private static final ObjectMapper MAPPER = new ObjectMapper();
     private Map<String, OAuthConsumer> oauthConsumerMap = new HashMap<>();
-    private Map<String, RateLimiter> rateLimiterMap = new ConcurrentHashMap<>();
+    private Map<String, AdaptiveRateLimiter> rateLimiterMap = new ConcurrentHashMap<>();
+    private Map<String, CircuitBreaker> circuitBreakerMap = new ConcurrentHashMap<>();
+    private Map<String, Bulkhead> bulkheadMap = new ConcurrentHashMap<>();
     private Map<String, Integer> connectionTimeoutMap = new ConcurrentHashMap<>();
     private Map<String, Integer> socketTimeoutMap = new ConcurrentHashMap<>();
     private static ParserWebFetcher subDealWebFetcher;
 
     private ConfigMap configMap;
-    private String pxProxyJson;
+    private volatile RequestTemplates requestTemplates;
     private ConfigMap sourcesConfigMap;
     protected CloseableHttpClient httpClient;
-    private List<String> proxies;
-
-    private ParserWebFetcher(Map<String, OAuthConsumer> oauthConsumerMap, Map<String, RateLimiter> rateLimiterMap,
-                             Map<String, Integer> connectionTimeoutMap, Map<String, Integer> socketTimeoutMap, List<String> proxies,
-                             String pxProxyJson, CloseableHttpClient httpClient, ConfigMap sourcesConfigMap, ConfigMap configMap) {
-        this.proxies = proxies;
+    private FetchExecutor fetchExecutor;
+    private ResponseBodyReader responseBodyReader;
+
+    private ParserWebFetcher(Map<String, OAuthConsumer> oauthConsumerMap, Map<String, AdaptiveRateLimiter> rateLimiterMap,
+                             Map<String, CircuitBreaker> circuitBreakerMap, Map<String, Bulkhead> bulkheadMap,
+                             Map<String, Integer> connectionTimeoutMap, Map<String, Integer> socketTimeoutMap,
+                             RequestTemplates requestTemplates, CloseableHttpClient httpClient, FetchExecutor fetchExecutor,
+                             ConfigMap sourcesConfigMap, ConfigMap configMap) {
         this.oauthConsumerMap = oauthConsumerMap;
         this.rateLimiterMap = rateLimiterMap;
-        this.pxProxyJson = pxProxyJson;
+        this.circuitBreakerMap = circuitBreakerMap;
+        this.bulkheadMap = bulkheadMap;
+        this.requestTemplates = requestTemplates;
         this.connectionTimeoutMap = connectionTimeoutMap;
         this.socketTimeoutMap = socketTimeoutMap;
         this.sourcesConfigMap = sourcesConfigMap;
         this.configMap = configMap;
         this.httpClient = httpClient;
+        this.fetchExecutor = fetchExecutor;
+        this.responseBodyReader = new ResponseBodyReader(configMap);
     }
 
     public synchronized static ParserWebFetcher getInstance(Map<String, OAuthConsumer> oauthConsumerMap,
-            Map<String, RateLimiter> rateLimiterMap, Map<String, Integer> connectionTimeoutMap,
-            Map<String, Integer> socketTimeoutMap, List<String> proxies, String pxProxyJson,
-            CloseableHttpClient httpClient, ConfigMap sourcesConfigMap, ConfigMap configMap) {
+            Map<String, AdaptiveRateLimiter> rateLimiterMap, Map<String, CircuitBreaker> circuitBreakerMap,
+            Map<String, Bulkhead> bulkheadMap, Map<String, Integer> connectionTimeoutMap,
+            Map<String, Integer> socketTimeoutMap, RequestTemplates requestTemplates,
+            CloseableHttpClient httpClient, FetchExecutor fetchExecutor, ConfigMap sourcesConfigMap, ConfigMap configMap) {
         if (subDealWebFetcher == null) {
-            subDealWebFetcher = new ParserWebFetcher(oauthConsumerMap, rateLimiterMap, connectionTimeoutMap,
-                    socketTimeoutMap, proxies, pxProxyJson, httpClient, sourcesConfigMap, configMap);
+            subDealWebFetcher = new ParserWebFetcher(oauthConsumerMap, rateLimiterMap, circuitBreakerMap, bulkheadMap,
+                    connectionTimeoutMap, socketTimeoutMap, requestTemplates, httpClient, fetchExecutor, sourcesConfigMap, configMap);
         }
         return subDealWebFetcher;
     }
@@ -78,15 +82,25 @@ public class ParserWebFetcher {
         return subDealWebFetcher;
     }
 
+    /**
+     * Swaps in the templates rebuilt after a sources config update
+     */
+    public void setRequestTemplates(RequestTemplates requestTemplates) {
+        this.requestTemplates = requestTemplates;
+    }
+
     public String getResponse(String source, String subDealUrl) throws Exception {
 
+        String host = new URL(subDealUrl).getHost().toLowerCase();
+        CircuitBreaker circuitBreaker = circuitBreakerMap.get(source);
+        circuitBreaker.checkAllowed(host);
         HttpClientContext context;
         // set proxy if required
         if (checkProxyRequired(source)) {
             context = getContextWithProxy(subDealUrl, source);
         } else {
             context = HttpClientContext.create();
-            context.setRequestConfig(getCustomRequestConfigBuilder(source).build());
+            context.setRequestConfig(requestTemplates.requestConfig(source));
         }
 
         HttpGet httpGet = new HttpGet(subDealUrl);
@@ -99,17 +113,29 @@ public class ParserWebFetcher {
         }
 
         // rate limit
-        rateLimiterMap.get(source).acquire();
+        AdaptiveRateLimiter rateLimiter = rateLimiterMap.get(source);
+        rateLimiter.acquire(host);
+        int timeoutSeconds = socketTimeoutMap.get(source) + connectionTimeoutMap.get(source) + 1;
+        Bulkhead bulkhead = bulkheadMap.get(source);
+        bulkhead.enter(TimeUnit.SECONDS.toMillis(timeoutSeconds));
 
         LOGGER.info(String.format("sending request to url=%s", subDealUrl));
         // wait for response to finish fetching or expire
 
-        ExecutorService executorService = Executors.newSingleThreadExecutor();
         try {
-            Future<String> future = executorService.submit(new FetchPageContentWorker(httpGet, context));
-            return future.get(socketTimeoutMap.get(source) + connectionTimeoutMap.get(source) + 1, TimeUnit.SECONDS);
+            return fetchExecutor.execute(new FetchPageContentWorker(httpGet, context, rateLimiter, circuitBreaker,
+                    host), httpGet, timeoutSeconds);
+        } catch (TimeoutException e) {
+            rateLimiter.onTimeout(host);
+            circuitBreaker.onFailure(host);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                circuitBreaker.onFailure(host);
+            }
+            throw e;
         } finally {
-            executorService.shutdownNow();
+            bulkhead.exit();
         }
     }
 
@@ -132,63 +158,28 @@ public class ParserWebFetcher {
         return sourcesConfigMap.getMap(source).getBoolean(Constants.IS_PROXY_REQUIRED, false);
     }
 
-    private RequestConfig.Builder getCustomRequestConfigBuilder(String source) {
-        return RequestConfig.custom().setConnectTimeout(connectionTimeoutMap.get(source) * 1000)
-                .setSocketTimeout(socketTimeoutMap.get(source) * 1000).setRedirectsEnabled(false)
-                .setRelativeRedirectsAllowed(false)
-                .setConnectionRequestTimeout(connectionTimeoutMap.get(source) * 1000);
-    }
-
     protected HttpClientContext getContextWithProxy(String urlStr, String source) throws Exception {
-
-        String proxyResponse = pxProxyJson; // going to pxproxy server by default
-        if (!configMap.getBoolean("use_proxy_service", false) || urlStr.contains("https://")) {
-            proxyResponse = getLocalProxyInfo(urlStr);
-        }
-
-        JsonNode proxyJson = MAPPER.readTree(proxyResponse);
-
-        CredentialsProvider credsProvider = new BasicCredentialsProvider();
-        credsProvider.setCredentials(new AuthScope(proxyJson.get("proxy").asText(), proxyJson.get("port").asInt()),
-                new UsernamePasswordCredentials(proxyJson.get("user").asText(), proxyJson.get("pw").asText()));
-
-        HttpClientContext localContext = HttpClientContext.create();
-        localContext.setCredentialsProvider(credsProvider);
-        HttpHost proxy = new HttpHost(proxyJson.get("proxy").asText(), proxyJson.get("port").asInt());
-        LOGGER.info(String.format("Event=ProxyStats proxy=%s, port=%d for url=%s", proxyJson.get("proxy").asText(),
-                proxyJson.get("port").asInt(), urlStr));
-
-        RequestConfig config = getCustomRequestConfigBuilder(source).setProxy(proxy).build();
-        localContext.setRequestConfig(config);
+        HttpClientContext localContext = requestTemplates.contextWithProxy(source, urlStr);
+        HttpHost proxy = localContext.getRequestConfig().getProxy();
+        LOGGER.info(String.format("Event=ProxyStats proxy=%s, port=%d for url=%s", proxy.getHostName(),
+                proxy.getPort(), urlStr));
         return localContext;
     }
 
-    protected String getLocalProxyInfo(String url) throws Exception {
-        // Currently url would not be used
-        String proxy = proxies.get(ThreadLocalRandom.current().nextInt(0, proxies.size()));
-        if (!StringUtils.isBlank(proxy)) {
-            String[] proxyData = proxy.split(":");
-            if (proxyData.length == 4) {
-                Map<String, String> proxyMap = new HashMap<>();
-                proxyMap.put("proxy", proxyData[0]);
-                proxyMap.put("port", proxyData[1]);
-                proxyMap.put("user", proxyData[2]);
-                proxyMap.put("pw", proxyData[3]);
-
-                return MAPPER.writeValueAsString(proxyMap);
-            }
-        }
-
-        throw new Exception("No proxy available");
-    }
-
     public final class FetchPageContentWorker implements Callable<String> {
         HttpGet httpGet;
         HttpClientContext context;
+        AdaptiveRateLimiter rateLimiter;
+        CircuitBreaker circuitBreaker;
+        String host;
 
-        public FetchPageContentWorker(HttpGet httpGet, HttpClientContext context) {
+        public FetchPageContentWorker(HttpGet httpGet, HttpClientContext context, AdaptiveRateLimiter rateLimiter,
+                                      CircuitBreaker circuitBreaker, String host) {
             this.httpGet = httpGet;
             this.context = context;
+            this.rateLimiter = rateLimiter;
+            this.circuitBreaker = circuitBreaker;
+            this.host = host;
         }
 
         @Override
@@ -196,19 +187,40 @@ public class ParserWebFetcher {
             // Send http GET request through proxy without following redirects
             CloseableHttpResponse response = null;
             HttpEntity entity = null;
+            ProxyPool proxyPool = requestTemplates.getProxyPool();
+            long start = System.currentTimeMillis();
             try {
-                response = httpClient.execute(httpGet, context);
+                try {
+                    response = httpClient.execute(httpGet, context);
+                } catch (Exception e) {
+                    proxyPool.record(context, false, System.currentTimeMillis() - start);
+                    throw e;
+                }
 
                 if (response.getStatusLine() == null) {
+                    proxyPool.record(context, false, System.currentTimeMillis() - start);
                     throw new IOException("response.getStatusLine() is null");
                 }
 
                 int status = response.getStatusLine().getStatusCode();
+                proxyPool.record(context, !ProxyPool.isProxyFailure(status), System.currentTimeMillis() - start);
+                rateLimiter.onResponse(host, status, System.currentTimeMillis() - start);
+                if (status >= 500) {
+                    circuitBreaker.onFailure(host);
+                } else {
+                    circuitBreaker.onSuccess(host);
+                }
                 String responseContent = null;
 
                 entity = response.getEntity();
                 if (entity != null) {
-                    responseContent = EntityUtils.toString(entity);
+                    try {
+                        responseContent = responseBodyReader.read(entity);
+                    } catch (CdgBackendException e) {
+                        // body over the size cap, closing the response drops the connection instead of reading the rest
+                        response.close();
+                        throw e;
+                    }
                 }
 
                 return responseContent;
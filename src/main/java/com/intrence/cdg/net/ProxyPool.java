@@ -0,0 +1,297 @@
+package com.intrence.cdg.net;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.intrence.cdg.exception.CdgBackendException;
+import com.intrence.config.collection.ConfigMap;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.log4j.Logger;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Proxies of the proxies resource along with their health.
+ *
+ * Every request through a proxy reports its outcome and latency, kept per proxy as exponentially weighted averages.
+ * Proxies are picked at random weighted by health: success rate times latencyMillis / (latencyMillis + latency).
+ * After ejectFailures consecutive failures a proxy is ejected for ejectMillis, doubled on every ejection in a row up to
+ * MAX_EJECT_MILLIS. Once that time is over it gets a single probe request, which either reinstates it or ejects it
+ * again. When every proxy is ejected the one closest to its probe is used rather than failing the fetch.
+ *
+ * With sticky sessions the proxy picked for a host is reused for that host as long as it is not ejected, for sources
+ * whose cookies or rate limits are bound to the client ip.
+ */
+public class ProxyPool {
+
+    private static final Logger LOGGER = Logger.getLogger(ProxyPool.class);
+
+    private static final double EWMA_ALPHA = 0.1;
+    private static final double MIN_WEIGHT = 0.01;
+    private static final long MAX_EJECT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final int MAX_STICKY_HOSTS = 10000;
+    // proxy auth, proxy gateway errors and the target rate limiting the proxy ip
+    private static final Set<Integer> PROXY_FAILURE_STATUS_CODES = ImmutableSet.of(407, 429, 502, 503, 504);
+
+    private final List<Proxy> proxies;
+    private final Map<HttpHost, Proxy> proxiesByHost = new HashMap<>();
+    private final int ejectFailures;
+    private final long ejectMillis;
+    private final double latencyMillis;
+    // host -> proxy, null without sticky sessions
+    private final Cache<String, Proxy> stickyProxies;
+
+    public ProxyPool(List<String> proxyLines, ConfigMap configMap) {
+        this(proxyLines, configMap.getInteger("proxy_eject_failures", 5),
+                configMap.getInteger("proxy_eject_millis", 30000),
+                configMap.getInteger("proxy_health_latency_millis", 1000),
+                configMap.getBoolean("proxy_sticky_sessions", false));
+    }
+
+    /**
+     * @param proxyLines host:port:user:password per line
+     * @param ejectFailures consecutive failures ejecting a proxy
+     * @param ejectMillis time a proxy stays ejected the first time
+     * @param latencyMillis latency halving the weight of a proxy
+     * @param stickySessions reuse the proxy of a host
+     */
+    public ProxyPool(List<String> proxyLines, int ejectFailures, long ejectMillis, int latencyMillis,
+                     boolean stickySessions) {
+        List<Proxy> parsed = new ArrayList<>(proxyLines.size());
+        for (String line : proxyLines) {
+            if (StringUtils.isBlank(line)) {
+                continue;
+            }
+            String[] proxyData = line.trim().split(":");
+            if (proxyData.length != 4) {
+                LOGGER.warn(String.format("Event=InvalidProxy line=%s, expected host:port:user:password", line));
+                continue;
+            }
+            int port;
+            try {
+                port = Integer.parseInt(proxyData[1]);
+            } catch (NumberFormatException e) {
+                LOGGER.warn(String.format("Event=InvalidProxy line=%s, expected host:port:user:password", line));
+                continue;
+            }
+            Proxy proxy = new Proxy(parsed.size(), proxyData[0], port, proxyData[2], proxyData[3]);
+            parsed.add(proxy);
+            proxiesByHost.put(proxy.host, proxy);
+        }
+        this.proxies = Collections.unmodifiableList(parsed);
+        this.ejectFailures = ejectFailures;
+        this.ejectMillis = ejectMillis;
+        this.latencyMillis = latencyMillis;
+        this.stickyProxies = stickySessions
+                ? CacheBuilder.newBuilder().maximumSize(MAX_STICKY_HOSTS).expireAfterAccess(10, TimeUnit.MINUTES)
+                        .<String, Proxy>build()
+                : null;
+    }
+
+    public List<Proxy> getProxies() {
+        return proxies;
+    }
+
+    public boolean isEmpty() {
+        return proxies.isEmpty();
+    }
+
+    /**
+     * @param url requested url, the sticky session key is its host
+     * @return proxy for the request
+     */
+    public Proxy select(String url) throws CdgBackendException {
+        if (proxies.isEmpty()) {
+            throw new CdgBackendException("No proxy available");
+        }
+        long now = System.currentTimeMillis();
+        String host = stickyProxies != null ? host(url) : null;
+        if (host != null) {
+            Proxy sticky = stickyProxies.getIfPresent(host);
+            if (sticky != null && !sticky.isEjected()) {
+                return sticky;
+            }
+        }
+        Proxy proxy = selectWeighted(now);
+        if (host != null && !proxy.isEjected()) {
+            stickyProxies.put(host, proxy);
+        }
+        return proxy;
+    }
+
+    private Proxy selectWeighted(long now) {
+        double[] weights = new double[proxies.size()];
+        double totalWeight = 0;
+        Proxy nextProbe = null;
+        for (Proxy proxy : proxies) {
+            if (proxy.isEjected()) {
+                if (proxy.ejectedUntil <= now && startProbe(proxy, now)) {
+                    return proxy;
+                }
+                if (nextProbe == null || proxy.ejectedUntil < nextProbe.ejectedUntil) {
+                    nextProbe = proxy;
+                }
+                continue;
+            }
+            weights[proxy.index] = proxy.weight(latencyMillis);
+            totalWeight += weights[proxy.index];
+        }
+        if (totalWeight == 0) {
+            return nextProbe;
+        }
+
+        double target = ThreadLocalRandom.current().nextDouble(totalWeight);
+        for (int i = 0; i < weights.length; i++) {
+            target -= weights[i];
+            if (weights[i] > 0 && target < 0) {
+                return proxies.get(i);
+            }
+        }
+        // rounding, the last healthy proxy
+        for (int i = weights.length - 1; ; i--) {
+            if (weights[i] > 0) {
+                return proxies.get(i);
+            }
+        }
+    }
+
+    // a single request probes an ejected proxy once its ejection is over, a probe that never reports back (e.g. the
+    // request failed before reaching the proxy) is retried after another ejectMillis
+    private boolean startProbe(Proxy proxy, long now) {
+        synchronized (proxy) {
+            if (proxy.ejectedUntil == 0 || proxy.ejectedUntil > now) {
+                return false;
+            }
+            proxy.ejectedUntil = now + ejectMillis;
+            proxy.probing = true;
+            return true;
+        }
+    }
+
+    /**
+     * Reports the outcome of a request executed with the given context, no-op when it did not go through a proxy of
+     * the pool.
+     */
+    public void record(HttpClientContext context, boolean success, long latencyMillis) {
+        if (context == null || context.getRequestConfig() == null || context.getRequestConfig().getProxy() == null) {
+            return;
+        }
+        Proxy proxy = proxiesByHost.get(context.getRequestConfig().getProxy());
+        if (proxy != null) {
+            record(proxy, success, latencyMillis);
+        }
+    }
+
+    void record(Proxy proxy, boolean success, long latencyMillis) {
+        synchronized (proxy) {
+            proxy.successRate += EWMA_ALPHA * ((success ? 1 : 0) - proxy.successRate);
+            proxy.latency = proxy.latency < 0 ? latencyMillis : proxy.latency + EWMA_ALPHA * (latencyMillis - proxy.latency);
+            boolean probe = proxy.probing;
+            proxy.probing = false;
+            if (success) {
+                proxy.consecutiveFailures = 0;
+                if (proxy.isEjected()) {
+                    proxy.ejections = 0;
+                    proxy.ejectedUntil = 0;
+                    // a fresh start, the failures that ejected it would keep its weight low for a while
+                    proxy.successRate = Math.max(proxy.successRate, 0.5);
+                    LOGGER.info(String.format("Event=ProxyReinstated proxy=%s", proxy.host));
+                }
+            } else {
+                proxy.consecutiveFailures++;
+                if (probe || (!proxy.isEjected() && proxy.consecutiveFailures >= ejectFailures)) {
+                    long ejection = Math.min(MAX_EJECT_MILLIS, ejectMillis << Math.min(proxy.ejections, 20));
+                    proxy.ejections++;
+                    proxy.ejectedUntil = System.currentTimeMillis() + ejection;
+                    LOGGER.warn(String.format("Event=ProxyEjected proxy=%s consecutiveFailures=%d ejectMillis=%d",
+                            proxy.host, proxy.consecutiveFailures, ejection));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether a response status tells that the proxy, rather than the requested site, failed or got blocked
+     */
+    public static boolean isProxyFailure(int status) {
+        return PROXY_FAILURE_STATUS_CODES.contains(status);
+    }
+
+    public int ejectedCount() {
+        int ejected = 0;
+        for (Proxy proxy : proxies) {
+            if (proxy.isEjected()) {
+                ejected++;
+            }
+        }
+        return ejected;
+    }
+
+    public void logStats() {
+        LOGGER.info(String.format("Event=ProxyPoolStats proxies=%d ejected=%d", proxies.size(), ejectedCount()));
+    }
+
+    private static String host(String url) {
+        try {
+            return URI.create(url).getHost();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public static final class Proxy {
+        private final int index;
+        private final HttpHost host;
+        private final CredentialsProvider credentials;
+        // guarded by this
+        private boolean probing;
+        private double successRate = 1;
+        private double latency = -1;
+        private int consecutiveFailures;
+        private int ejections;
+        // 0 when not ejected, written under this
+        private volatile long ejectedUntil;
+
+        private Proxy(int index, String host, int port, String user, String password) {
+            this.index = index;
+            this.host = new HttpHost(host, port);
+            this.credentials = new BasicCredentialsProvider();
+            this.credentials.setCredentials(new AuthScope(host, port), new UsernamePasswordCredentials(user, password));
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public HttpHost getHost() {
+            return host;
+        }
+
+        public CredentialsProvider getCredentials() {
+            return credentials;
+        }
+
+        public boolean isEjected() {
+            return ejectedUntil != 0;
+        }
+
+        synchronized double weight(double latencyMillis) {
+            double latencyFactor = latency < 0 ? 1 : latencyMillis / (latencyMillis + latency);
+            return Math.max(MIN_WEIGHT, successRate * latencyFactor);
+        }
+    }
+}
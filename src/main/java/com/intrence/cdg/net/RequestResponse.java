@@ -10,6 +10,8 @@ import java.util.Map;
 public class RequestResponse {
     private FetchRequest request;
     private String response;
+    // pooled body the response is built from on first use, until released
+    private ResponseBody body;
     private int statusCode;
     private String redirectedUrl;
     private StreamProvider streamProvider;
@@ -32,6 +34,13 @@ public class RequestResponse {
         this.redirectedUrl = redirectUrl;
     }
 
+    RequestResponse(FetchRequest request, ResponseBody body, int statusCode, String redirectUrl) {
+        this.request = request;
+        this.body = body;
+        this.statusCode = statusCode;
+        this.redirectedUrl = redirectUrl;
+    }
+
     public RequestResponse(final FetchRequest fetchReq, final String response, final int statusCode, final Header[] responseHeaders) {
         this(fetchReq,response,statusCode);
         for (Header header : responseHeaders) {
@@ -44,10 +53,33 @@ public class RequestResponse {
         return request;
     }
 
+    /**
+     * @return body of the response, null when none or when the pooled body was released before it was ever built
+     */
     public String getResponse() {
+        if (response == null && body != null) {
+            response = body.toString();
+        }
         return response;
     }
 
+    /**
+     * @return body of the response without building its String, valid until releaseBody
+     */
+    public CharSequence getResponseContent() {
+        return body != null ? body : response;
+    }
+
+    /**
+     * Hands the buffers of the pooled body back for the next responses, once no stage uses it anymore.
+     */
+    public void releaseBody() {
+        if (body != null) {
+            body.release();
+            body = null;
+        }
+    }
+
     public StreamProvider getStreamProvider() {
         return streamProvider;
     }
@@ -64,6 +96,10 @@ public class RequestResponse {
         return headerMap;
     }
 
+    void addHeader(String name, String value) {
+        headerMap.put(name, value);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -72,7 +108,7 @@ public class RequestResponse {
         RequestResponse that = (RequestResponse) o;
 
         if (request != null ? !request.equals(that.request) : that.request != null) return false;
-        if (response != null ? !response.equals(that.response) : that.response != null) return false;
+        if (getResponse() != null ? !getResponse().equals(that.getResponse()) : that.getResponse() != null) return false;
         if (streamProvider != null ? !streamProvider.equals(that.streamProvider) : that.streamProvider != null) return false;
         if (statusCode != that.statusCode) return false;
         if (redirectedUrl != null ? !redirectedUrl.equals(that.redirectedUrl) : that.redirectedUrl != null) return false;
@@ -83,7 +119,7 @@ public class RequestResponse {
     @Override
     public int hashCode() {
         int result = request != null ? request.hashCode() : 0;
-        result = 31 * result + (response != null ? response.hashCode() : 0);
+        result = 31 * result + (getResponse() != null ? getResponse().hashCode() : 0);
         result = 31 * result + (streamProvider != null ? streamProvider.hashCode() : 0);
         result = 31 * result + statusCode;
         result = 31 * result + (redirectedUrl != null ? redirectedUrl.hashCode() : 0);
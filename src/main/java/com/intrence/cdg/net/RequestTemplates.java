@@ -0,0 +1,196 @@
+package com.intrence.cdg.net;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.intrence.cdg.exception.CdgBackendException;
+import com.intrence.cdg.util.Constants;
+import com.intrence.config.collection.ConfigMap;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.log4j.Logger;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Request setup of every source, built once from the sources config and the proxy pool: the RequestConfig of the
+ * source alone and through each proxy, along with the source credentials.
+ *
+ * Instances are immutable and shared by all fetch threads, WebFetcher swaps in a new one when the sources config is
+ * updated. Preparing a request then only takes a new HttpClientContext, which holds per exchange state and cannot be
+ * shared, and points it to prebuilt objects.
+ */
+public class RequestTemplates {
+
+    private static final Logger LOGGER = Logger.getLogger(RequestTemplates.class);
+    private static final int MAX_HOSTS = 10000;
+
+    private final Map<String, SourceTemplate> sources;
+    private final ProxyPool proxyPool;
+    // pxproxy server, null when not configured
+    private final HttpHost pxProxy;
+    private final CredentialsProvider pxProxyCredentials;
+    private final boolean useProxyService;
+
+    /**
+     * @param sourcesConfigMap source configs, for the basic auth credentials
+     * @param connectionTimeouts connection timeout in seconds per source
+     * @param socketTimeouts socket timeout in seconds per source
+     * @param proxyPool proxies used when the pxproxy server is not
+     * @param configMap app config, for the pxproxy server
+     */
+    public RequestTemplates(ConfigMap sourcesConfigMap, Map<String, Integer> connectionTimeouts,
+                            Map<String, Integer> socketTimeouts, ProxyPool proxyPool, ConfigMap configMap) {
+        this.proxyPool = proxyPool;
+        this.useProxyService = configMap.getBoolean("use_proxy_service", false);
+        String pxProxyHost = configMap.getString("pxproxy_host", null);
+        Integer pxProxyPort = configMap.getInteger("pxproxy_port", null);
+        if (pxProxyHost != null && pxProxyPort != null) {
+            this.pxProxy = new HttpHost(pxProxyHost, pxProxyPort);
+            this.pxProxyCredentials = new BasicCredentialsProvider();
+            this.pxProxyCredentials.setCredentials(new AuthScope(pxProxyHost, pxProxyPort),
+                    new UsernamePasswordCredentials(configMap.getString("pxproxy_user", null),
+                            configMap.getString("pxproxy_pw", null)));
+        } else {
+            this.pxProxy = null;
+            this.pxProxyCredentials = null;
+        }
+
+        Map<String, SourceTemplate> sourceTemplates = new HashMap<>();
+        for (String source : sourcesConfigMap.keySet()) {
+            sourceTemplates.put(source, new SourceTemplate(sourcesConfigMap.getMap(source),
+                    connectionTimeouts.get(source), socketTimeouts.get(source), proxyPool.getProxies(), pxProxy));
+        }
+        this.sources = Collections.unmodifiableMap(sourceTemplates);
+    }
+
+    /**
+     * Context of a direct request, with the basic auth credentials of the source if any, scoped to the host of the url
+     */
+    public HttpClientContext contextWithoutProxy(String source, String url) throws CdgBackendException {
+        SourceTemplate template = source(source);
+        HttpClientContext context = HttpClientContext.create();
+        context.setRequestConfig(template.requestConfig);
+        CredentialsProvider credentials = template.credentials(url);
+        if (credentials != null) {
+            context.setCredentialsProvider(credentials);
+        }
+        return context;
+    }
+
+    /**
+     * Context of a request through the pxproxy server when use_proxy_service is set, https urls excepted, or else
+     * through a proxy of the pool
+     */
+    public HttpClientContext contextWithProxy(String source, String url) throws CdgBackendException {
+        SourceTemplate template = source(source);
+        HttpClientContext context = HttpClientContext.create();
+        if (useProxyService && pxProxy != null && !url.contains("https://")) {
+            context.setRequestConfig(template.pxProxyRequestConfig);
+            context.setCredentialsProvider(pxProxyCredentials);
+        } else {
+            ProxyPool.Proxy proxy = proxyPool.select(url);
+            context.setRequestConfig(template.proxyRequestConfigs.get(proxy.getIndex()));
+            context.setCredentialsProvider(proxy.getCredentials());
+        }
+        return context;
+    }
+
+    public ProxyPool getProxyPool() {
+        return proxyPool;
+    }
+
+    /**
+     * RequestConfig of a direct request
+     */
+    public RequestConfig requestConfig(String source) throws CdgBackendException {
+        return source(source).requestConfig;
+    }
+
+    private SourceTemplate source(String source) throws CdgBackendException {
+        SourceTemplate template = sources.get(source);
+        if (template == null) {
+            throw new CdgBackendException(String.format("No request template for source=%s", source));
+        }
+        return template;
+    }
+
+    private static RequestConfig.Builder requestConfigBuilder(int connectionTimeout, int socketTimeout) {
+        return RequestConfig.custom()
+                .setConnectTimeout(connectionTimeout * 1000)
+                .setSocketTimeout(socketTimeout * 1000)
+                .setRedirectsEnabled(false)
+                .setRelativeRedirectsAllowed(false)
+                .setConnectionRequestTimeout(connectionTimeout * 1000);
+    }
+
+    private static final class SourceTemplate {
+        private final RequestConfig requestConfig;
+        // by proxy index of the pool
+        private final List<RequestConfig> proxyRequestConfigs;
+        private final RequestConfig pxProxyRequestConfig;
+        // basic auth of the source, null without, only ever offered to the host of the request
+        private final Credentials credentials;
+        // providers scoped to one host:port, built once per host
+        private final Cache<String, CredentialsProvider> hostCredentials = CacheBuilder.newBuilder()
+                .maximumSize(MAX_HOSTS).build();
+
+        private SourceTemplate(ConfigMap sourceMap, Integer connectionTimeout, Integer socketTimeout,
+                               List<ProxyPool.Proxy> proxies, HttpHost pxProxy) {
+            int connectTimeout = connectionTimeout != null ? connectionTimeout : WebFetcher.CONNECTION_TIMEOUT;
+            int readTimeout = socketTimeout != null ? socketTimeout : WebFetcher.SOCKET_TIMEOUT;
+            this.requestConfig = requestConfigBuilder(connectTimeout, readTimeout).build();
+
+            List<RequestConfig> configs = new ArrayList<>(proxies.size());
+            for (ProxyPool.Proxy proxy : proxies) {
+                configs.add(requestConfigBuilder(connectTimeout, readTimeout).setProxy(proxy.getHost()).build());
+            }
+            this.proxyRequestConfigs = Collections.unmodifiableList(configs);
+            this.pxProxyRequestConfig = pxProxy != null
+                    ? requestConfigBuilder(connectTimeout, readTimeout).setProxy(pxProxy).build() : null;
+
+            ConfigMap authMap = sourceMap.getMap(Constants.AUTH_KEY, null);
+            if (authMap != null && authMap.containsKey(Constants.USERNAME) && authMap.containsKey(Constants.PASSWORD)) {
+                this.credentials = new UsernamePasswordCredentials(authMap.get(Constants.USERNAME).toString(),
+                        authMap.get(Constants.PASSWORD).toString());
+            } else {
+                this.credentials = null;
+            }
+        }
+
+        private CredentialsProvider credentials(String urlStr) {
+            if (credentials == null) {
+                return null;
+            }
+            URL url;
+            try {
+                url = new URL(urlStr);
+            } catch (MalformedURLException e) {
+                LOGGER.error(String.format("Event=setUsernamePassword - Invalid url=%s, no credentials sent",
+                        urlStr), e);
+                return null;
+            }
+            try {
+                return hostCredentials.get(url.getHost() + ":" + url.getPort(), () -> {
+                    CredentialsProvider provider = new BasicCredentialsProvider();
+                    provider.setCredentials(new AuthScope(url.getHost(), url.getPort()), credentials);
+                    return provider;
+                });
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
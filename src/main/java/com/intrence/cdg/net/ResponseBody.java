@@ -0,0 +1,137 @@
+package com.intrence.cdg.net;
+
+import java.io.ByteArrayInputStream;
+import java.io.CharArrayReader;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Response body held in pooled buffers: the decoded content bytes, and the text decoded from them on first use as a
+ * CharSequence or Reader. Regex matching, hashing and parsing can then run over the buffers, the String of the body is
+ * only built when toString is called, and once.
+ *
+ * Once done with the body, release hands its buffers back to the pool and the views must no longer be used, the String
+ * stays valid. A body that is never released is garbage collected as usual. Like the rest of the request state, a body
+ * is used by a single thread at a time.
+ */
+public class ResponseBody implements CharSequence {
+
+    private final BufferPool pool;
+    private byte[] bytes;
+    private final int offset;
+    private final int end;
+    private final Charset charset;
+    private char[] chars;
+    private int charLength = -1;
+    private String string;
+
+    /**
+     * @param bytes buffer acquired from the pool, owned by the body from now on
+     * @param offset start of the text, after a byte order mark
+     * @param end end of the body in the buffer
+     */
+    ResponseBody(BufferPool pool, byte[] bytes, int offset, int end, Charset charset) {
+        this.pool = pool;
+        this.bytes = bytes;
+        this.offset = offset;
+        this.end = end;
+        this.charset = charset;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return size of the text in bytes, in its charset
+     */
+    public int byteLength() {
+        return end - offset;
+    }
+
+    /**
+     * @return stream of the bytes of the text, in its charset
+     */
+    public InputStream newInputStream() {
+        checkNotReleased();
+        return new ByteArrayInputStream(bytes, offset, end - offset);
+    }
+
+    public Reader newReader() {
+        decodeChars();
+        return new CharArrayReader(chars, 0, charLength);
+    }
+
+    @Override
+    public int length() {
+        decodeChars();
+        return charLength;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException(String.format("index=%d length=%d", index, charLength));
+        }
+        return chars[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException(String.format("start=%d end=%d length=%d", start, end, charLength));
+        }
+        // a copy, a view would outlive the buffers
+        return new String(chars, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        if (string == null) {
+            checkNotReleased();
+            string = chars != null ? new String(chars, 0, charLength)
+                    : new String(bytes, offset, end - offset, charset);
+        }
+        return string;
+    }
+
+    public void release() {
+        if (bytes != null) {
+            pool.release(bytes);
+            bytes = null;
+        }
+        if (chars != null) {
+            pool.release(chars);
+            chars = null;
+        }
+    }
+
+    // malformed input is replaced, as new String(bytes, charset) does
+    private void decodeChars() {
+        if (chars != null) {
+            return;
+        }
+        checkNotReleased();
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        int maxChars = (int) Math.ceil((end - offset) * (double) decoder.maxCharsPerByte()) + 1;
+        char[] buffer = pool.acquireChars(maxChars);
+        CharBuffer out = CharBuffer.wrap(buffer);
+        decoder.decode(ByteBuffer.wrap(bytes, offset, end - offset), out, true);
+        decoder.flush(out);
+        chars = buffer;
+        charLength = out.position();
+    }
+
+    private void checkNotReleased() {
+        if (bytes == null) {
+            throw new IllegalStateException("Response body already released");
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.intrence.cdg.net;
+
+import com.intrence.cdg.exception.CdgBackendException;
+import com.intrence.cdg.util.Constants;
+import com.intrence.config.collection.ConfigMap;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.ParseException;
+import org.apache.http.client.entity.DecompressingEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads a response body, in place of EntityUtils.toString.
+ *
+ * The body is decoded per its Content-Encoding (gzip, deflate) unless the blocking client already did. It is read up to
+ * maxBodyBytes decoded bytes, larger bodies fail the fetch rather than the heap, and decompression bombs are caught the
+ * same way. The charset is taken from a byte order mark, else from the Content-Type header, else from a meta tag in the
+ * head of the page, else defaultCharset.
+ *
+ * Bodies are read into buffers of a BufferPool, sized from the Content-Length when there is one, rather than through a
+ * growing ByteArrayOutputStream copied out into a byte array and then into a String.
+ */
+public class ResponseBodyReader {
+
+    public static final String DEFLATE = "deflate";
+    public static final int DEFAULT_MAX_BODY_BYTES = 10 * 1024 * 1024;
+    public static final long DEFAULT_BUFFER_POOL_BYTES = 64L * 1024 * 1024;
+
+    // meta tags are expected in the head of the page
+    private static final int META_SNIFF_BYTES = 4096;
+    private static final Pattern META_CHARSET = Pattern.compile(
+            "<meta[^>]+charset\\s*=\\s*[\"']?\\s*([a-zA-Z0-9_:.+-]+)", Pattern.CASE_INSENSITIVE);
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final byte[] UTF16BE_BOM = {(byte) 0xFE, (byte) 0xFF};
+    private static final byte[] UTF16LE_BOM = {(byte) 0xFF, (byte) 0xFE};
+
+    private final int maxBodyBytes;
+    private final Charset defaultCharset;
+    private final BufferPool bufferPool;
+
+    public ResponseBodyReader(ConfigMap configMap) {
+        this(configMap.getInteger("max_response_body_bytes", DEFAULT_MAX_BODY_BYTES),
+                Charset.forName(configMap.getString("default_response_charset", StandardCharsets.UTF_8.name())),
+                new BufferPool(Long.parseLong(configMap.getString("response_buffer_pool_bytes",
+                        String.valueOf(DEFAULT_BUFFER_POOL_BYTES)))));
+    }
+
+    public ResponseBodyReader(int maxBodyBytes, Charset defaultCharset) {
+        this(maxBodyBytes, defaultCharset, new BufferPool(DEFAULT_BUFFER_POOL_BYTES));
+    }
+
+    public ResponseBodyReader(int maxBodyBytes, Charset defaultCharset, BufferPool bufferPool) {
+        this.maxBodyBytes = maxBodyBytes;
+        this.defaultCharset = defaultCharset;
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * @return body of the entity, null without entity
+     * @throws CdgBackendException when the body is larger than maxBodyBytes
+     */
+    public String read(HttpEntity entity) throws IOException, CdgBackendException {
+        ResponseBody body = readBody(entity);
+        if (body == null) {
+            return null;
+        }
+        try {
+            return body.toString();
+        } finally {
+            body.release();
+        }
+    }
+
+    /**
+     * @return body of the entity in pooled buffers, to be released by the caller, null without entity
+     * @throws CdgBackendException when the body is larger than maxBodyBytes
+     */
+    public ResponseBody readBody(HttpEntity entity) throws IOException, CdgBackendException {
+        if (entity == null) {
+            return null;
+        }
+        // the declared length is the encoded one, compressed bodies are checked as they are read
+        long contentLength = entity.getContentLength();
+        if (contentLength > maxBodyBytes) {
+            throw new CdgBackendException(String.format("Event=ResponseTooLarge contentLength=%d maxBodyBytes=%d",
+                    contentLength, maxBodyBytes));
+        }
+        InputStream content = entity.getContent();
+        if (content == null) {
+            return null;
+        }
+        Header encoding = encoding(entity);
+        // room for the whole body and the end of stream read when the length is known and the body not compressed
+        int initialSize = contentLength >= 0 && encoding == null ? (int) contentLength + 1 : BufferPool.MIN_BUFFER_SIZE;
+        byte[] buffer = bufferPool.acquireBytes(initialSize);
+        try (InputStream in = decode(content, encoding != null ? encoding.getValue() : null)) {
+            int length = 0;
+            int read;
+            while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+                if (length > maxBodyBytes) {
+                    throw new CdgBackendException(String.format("Event=ResponseTooLarge maxBodyBytes=%d",
+                            maxBodyBytes));
+                }
+                if (length == buffer.length) {
+                    buffer = grow(buffer, length);
+                }
+            }
+            ResponseBody body = toBody(buffer, length, headerCharset(entity));
+            buffer = null;
+            return body;
+        } finally {
+            if (buffer != null) {
+                bufferPool.release(buffer);
+            }
+        }
+    }
+
+    private byte[] grow(byte[] buffer, int length) {
+        byte[] larger = bufferPool.acquireBytes(buffer.length * 2);
+        System.arraycopy(buffer, 0, larger, 0, length);
+        bufferPool.release(buffer);
+        return larger;
+    }
+
+    private static Charset headerCharset(HttpEntity entity) {
+        try {
+            ContentType contentType = ContentType.get(entity);
+            return contentType != null ? contentType.getCharset() : null;
+        } catch (ParseException | IllegalCharsetNameException | UnsupportedCharsetException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Wraps the stream per the content encoding
+     * @param encoding Content-Encoding value, null for none
+     */
+    public static InputStream decode(InputStream in, String encoding) throws IOException {
+        if (encoding == null) {
+            return in;
+        }
+        switch (encoding.trim().toLowerCase(Locale.ROOT)) {
+            case Constants.GZIP:
+            case "x-gzip":
+                return new GZIPInputStream(in);
+            case DEFLATE:
+                InputStream buffered = in.markSupported() ? in : new BufferedInputStream(in);
+                return new InflaterInputStream(buffered, new Inflater(isRawDeflate(buffered)));
+            default:
+                return in;
+        }
+    }
+
+    // the blocking client decodes gzip and deflate itself, the async client does not
+    private static Header encoding(HttpEntity entity) {
+        return entity instanceof DecompressingEntity ? null : entity.getContentEncoding();
+    }
+
+    // "deflate" is meant to be zlib wrapped, some servers send raw deflate data, told apart by the zlib header
+    private static boolean isRawDeflate(InputStream in) throws IOException {
+        in.mark(2);
+        int cmf = in.read();
+        int flg = in.read();
+        in.reset();
+        return cmf < 0 || flg < 0 || (cmf & 0x0F) != 8 || ((cmf << 8) | flg) % 31 != 0;
+    }
+
+    // a byte order mark wins over the header, as browsers do
+    private ResponseBody toBody(byte[] body, int length, Charset headerCharset) {
+        if (startsWith(body, length, UTF8_BOM)) {
+            return new ResponseBody(bufferPool, body, UTF8_BOM.length, length, StandardCharsets.UTF_8);
+        } else if (startsWith(body, length, UTF16BE_BOM)) {
+            return new ResponseBody(bufferPool, body, UTF16BE_BOM.length, length, StandardCharsets.UTF_16BE);
+        } else if (startsWith(body, length, UTF16LE_BOM)) {
+            return new ResponseBody(bufferPool, body, UTF16LE_BOM.length, length, StandardCharsets.UTF_16LE);
+        }
+        Charset charset = headerCharset != null ? headerCharset : sniffMetaCharset(body, length);
+        return new ResponseBody(bufferPool, body, 0, length, charset != null ? charset : defaultCharset);
+    }
+
+    private static Charset sniffMetaCharset(byte[] body, int length) {
+        String head = new String(body, 0, Math.min(length, META_SNIFF_BYTES), StandardCharsets.ISO_8859_1);
+        Matcher matcher = META_CHARSET.matcher(head);
+        if (!matcher.find()) {
+            return null;
+        }
+        try {
+            return Charset.forName(matcher.group(1));
+        } catch (IllegalCharsetNameException | UnsupportedCharsetException e) {
+            return null;
+        }
+    }
+
+    private static boolean startsWith(byte[] body, int length, byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (body[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
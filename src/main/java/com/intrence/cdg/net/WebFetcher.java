@@ -1,13 +1,12 @@
 package com.intrence.cdg.net;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.util.concurrent.RateLimiter;
 import com.intrence.config.collection.ConfigMap;
 import com.intrence.config.configloader.ConfigMapUpdateHandler;
 import com.intrence.cdg.bootstrap.SourcesConfigUpdateHandler;
 import com.intrence.cdg.exception.CdgBackendException;
+import com.intrence.cdg.exception.FetchRejectedException;
 import com.intrence.cdg.net.header.HeaderCreator;
 import com.intrence.cdg.net.header.HeaderFactory;
 import com.intrence.cdg.net.signature.SignCreator;
@@ -23,32 +22,32 @@ import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpHost;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.Credentials;
-import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.*;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
-import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.URL;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -65,22 +64,41 @@ public class WebFetcher implements ConfigMapUpdateHandler {
     private static final Integer DEFAULT_MAX_CONNECTIONS= 700;
     //we may not make more than fixed number of proxy ips for a route
     private static final Integer DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 550;
+    private static final String FETCH_THREADS_CONFIG = "fetch_threads";
+    private static final String FETCH_QUEUE_SIZE_CONFIG = "fetch_queue_size";
+    private static final String ASYNC_FETCH_CONFIG = "async_fetch_enabled";
+    private static final String ASYNC_FETCH_IO_THREADS_CONFIG = "async_fetch_io_threads";
+    private static final String ASYNC_FETCH_RESPONSE_THREADS_CONFIG = "async_fetch_response_threads";
+    private static final long ASYNC_BULKHEAD_RETRY_MILLIS = 50;
+    private static final String SOURCE_MAX_CONCURRENT_FETCHES_CONFIG = "source_max_concurrent_fetches";
+    //a quarter of the default fetch threads, leaves room for three other sources at full concurrency
+    private static final Integer DEFAULT_SOURCE_MAX_CONCURRENT_FETCHES = 50;
     private static final Set<String> HTTP_METHODS_WITH_BODY = ImmutableSet.of(HttpPost.METHOD_NAME, HttpPut.METHOD_NAME);
+    private static final List<String> VALIDATOR_HEADERS = ImmutableList.of(HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED);
     private static final Logger LOGGER = Logger.getLogger(WebFetcher.class);
-    private static final ObjectMapper MAPPER = new ObjectMapper();
     private Map<String, OAuthConsumer> oauthConsumerMap = new HashMap<>();
-    private Map<String, RateLimiter> rateLimiterMap = new ConcurrentHashMap<>();
+    private Map<String, AdaptiveRateLimiter> rateLimiterMap = new ConcurrentHashMap<>();
+    private Map<String, CircuitBreaker> circuitBreakerMap = new ConcurrentHashMap<>();
+    private Map<String, Bulkhead> bulkheadMap = new ConcurrentHashMap<>();
+    private ResponseBodyReader responseBodyReader;
     private Map<String, Integer> connectionTimeoutMap = new ConcurrentHashMap<>();
     private Map<String, Integer> socketTimeoutMap = new ConcurrentHashMap<>();
 
     private ConfigMap configMap;
-    private String pxProxyJson;
     private ConfigMap sourcesConfigMap;
+    private volatile RequestTemplates requestTemplates;
     private PoolingHttpClientConnectionManager connectionManager;
     protected CloseableHttpClient httpClient;
+    protected CloseableHttpAsyncClient asyncHttpClient;
+    // sends deferred by the rate limiter or the bulkhead, and the overall timeouts of async fetches
+    private ScheduledExecutorService asyncFetchScheduler;
+    // reads the async responses, off the io threads
+    private ExecutorService asyncResponseExecutor;
     private ScheduledExecutorService httpConnectionMonitoringScheduler;
     private HttpUtils.IdleConnectionMonitorThread connectionMonitorThread;
+    private FetchExecutor fetchExecutor;
     private List<String> proxies;
+    private ProxyPool proxyPool;
     private ParserWebFetcher parserWebFetcher;
 
     @Autowired
@@ -92,20 +110,35 @@ public class WebFetcher implements ConfigMapUpdateHandler {
     @PostConstruct
     public void initWebFetcher() throws IOException{
         this.proxies = loadProxies();
+        this.proxyPool = new ProxyPool(proxies, configMap);
+        this.responseBodyReader = new ResponseBodyReader(configMap);
         this.oauthConsumerMap = initOauthConsumers();
         this.rateLimiterMap = initRateLimiters();
-        this.pxProxyJson = getProxyInfoFromServer();
+        initCircuitBreakers();
         initTimeouts();
+        this.requestTemplates = new RequestTemplates(sourcesConfigMap, connectionTimeoutMap, socketTimeoutMap,
+                proxyPool, configMap);
         this.initHttpClient();
+        this.initFetchExecutor();
+        if (configMap.getBoolean(ASYNC_FETCH_CONFIG, false)) {
+            this.initAsyncHttpClient();
+        }
         SourcesConfigUpdateHandler.registerConfigUpdateListener(this);
-        parserWebFetcher = ParserWebFetcher.getInstance(oauthConsumerMap, rateLimiterMap, connectionTimeoutMap,
-                socketTimeoutMap, proxies, pxProxyJson, httpClient, sourcesConfigMap, configMap);
+        parserWebFetcher = ParserWebFetcher.getInstance(oauthConsumerMap, rateLimiterMap, circuitBreakerMap,
+                bulkheadMap, connectionTimeoutMap, socketTimeoutMap, requestTemplates, httpClient, fetchExecutor,
+                sourcesConfigMap, configMap);
     }
 
     @PreDestroy
     public void shutDown() throws IOException {
         connectionMonitorThread.shutdown();
+        fetchExecutor.shutdown();
         httpClient.close();
+        if (asyncHttpClient != null) {
+            asyncHttpClient.close();
+            asyncFetchScheduler.shutdownNow();
+            asyncResponseExecutor.shutdownNow();
+        }
         connectionManager.close();
         httpConnectionMonitoringScheduler.shutdown();
     }
@@ -127,7 +160,48 @@ public class WebFetcher implements ConfigMapUpdateHandler {
         connectionMonitorThread = new HttpUtils.IdleConnectionMonitorThread(connectionManager);
         httpConnectionMonitoringScheduler.scheduleAtFixedRate(connectionMonitorThread, 10, 60,
                 TimeUnit.SECONDS);
+        httpConnectionMonitoringScheduler.scheduleAtFixedRate(proxyPool::logStats, 10, 60, TimeUnit.SECONDS);
+        httpConnectionMonitoringScheduler.scheduleAtFixedRate(this::logSourceStats, 10, 60, TimeUnit.SECONDS);
+
+    }
 
+    /**
+     * Creates the fetch pool shared by page, stream and parser sub-fetches, its stats are logged along with the
+     * http connection pool stats.
+     */
+    protected void initFetchExecutor() {
+        fetchExecutor = new FetchExecutor(configMap.getInteger(FETCH_THREADS_CONFIG, FetchExecutor.DEFAULT_THREADS),
+                configMap.getInteger(FETCH_QUEUE_SIZE_CONFIG, FetchExecutor.DEFAULT_QUEUE_SIZE));
+        httpConnectionMonitoringScheduler.scheduleAtFixedRate(fetchExecutor::logStats, 10, 60, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates the non-blocking http client backing getResponseAsync. A handful of io threads multiplex all in-flight
+     * requests, so concurrency is bounded by the connection limits instead of the number of worker threads.
+     */
+    protected void initAsyncHttpClient() {
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(configMap.getInteger(ASYNC_FETCH_IO_THREADS_CONFIG,
+                        Runtime.getRuntime().availableProcessors()))
+                .build();
+        asyncHttpClient = HttpAsyncClients.custom()
+                .setUserAgent(USER_AGENT)
+                .setSSLContext(HttpUtils.getSslContext())
+                .setMaxConnTotal(DEFAULT_MAX_CONNECTIONS)
+                .setMaxConnPerRoute(DEFAULT_MAX_CONNECTIONS_PER_ROUTE)
+                .setDefaultIOReactorConfig(ioReactorConfig)
+                .setDefaultRequestConfig(getDefaultRequestConfigBuilder().build())
+                // the blocking client negotiates compression itself, responses are decoded by the ResponseBodyReader
+                .addInterceptorLast(new RequestAcceptEncoding())
+                .build();
+        asyncHttpClient.start();
+        asyncFetchScheduler = Executors.newSingleThreadScheduledExecutor();
+        asyncResponseExecutor = Executors.newFixedThreadPool(configMap.getInteger(ASYNC_FETCH_RESPONSE_THREADS_CONFIG,
+                Runtime.getRuntime().availableProcessors()));
+    }
+
+    public FetchExecutor getFetchExecutor() {
+        return fetchExecutor;
     }
 
     protected Map<String, OAuthConsumer> initOauthConsumers() {
@@ -150,17 +224,43 @@ public class WebFetcher implements ConfigMapUpdateHandler {
         return map;
     }
 
-    protected Map<String, RateLimiter> initRateLimiters() {
-        Map<String, RateLimiter> rateLimiterMap = new HashMap<>();
+    // sources added by a config update get their limiter later on, hence a concurrent map
+    protected Map<String, AdaptiveRateLimiter> initRateLimiters() {
+        Map<String, AdaptiveRateLimiter> rateLimiterMap = new ConcurrentHashMap<>();
         for (String source: sourcesConfigMap.keySet()) {
             Integer reqsPerSec = sourcesConfigMap.getMap(source).getInteger(RATE_LIMIT_CONFIG, 1);
-            rateLimiterMap.put(source, RateLimiter.create(reqsPerSec));
+            rateLimiterMap.put(source, new AdaptiveRateLimiter(source, reqsPerSec, configMap));
         }
         return rateLimiterMap;
     }
 
+    /**
+     * This method called once during WebFetcher initialization to create the circuit breaker and the bulkhead of every
+     * source, their stats are logged along with the http connection pool stats.
+     */
+    private void initCircuitBreakers() {
+        for (String source : sourcesConfigMap.keySet()) {
+            circuitBreakerMap.put(source, new CircuitBreaker(source, configMap));
+            bulkheadMap.put(source, new Bulkhead(source, getMaxConcurrentFetches(sourcesConfigMap.getMap(source))));
+        }
+    }
+
+    private void logSourceStats() {
+        for (CircuitBreaker circuitBreaker : circuitBreakerMap.values()) {
+            circuitBreaker.logStats();
+        }
+        for (Bulkhead bulkhead : bulkheadMap.values()) {
+            bulkhead.logStats();
+        }
+    }
+
+    private int getMaxConcurrentFetches(ConfigMap sourceMap) {
+        return sourceMap.getInteger(Constants.MAX_CONCURRENT_FETCHES,
+                configMap.getInteger(SOURCE_MAX_CONCURRENT_FETCHES_CONFIG, DEFAULT_SOURCE_MAX_CONCURRENT_FETCHES));
+    }
+
     protected Double getRateLimit(String source) {
-        RateLimiter rateLimiter = this.rateLimiterMap.get(source);
+        AdaptiveRateLimiter rateLimiter = this.rateLimiterMap.get(source);
         if (rateLimiter != null) {
             return rateLimiter.getRate();
         } else {
@@ -193,7 +293,7 @@ public class WebFetcher implements ConfigMapUpdateHandler {
      * @throws Exception
      */
     public RequestResponse getStreamResponse(String source, FetchRequest fetchReq) throws Exception{
-        return fetchContent(source, fetchReq, true);
+        return fetchContent(source, fetchReq, true, null);
     }
 
     /**
@@ -203,19 +303,238 @@ public class WebFetcher implements ConfigMapUpdateHandler {
      * @throws Exception
      */
     public RequestResponse getResponse(String source, FetchRequest fetchReq) throws Exception {
-        return fetchContent(source, fetchReq, false);
+        return fetchContent(source, fetchReq, false, null);
     }
 
-    private RequestResponse fetchContent(String source, FetchRequest fetchReq, boolean isStreamResponse) throws Exception {
+    /**
+     * Conditional variant of getResponse, a page unchanged since the validator was taken comes back as a 304 without
+     * body.
+     *
+     * @param source unique id of the row
+     * @param fetchReq unique id of the row
+     * @param validator validators of the previous fetch of the page, null for an unconditional fetch
+     * @return RequestResponse for given fetchRequest, with the ETag and Last-Modified response headers
+     * @throws Exception
+     */
+    public RequestResponse getResponse(String source, FetchRequest fetchReq, PageValidator validator) throws Exception {
+        return fetchContent(source, fetchReq, false, validator);
+    }
+
+    /**
+     * Non-blocking variant of getResponse, the request is executed on the async http client and the returned future is
+     * completed from a response worker thread. Proxy, signing, headers, oauth and rate limiting are applied exactly as
+     * in the blocking path. Stream responses are not supported in this mode.
+     *
+     * The calling thread never waits: while the rate limiter or the bulkhead of the source has no permit, the send is
+     * deferred on a scheduler. The bulkhead is waited for at most the fetch timeout, as in the blocking path.
+     *
+     * @param source unique id of the row
+     * @param fetchReq unique id of the row
+     * @return future completed with the RequestResponse for given fetchRequest
+     */
+    public CompletableFuture<RequestResponse> getResponseAsync(String source, FetchRequest fetchReq) {
+        return getResponseAsync(source, fetchReq, null);
+    }
+
+    /**
+     * Conditional variant of getResponseAsync.
+     *
+     * @param source unique id of the row
+     * @param fetchReq unique id of the row
+     * @param validator validators of the previous fetch of the page, null for an unconditional fetch
+     * @return future completed with the RequestResponse for given fetchRequest, with the ETag and Last-Modified
+     *         response headers
+     */
+    public CompletableFuture<RequestResponse> getResponseAsync(String source, FetchRequest fetchReq,
+                                                               PageValidator validator) {
+        CompletableFuture<RequestResponse> result = new CompletableFuture<>();
+        if (asyncHttpClient == null) {
+            result.completeExceptionally(new IllegalStateException(
+                    String.format("Async fetch is not enabled, set %s=true", ASYNC_FETCH_CONFIG)));
+            return result;
+        }
 
         HttpClientContext context;
+        HttpUriRequest httpUriRequest;
+        try {
+            circuitBreakerMap.get(source).checkAllowed(fetchReq.getHost());
+            context = getContext(source, fetchReq);
+            httpUriRequest = prepareRequest(source, fetchReq, context, validator);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        long bulkheadDeadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(getFetchTimeout(source));
+        sendAsyncWhenPermitted(source, fetchReq, context, httpUriRequest, result, bulkheadDeadline);
+        return result;
+    }
+
+    // true when async_fetch_enabled started the async http client
+    public boolean isAsyncFetchEnabled() {
+        return asyncHttpClient != null;
+    }
+
+    // a slot of the bulkhead first, it is handed back if the rate limiter has no permit, so that no permit is wasted
+    private void sendAsyncWhenPermitted(String source, FetchRequest fetchReq, HttpClientContext context,
+                                        HttpUriRequest httpUriRequest, CompletableFuture<RequestResponse> result,
+                                        long bulkheadDeadline) {
+        if (result.isDone()) {
+            return;
+        }
+        long retryMillis;
+        Bulkhead bulkhead = bulkheadMap.get(source);
+        if (!bulkhead.tryEnter()) {
+            if (System.currentTimeMillis() >= bulkheadDeadline) {
+                result.completeExceptionally(new FetchRejectedException(String.format(
+                        "Event=BulkheadFull source=%s limit=%d", source, bulkhead.getLimit()), 0));
+                return;
+            }
+            retryMillis = ASYNC_BULKHEAD_RETRY_MILLIS;
+        } else {
+            retryMillis = rateLimiterMap.get(source).tryAcquire(fetchReq.getHost());
+            if (retryMillis == 0) {
+                sendAsync(source, fetchReq, context, httpUriRequest, result, bulkhead);
+                return;
+            }
+            bulkhead.exit();
+        }
+        try {
+            asyncFetchScheduler.schedule(() -> sendAsyncWhenPermitted(source, fetchReq, context, httpUriRequest,
+                    result, bulkheadDeadline), retryMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+    }
+
+    // holds a slot of the bulkhead, released once the future completes
+    private void sendAsync(String source, FetchRequest fetchReq, HttpClientContext context,
+                           HttpUriRequest httpUriRequest, CompletableFuture<RequestResponse> result, Bulkhead bulkhead) {
+        String host = fetchReq.getHost();
+        LOGGER.info(String.format("sending async request to url=%s", fetchReq.getWorkRequest()));
+
+        long start = System.currentTimeMillis();
+        Future<HttpResponse> httpFuture = asyncHttpClient.execute(httpUriRequest, context,
+                new FutureCallback<HttpResponse>() {
+                    @Override
+                    public void completed(HttpResponse response) {
+                        if (response.getStatusLine() != null) {
+                            proxyPool.record(context,
+                                    !ProxyPool.isProxyFailure(response.getStatusLine().getStatusCode()),
+                                    System.currentTimeMillis() - start);
+                        }
+                        // decoding and charset detection of the body are kept off the io threads
+                        try {
+                            asyncResponseExecutor.execute(() -> {
+                                try {
+                                    result.complete(toRequestResponse(fetchReq, response));
+                                } catch (Exception e) {
+                                    result.completeExceptionally(e);
+                                }
+                            });
+                        } catch (RejectedExecutionException e) {
+                            result.completeExceptionally(e);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Exception e) {
+                        proxyPool.record(context, false, System.currentTimeMillis() - start);
+                        result.completeExceptionally(e);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        result.cancel(false);
+                    }
+                });
+
+        // the async client only enforces connect and socket timeouts, bound the whole exchange like the blocking path
+        ScheduledFuture<?> timeout = asyncFetchScheduler.schedule(() -> {
+            if (result.completeExceptionally(new TimeoutException(String.format("Fetch timed out for url=%s",
+                    fetchReq.getWorkRequest())))) {
+                proxyPool.record(context, false, System.currentTimeMillis() - start);
+            }
+        }, getFetchTimeout(source), TimeUnit.SECONDS);
+        result.whenComplete((response, e) -> {
+            timeout.cancel(false);
+            bulkhead.exit();
+            if (e != null) {
+                httpFuture.cancel(true);
+                recordFailure(source, host, e);
+            } else if (response != null && response.getStatusCode() != null) {
+                recordResponse(source, host, response.getStatusCode(), System.currentTimeMillis() - start);
+            }
+        });
+    }
+
+    private RequestResponse fetchContent(String source, FetchRequest fetchReq, boolean isStreamResponse,
+                                         PageValidator validator) throws Exception {
+
+        String host = fetchReq.getHost();
+        // fail fast while the source or host is down
+        circuitBreakerMap.get(source).checkAllowed(host);
+        HttpClientContext context = getContext(source, fetchReq);
+        HttpUriRequest httpUriRequest = prepareRequest(source, fetchReq, context, validator);
+
+        //rate limit
+        rateLimiterMap.get(source).acquire(host);
+        Bulkhead bulkhead = bulkheadMap.get(source);
+        bulkhead.enter(TimeUnit.SECONDS.toMillis(getFetchTimeout(source)));
+        LOGGER.info(String.format("sending request to url=%s", fetchReq.getWorkRequest()));
+        // wait for response to finish fetching or expire
+        Callable<RequestResponse> worker = isStreamResponse ?
+                new FetchStreamContentWorker(source, httpUriRequest, fetchReq, context) :
+                new FetchPageContentWorker(httpUriRequest, fetchReq, context);
+        long start = System.currentTimeMillis();
+        RequestResponse response;
+        try {
+            response = fetchExecutor.execute(worker, httpUriRequest, getFetchTimeout(source));
+        } catch (Exception e) {
+            recordFailure(source, host, e);
+            throw e;
+        } finally {
+            bulkhead.exit();
+        }
+        if (response != null && response.getStatusCode() != null) {
+            recordResponse(source, host, response.getStatusCode(), System.currentTimeMillis() - start);
+        }
+        return response;
+    }
+
+    // feeds a response to the rate limiter and the circuit breaker of the source, 5xx count as failures of the source
+    private void recordResponse(String source, String host, int status, long responseMillis) {
+        rateLimiterMap.get(source).onResponse(host, status, responseMillis);
+        if (status >= 500) {
+            circuitBreakerMap.get(source).onFailure(host);
+        } else {
+            circuitBreakerMap.get(source).onSuccess(host);
+        }
+    }
+
+    // timeouts and io errors are failures of the source, other errors (e.g. a full fetch queue) say nothing about it
+    private void recordFailure(String source, String host, Throwable e) {
+        if (e instanceof ExecutionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        if (e instanceof TimeoutException) {
+            rateLimiterMap.get(source).onTimeout(host);
+            circuitBreakerMap.get(source).onFailure(host);
+        } else if (e instanceof IOException) {
+            circuitBreakerMap.get(source).onFailure(host);
+        }
+    }
+
+    private HttpClientContext getContext(String source, FetchRequest fetchReq) throws Exception {
         //set proxy if required
         if (checkProxyRequired(source)) {
-            context = getContextWithProxy(fetchReq.getWorkRequest(), source);
+            return getContextWithProxy(fetchReq.getWorkRequest(), source);
         } else {
-            context = getContextWithoutProxy(fetchReq.getWorkRequest(), source);
+            return getContextWithoutProxy(fetchReq.getWorkRequest(), source);
         }
+    }
 
+    private HttpUriRequest prepareRequest(String source, FetchRequest fetchReq, HttpClientContext context,
+                                          PageValidator validator) throws Exception {
         RequestBuilder requestBuilder;
         String signedURL = signRequest(source, fetchReq.getWorkRequest());
         switch (fetchReq.getMethodType()) {
@@ -231,6 +550,9 @@ public class WebFetcher implements ConfigMapUpdateHandler {
 
         buildRequest(source, requestBuilder, context);
         addDynamicHeaders(source, requestBuilder);
+        if (validator != null) {
+            validator.addConditionalHeaders(requestBuilder);
+        }
         if (HTTP_METHODS_WITH_BODY.contains(fetchReq.getMethodType())) {
             addBody(source, fetchReq, requestBuilder);
         }
@@ -240,21 +562,11 @@ public class WebFetcher implements ConfigMapUpdateHandler {
         if (checkOauthRequired(source)) {
             oauthConsumerMap.get(source).sign(httpUriRequest);
         }
+        return httpUriRequest;
+    }
 
-        //rate limit
-        rateLimiterMap.get(source).acquire();
-        LOGGER.info(String.format("sending request to url=%s", fetchReq.getWorkRequest()));
-        // wait for response to finish fetching or expire
-
-        ExecutorService executorService  = Executors.newSingleThreadExecutor();
-        try {
-            Future<RequestResponse> future = isStreamResponse ?
-                    executorService.submit(new FetchStreamContentWorker(source, httpUriRequest, fetchReq, context)) :
-                    executorService.submit(new FetchPageContentWorker(httpUriRequest, fetchReq, context));
-            return future.get(socketTimeoutMap.get(source) + connectionTimeoutMap.get(source) + 1, TimeUnit.SECONDS);
-        } finally {
-            executorService.shutdownNow();
-        }
+    private int getFetchTimeout(String source) {
+        return socketTimeoutMap.get(source) + connectionTimeoutMap.get(source) + 1;
     }
 
     protected void buildRequest(String source, RequestBuilder requestBuilder, HttpClientContext context) throws Exception{
@@ -317,102 +629,16 @@ public class WebFetcher implements ConfigMapUpdateHandler {
                 .setConnectionRequestTimeout(CONNECTION_TIMEOUT * 1000);
     }
 
-    private RequestConfig.Builder getCustomRequestConfigBuilder(String source){
-        return  RequestConfig.custom()
-                .setConnectTimeout(connectionTimeoutMap.get(source) * 1000)
-                .setSocketTimeout(socketTimeoutMap.get(source) * 1000)
-                .setRedirectsEnabled(false)
-                .setRelativeRedirectsAllowed(false)
-                .setConnectionRequestTimeout(connectionTimeoutMap.get(source) * 1000);
-    }
-
     protected HttpClientContext getContextWithProxy(String urlStr, String source) throws Exception {
-
-        String proxyResponse = pxProxyJson; //going to pxproxy server by default
-        if(!configMap.getBoolean("use_proxy_service", false) || urlStr.contains("https://")){
-            proxyResponse = getLocalProxyInfo(urlStr);
-        }
-
-        JsonNode proxyJson = MAPPER.readTree(proxyResponse);
-
-        CredentialsProvider credsProvider = new BasicCredentialsProvider();
-        credsProvider.setCredentials(new AuthScope(proxyJson.get("proxy").asText(), proxyJson.get("port").asInt()),
-                new UsernamePasswordCredentials(proxyJson.get("user").asText(), proxyJson.get("pw").asText()));
-
-        HttpClientContext localContext = HttpClientContext.create();
-
-        localContext.setCredentialsProvider(credsProvider);
-        HttpHost proxy = new HttpHost(proxyJson.get("proxy").asText(), proxyJson.get("port").asInt());
-        LOGGER.info(String.format("Event=ProxyStats proxy=%s, port=%d for url=%s", proxyJson.get("proxy").asText(),
-                proxyJson.get("port").asInt(),urlStr));
-
-        RequestConfig config = getCustomRequestConfigBuilder(source)
-                .setProxy(proxy)
-                .build();
-        localContext.setRequestConfig(config);
+        HttpClientContext localContext = requestTemplates.contextWithProxy(source, urlStr);
+        HttpHost proxy = localContext.getRequestConfig().getProxy();
+        LOGGER.info(String.format("Event=ProxyStats proxy=%s, port=%d for url=%s", proxy.getHostName(),
+                proxy.getPort(), urlStr));
         return localContext;
     }
 
     protected HttpClientContext getContextWithoutProxy(String urlStr, String source) throws Exception {
-        CredentialsProvider credsProvider = new BasicCredentialsProvider();
-        credsProvider = provideCredentials(credsProvider, urlStr, source);
-        HttpClientContext localContext = HttpClientContext.create();
-        localContext.setCredentialsProvider(credsProvider);
-
-        RequestConfig config = getCustomRequestConfigBuilder(source).build();
-        localContext.setRequestConfig(config);
-        return localContext;
-    }
-
-    CredentialsProvider provideCredentials(CredentialsProvider credentialsProvider, String urlStr, String source){
-        String username, password;
-        try {
-            if (sourcesConfigMap.getMap(source).containsKey(Constants.AUTH_KEY)) {
-                username = sourcesConfigMap.getMap(source).getMap(Constants.AUTH_KEY).get(Constants.USERNAME).toString();
-                password = sourcesConfigMap.getMap(source).getMap(Constants.AUTH_KEY).get(Constants.PASSWORD).toString();
-                Credentials credentials = new UsernamePasswordCredentials(username, password);
-                URL url = new URL(urlStr);
-                credentialsProvider.setCredentials(new AuthScope(url.getHost(), url.getPort()), credentials);
-            }
-        }
-        catch (Exception e){
-            LOGGER.error(String.format("Event=setUsernamePassword  -  Exception in getting auth info. for source =%s ",source), e);
-        }
-        return credentialsProvider;
-    }
-
-    protected String getLocalProxyInfo(String url) throws CdgBackendException {
-        //Currently url would not be used
-        String proxy =  proxies.get(ThreadLocalRandom.current().nextInt(0,proxies.size()));
-        if(!StringUtils.isBlank(proxy)){
-            String[] proxyData = proxy.split(":");
-            if(proxyData.length==4) {
-                JSONObject proxyJson = new JSONObject();
-                proxyJson.put("proxy", proxyData[0]);
-                proxyJson.put("port", proxyData[1]);
-                proxyJson.put("user", proxyData[2]);
-                proxyJson.put("pw", proxyData[3]);
-
-                return proxyJson.toString();
-            }
-        }
-
-        throw new CdgBackendException("No proxy available");
-    }
-
-    private String getProxyInfoFromServer() {
-
-        JSONObject proxyJson = new JSONObject();
-        try {
-            proxyJson.put("proxy", configMap.getString("pxproxy_host", null));
-            proxyJson.put("port", configMap.getInteger("pxproxy_port", null));
-            proxyJson.put("user", configMap.getString("pxproxy_user", null));
-            proxyJson.put("pw", configMap.getString("pxproxy_pw", null));
-        }
-        catch (Exception e){
-            LOGGER.error("Event=getProxyInfoFromServer  -  Exception in getting pxproxy info. " + e.getMessage());
-        }
-        return proxyJson.toString();
+        return requestTemplates.contextWithoutProxy(source, urlStr);
     }
 
     protected List<String> loadProxies() throws IOException{
@@ -459,7 +685,7 @@ public class WebFetcher implements ConfigMapUpdateHandler {
                 if (Constants.HTTP_REDIRECTION_STATUS_CODES.contains(status)) {
                     Header redirectedUrl = response.getFirstHeader("location");
                     entity = response.getEntity();
-                    requestResponse = new RequestResponse(fetchReq, EntityUtils.toString(entity), status, redirectedUrl.getValue());
+                    requestResponse = new RequestResponse(fetchReq, responseBodyReader.read(entity), status, redirectedUrl.getValue());
                     closeConnection(entity, response, httpUriRequest);
                 } else {
                     ConfigMap streamMap = sourcesConfigMap.getMap(source).getMap(Constants.STREAM);
@@ -508,25 +734,47 @@ public class WebFetcher implements ConfigMapUpdateHandler {
             HttpEntity entity = null;
             try {
                 response = executeHttp(httpUriRequest, context);
-                int status = response.getStatusLine().getStatusCode();
-                String responseContent = null;
                 entity = response.getEntity();
-                if (entity != null) {
-                    responseContent = EntityUtils.toString(entity);
-                }
-                if (Constants.HTTP_REDIRECTION_STATUS_CODES.contains(status)) {
-                    Header redirectedUrl = response.getFirstHeader("location");
-                    return new RequestResponse(fetchReq, responseContent, status, redirectedUrl.getValue());
-                } else {
-                    return new RequestResponse(fetchReq, responseContent, status);
-                }
+                return toRequestResponse(fetchReq, response);
             } finally {
                 closeConnection(entity, response, httpUriRequest);
             }
         }
     }
+
+    private RequestResponse toRequestResponse(FetchRequest fetchReq, HttpResponse response) throws IOException,
+            CdgBackendException {
+        if (response.getStatusLine() == null) {
+            throw new IOException("response.getStatusLine() is null");
+        }
+        int status = response.getStatusLine().getStatusCode();
+        ResponseBody body;
+        try {
+            body = responseBodyReader.readBody(response.getEntity());
+        } catch (CdgBackendException e) {
+            // body over the size cap, closing the response drops the connection instead of reading the rest of it
+            if (response instanceof Closeable) {
+                ((Closeable) response).close();
+            }
+            throw e;
+        }
+        String redirectedUrl = null;
+        if (Constants.HTTP_REDIRECTION_STATUS_CODES.contains(status)) {
+            redirectedUrl = response.getFirstHeader("location").getValue();
+        }
+        RequestResponse requestResponse = new RequestResponse(fetchReq, body, status, redirectedUrl);
+        // validators for the conditional refetch of the page
+        for (String validatorHeader : VALIDATOR_HEADERS) {
+            Header header = response.getFirstHeader(validatorHeader);
+            if (header != null) {
+                requestResponse.addHeader(validatorHeader, header.getValue());
+            }
+        }
+        return requestResponse;
+    }
     /**
-     * This method updates only rate limit, connection and socket timeout for every source.
+     * This method updates only rate limit, connection and socket timeout for every source, and rebuilds the request
+     * templates from them.
      *
      * @param updatedSourcesConfigMap updated source config pushed from config-central whenever there is any change in
      *            sources.config.yml file
@@ -537,13 +785,28 @@ public class WebFetcher implements ConfigMapUpdateHandler {
 
         LOGGER.debug("Updating rate limit and connection timeout config");
         for (String source : updatedSourcesConfigMap.keySet()) {
-            // update rate limiters
+            // update rate limiters, the configured rate is the ceiling of the adaptive rate
             Integer reqsPerSec = updatedSourcesConfigMap.getMap(source).getInteger(RATE_LIMIT_CONFIG, 1);
-            RateLimiter rateLimiter = this.rateLimiterMap.get(source);
+            AdaptiveRateLimiter rateLimiter = this.rateLimiterMap.get(source);
 
-            if (rateLimiter.getRate() != reqsPerSec) {
+            if (rateLimiter == null) {
+                // source added by the update
+                LOGGER.info(String.format("Rate limiter is created for source=%s rate=%s", source, reqsPerSec));
+                this.rateLimiterMap.put(source, new AdaptiveRateLimiter(source, reqsPerSec, configMap));
+            } else if (rateLimiter.getCeiling() != reqsPerSec.doubleValue()) {
                 LOGGER.info(String.format("Rate limited is updated for source=%s newRate=%s", source, reqsPerSec));
-                rateLimiter.setRate(reqsPerSec);
+                rateLimiter.setCeiling(reqsPerSec);
+            }
+
+            // update bulkheads, sources added by the update get their circuit breaker and bulkhead
+            this.circuitBreakerMap.computeIfAbsent(source, newSource -> new CircuitBreaker(newSource, configMap));
+            int maxConcurrentFetches = getMaxConcurrentFetches(updatedSourcesConfigMap.getMap(source));
+            Bulkhead bulkhead = this.bulkheadMap.computeIfAbsent(source,
+                    newSource -> new Bulkhead(newSource, maxConcurrentFetches));
+            if (bulkhead.getLimit() != maxConcurrentFetches) {
+                LOGGER.info(String.format("Max concurrent fetches is updated for source=%s limit=%d", source,
+                        maxConcurrentFetches));
+                bulkhead.setLimit(maxConcurrentFetches);
             }
 
             // update source specific connection timeout
@@ -560,13 +823,28 @@ public class WebFetcher implements ConfigMapUpdateHandler {
                 socketTimeoutMap.put(source, socketTimeout);
             }
         }
+
+        requestTemplates = new RequestTemplates(updatedSourcesConfigMap, connectionTimeoutMap, socketTimeoutMap,
+                proxyPool, configMap);
+        parserWebFetcher.setRequestTemplates(requestTemplates);
     }
 
+    // the outcome is reported to the proxy pool, requests aborted on timeout fail here too
     private CloseableHttpResponse executeHttp(HttpUriRequest httpUriRequest, HttpClientContext context) throws Exception {
-        CloseableHttpResponse response = httpClient.execute(httpUriRequest, context);
+        long start = System.currentTimeMillis();
+        CloseableHttpResponse response;
+        try {
+            response = httpClient.execute(httpUriRequest, context);
+        } catch (Exception e) {
+            proxyPool.record(context, false, System.currentTimeMillis() - start);
+            throw e;
+        }
         if(response.getStatusLine() == null) {
+            proxyPool.record(context, false, System.currentTimeMillis() - start);
             throw new IOException("response.getStatusLine() is null");
         }
+        proxyPool.record(context, !ProxyPool.isProxyFailure(response.getStatusLine().getStatusCode()),
+                System.currentTimeMillis() - start);
         return response;
     }
 
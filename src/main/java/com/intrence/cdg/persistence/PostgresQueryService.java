@@ -8,6 +8,7 @@ import com.google.common.collect.ImmutableList;
 
 import com.intrence.config.ConfigProvider;
 import com.intrence.config.collection.ConfigMap;
+import com.intrence.cdg.net.PageValidator;
 import com.intrence.cdg.task.RuleRecurrence;
 import com.intrence.cdg.task.TaskBatchRequest;
 import com.intrence.cdg.task.TaskRule;
@@ -942,6 +943,96 @@ public class PostgresQueryService {
         }
     }
 
+    /**
+     * @param ruleId id of the rule fetching the page
+     * @param fingerprint FetchRequest fingerprint of the page
+     * @return validators of the page from a previous fetch, null if none or on error, the page is then fetched in full
+     */
+    public PageValidator getPageValidator(int ruleId, String fingerprint) {
+        PreparedStatement st = null;
+        Connection db = null;
+        ResultSet resultSet = null;
+        try {
+            db = comboPooledDataSource.getConnection();
+            String query = String.format("SELECT %s, %s, %s FROM page_validators WHERE %s = ? AND %s = ?",
+                                         PageValidator.ETAG, PageValidator.LAST_MODIFIED, PageValidator.CONTENT_HASH,
+                                         PageValidator.TASK_RULE_ID, PageValidator.FINGERPRINT);
+            st = db.prepareStatement(query);
+            st.setInt(1, ruleId);
+            st.setString(2, fingerprint);
+            resultSet = st.executeQuery();
+            if (resultSet.next()) {
+                return new PageValidator(resultSet.getString(PageValidator.ETAG),
+                        resultSet.getString(PageValidator.LAST_MODIFIED), resultSet.getString(PageValidator.CONTENT_HASH));
+            }
+            return null;
+
+        } catch (Exception e) {
+            LOGGER.error(String.format("Exception=PostgresException error while reading page validator for " +
+                                       "ruleId=%d, fingerprint=%s, exception=%s", ruleId, fingerprint, e));
+            return null;
+        } finally {
+            closeResultStatementsConnections(resultSet, st, db);
+        }
+    }
+
+    /**
+     * Inserts or replaces the validators of a page for a rule
+     * @param ruleId id of the rule fetching the page
+     * @param fingerprint FetchRequest fingerprint of the page
+     */
+    public void savePageValidator(int ruleId, String fingerprint, String source, String url,
+                                  PageValidator validator) {
+        PreparedStatement st = null;
+        Connection db = null;
+        try {
+            db = comboPooledDataSource.getConnection();
+            Timestamp currentTs = new Timestamp(System.currentTimeMillis());
+
+            String update_query = String.format("UPDATE page_validators SET (%s, %s, %s, %s) = (?,?,?,?) "
+                                                + "WHERE %s = ? AND %s = ?", PageValidator.ETAG,
+                                                PageValidator.LAST_MODIFIED, PageValidator.CONTENT_HASH,
+                                                PageValidator.UPDATED_AT, PageValidator.TASK_RULE_ID,
+                                                PageValidator.FINGERPRINT);
+            st = db.prepareStatement(update_query);
+            //set
+            st.setString(1, validator.getEtag());
+            st.setString(2, validator.getLastModified());
+            st.setString(3, validator.getContentHash());
+            st.setTimestamp(4, currentTs);
+            //where
+            st.setInt(5, ruleId);
+            st.setString(6, fingerprint);
+            if (st.executeUpdate() > 0) {
+                return;
+            }
+            closeStatement(st);
+
+            String insert_query = String.format("INSERT INTO page_validators (%s, %s, %s, %s, %s, %s, %s, %s) "
+                                                + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)", PageValidator.TASK_RULE_ID,
+                                                PageValidator.FINGERPRINT, PageValidator.SOURCE, PageValidator.URL,
+                                                PageValidator.ETAG, PageValidator.LAST_MODIFIED,
+                                                PageValidator.CONTENT_HASH, PageValidator.UPDATED_AT);
+            st = db.prepareStatement(insert_query);
+            st.setInt(1, ruleId);
+            st.setString(2, fingerprint);
+            st.setString(3, source);
+            st.setString(4, url);
+            st.setString(5, validator.getEtag());
+            st.setString(6, validator.getLastModified());
+            st.setString(7, validator.getContentHash());
+            st.setTimestamp(8, currentTs);
+            st.executeUpdate();
+
+        } catch (Exception e) {
+            // e.g. a concurrent insert of the same page, the next run fetches it in full
+            LOGGER.error(String.format("Exception=PostgresException error while saving page validator for ruleId=%d, url=%s, exception=%s",
+                                       ruleId, url, e));
+        } finally {
+            closeResultStatementsConnections(null, st, db);
+        }
+    }
+
     public int getUrlsFetchedCount(int ruleId) {
         PreparedStatement st = null;
         Connection db = null;
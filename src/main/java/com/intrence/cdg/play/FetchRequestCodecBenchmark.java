@@ -0,0 +1,56 @@
+package com.intrence.cdg.play;
+
+import com.intrence.cdg.net.FetchRequest;
+import com.intrence.cdg.net.FetchRequestCodec;
+import org.apache.http.client.methods.HttpGet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the JSON and binary frontier payload encodings of FetchRequest: payload size, encode and decode time.
+ *
+ * usage: FetchRequestCodecBenchmark [numRequests] [rounds]
+ */
+public class FetchRequestCodecBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numRequests = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        List<FetchRequest> fetchReqs = new ArrayList<>(numRequests);
+        for (int i = 0; i < numRequests; i++) {
+            Map<String, String> params = new HashMap<>();
+            params.put("page_type", i % 10 == 0 ? "page" : "product");
+            fetchReqs.add(new FetchRequest(String.format("https://www.example.com/shop/category-%d/item-%d?color=%d",
+                    i % 50, i, i % 7), i % 10, HttpGet.METHOD_NAME, null, params));
+        }
+
+        for (String format : new String[] {FetchRequestCodec.JSON, FetchRequestCodec.BINARY}) {
+            FetchRequestCodec codec = new FetchRequestCodec(format);
+            byte[][] payloads = new byte[numRequests][];
+            for (int round = 1; round <= rounds; round++) {
+                long totalBytes = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < numRequests; i++) {
+                    payloads[i] = codec.encode(fetchReqs.get(i));
+                    totalBytes += payloads[i].length;
+                }
+                long encodeNanos = System.nanoTime() - start;
+
+                long checksum = 0;
+                start = System.nanoTime();
+                for (byte[] payload : payloads) {
+                    checksum += FetchRequestCodec.decode(payload).getPriority();
+                }
+                long decodeNanos = System.nanoTime() - start;
+
+                System.out.println(String.format("codec=%s round=%d avgBytes=%d encodeNsPerReq=%d " +
+                                "decodeNsPerReq=%d checksum=%d", format, round, totalBytes / numRequests,
+                        encodeNanos / numRequests, decodeNanos / numRequests, checksum));
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.intrence.cdg.play;
+
+import com.intrence.cdg.extractor.HtmlExtractor;
+import com.intrence.cdg.net.PageValidator;
+import com.intrence.cdg.net.ResponseBody;
+import com.intrence.cdg.net.ResponseBodyReader;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares reading response bodies into a fresh String per page, as EntityUtils.toString did, with reading them into
+ * pooled buffers: time, bytes allocated and garbage collections per page, over the steps every fetched page goes
+ * through (read, content hash, <br> spacing and link matching).
+ *
+ * usage: ResponseBodyBenchmark [numPages] [rounds] [pageKb]
+ */
+public class ResponseBodyBenchmark {
+
+    private static final Pattern LINK = Pattern.compile("href=\"([^\"]+)\"");
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int pageKb = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        byte[][] pages = {page("product", pageKb), page("listing", pageKb)};
+        ResponseBodyReader reader = new ResponseBodyReader(ResponseBodyReader.DEFAULT_MAX_BODY_BYTES,
+                StandardCharsets.UTF_8);
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (String mode : new String[] {"string", "pooled"}) {
+            for (int round = 1; round <= rounds; round++) {
+                long gcCount = gcCount();
+                long gcMillis = gcMillis();
+                long allocated = threadBean.getThreadAllocatedBytes(threadId);
+                long checksum = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < numPages; i++) {
+                    ByteArrayEntity entity = new ByteArrayEntity(pages[i % pages.length],
+                            ContentType.create("text/html", StandardCharsets.UTF_8));
+                    checksum += "string".equals(mode) ? processAsString(entity) : processPooled(reader, entity);
+                }
+                long nanos = System.nanoTime() - start;
+                allocated = threadBean.getThreadAllocatedBytes(threadId) - allocated;
+
+                System.out.println(String.format("mode=%s round=%d nsPerPage=%d allocatedBytesPerPage=%d " +
+                                "gcCount=%d gcMillis=%d checksum=%d", mode, round, nanos / numPages,
+                        allocated / numPages, gcCount() - gcCount, gcMillis() - gcMillis, checksum));
+            }
+        }
+    }
+
+    // the previous path: the body copied out of a growing stream into a byte array, then into a String
+    private static long processAsString(ByteArrayEntity entity) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        try (InputStream in = entity.getContent()) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        String content = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        long checksum = PageValidator.contentHash(content).length();
+        content = content.replaceAll("<br>", " <br>").replaceAll("<br/>", " <br/>");
+        return checksum + countLinks(content) + content.length();
+    }
+
+    private static long processPooled(ResponseBodyReader reader, ByteArrayEntity entity) throws Exception {
+        ResponseBody body = reader.readBody(entity);
+        try {
+            long checksum = PageValidator.contentHash(body).length();
+            String content = HtmlExtractor.spaceBrTags(body.toString());
+            return checksum + countLinks(content) + content.length();
+        } finally {
+            body.release();
+        }
+    }
+
+    private static int countLinks(CharSequence content) {
+        int links = 0;
+        Matcher matcher = LINK.matcher(content);
+        while (matcher.find()) {
+            links++;
+        }
+        return links;
+    }
+
+    // page of about pageKb KB with the markup of a product or a listing page
+    private static byte[] page(String pageType, int pageKb) {
+        StringBuilder html = new StringBuilder("<html><head><meta charset=\"utf-8\"><title>")
+                .append(pageType).append("</title></head><body>");
+        for (int i = 0; html.length() < pageKb * 1024; i++) {
+            if ("listing".equals(pageType)) {
+                html.append(String.format("<div class=\"item\"><a href=\"https://www.example.com/shop/item-%d\">" +
+                        "Item %d</a><br/><span class=\"price\">%d.99 €</span></div>\n", i, i, i % 500));
+            } else {
+                html.append(String.format("<p class=\"description\">Détails du produit %d, coton et lin.<br>" +
+                        "Lavable à 30°<br>Taille %d</p>\n", i, i % 12));
+            }
+        }
+        return html.append("</body></html>").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gcBean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gcBean.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -1,6 +1,7 @@
 package com.intrence.cdg.streamer.provider;
 
 import com.google.common.collect.ImmutableSet;
+import com.intrence.cdg.net.ResponseBodyReader;
 import com.intrence.cdg.util.Constants;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpEntity;
@@ -13,14 +14,13 @@ import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.GZIPInputStream;
 
 public class HTTPStreamProvider extends StreamProvider {
 
     private HttpUriRequest httpUriRequest;
     private CloseableHttpResponse response;
     private static final ImmutableSet<String> supportedCompressionTypes = new ImmutableSet.Builder<String>()
-            .add(Constants.GZIP).build();
+            .add(Constants.GZIP).add(ResponseBodyReader.DEFLATE).build();
     private HttpEntity entity;
     private static final Logger LOGGER = Logger.getLogger(HTTPStreamProvider.class);
 
@@ -57,14 +57,10 @@ public class HTTPStreamProvider extends StreamProvider {
     private static InputStream decompressInputStream(InputStream inputStream, String compresstionType) throws Exception{
         if(StringUtils.isNotBlank(compresstionType) && supportedCompressionTypes.contains(compresstionType)) {
             try {
-                switch (compresstionType.toLowerCase()) {
-                    case Constants.GZIP:
-                        inputStream = new GZIPInputStream(inputStream);
-                    default:
-                        break;
-                }
+                inputStream = ResponseBodyReader.decode(inputStream, compresstionType);
             } catch (IOException e) {
-                LOGGER.error("IOException while converting InputStream to GzipInputStream", e);
+                LOGGER.error(String.format("IOException while decompressing InputStream with compressionType=%s",
+                        compresstionType), e);
             }
         }
         else {
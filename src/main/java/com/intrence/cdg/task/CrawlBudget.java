@@ -0,0 +1,149 @@
+package com.intrence.cdg.task;
+
+import com.intrence.cdg.crawler.CrawlConfig;
+import com.intrence.cdg.crawler.CrawlablePage;
+import com.intrence.cdg.net.FetchRequest;
+import com.intrence.config.ConfigProvider;
+import com.intrence.config.collection.ConfigMap;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scheduling policies of a task run, applied to the requests on their way into and out of the frontier:
+ *
+ *  - max depth: links more than CrawlConfig max_depth hops away from their seed are not queued.
+ *  - priority aging: with frontier_priority_aging_millis set, the priority of a request is scaled by PRIORITY_SCALE
+ *    and lowered by one level for every agingMillis elapsed since the run started queueing. A request queued earlier
+ *    thus wins over the ones queued agingMillis later with a priority one higher, so that a long page to page
+ *    pagination chain does not keep the other page types waiting forever, nor the other way round. Each run of a
+ *    recurring rule starts aging over, the levels lost stay bounded by the length of one run.
+ *    Every distinct priority is a log of its own in DiskFetchReqFrontier, with a whole segment mapped for its writes,
+ *    so the aging is kept coarse: a level is split in PRIORITY_SCALE buckets of agingMillis / PRIORITY_SCALE, and a
+ *    run yields about PRIORITY_SCALE * run length / agingMillis priorities per level. agingMillis should thus be a
+ *    sizeable fraction of a run, minutes rather than seconds.
+ *  - page type quotas: a crawlable page with a quota is fetched at most quota * max_records times in the run, the rest
+ *    of the budget goes to the other page types, typically the ones yielding entities.
+ */
+public class CrawlBudget {
+
+    private static final ConfigMap CONFIG_MAP = ConfigProvider.getConfig();
+    static final int PRIORITY_SCALE = 4;
+
+    private final int maxDepth;
+    private final long agingMillis;
+    private final long agingEpoch;
+    private final Map<String, Integer> quotas;
+    private final Map<String, AtomicInteger> fetched = new ConcurrentHashMap<>();
+    private final AtomicLong tooDeep = new AtomicLong();
+    private final AtomicLong overQuota = new AtomicLong();
+
+    public CrawlBudget(TaskRule rule, CrawlConfig crawlConfig) {
+        this(crawlConfig != null ? crawlConfig.getMaxDepth() : 0,
+                quotas(crawlConfig, rule.getMaxRecords()),
+                CONFIG_MAP.getInteger("frontier_priority_aging_millis", 0),
+                System.currentTimeMillis());
+    }
+
+    public CrawlBudget(int maxDepth, Map<String, Integer> quotas, long agingMillis, long agingEpoch) {
+        this.maxDepth = maxDepth;
+        this.quotas = quotas;
+        this.agingMillis = agingMillis;
+        this.agingEpoch = agingEpoch;
+    }
+
+    private static Map<String, Integer> quotas(CrawlConfig crawlConfig, int maxRecords) {
+        Map<String, Integer> quotas = new HashMap<>();
+        if (crawlConfig != null && crawlConfig.getCrawlablePages() != null) {
+            for (CrawlablePage page : crawlConfig.getCrawlablePages().values()) {
+                if (page.getQuota() > 0) {
+                    quotas.put(page.getPageType(), (int) Math.ceil(page.getQuota() * maxRecords));
+                }
+            }
+        }
+        return quotas;
+    }
+
+    /**
+     * @return copies of the seed requests for the frontier, with their depth and aged priority set
+     */
+    public Set<FetchRequest> admitSeeds(Set<FetchRequest> seeds) {
+        long now = System.currentTimeMillis();
+        Set<FetchRequest> admitted = new HashSet<>();
+        for (FetchRequest seed : seeds) {
+            if (seed != null) {
+                FetchRequest admittedSeed = seed.withPriority(agedPriority(seed.getPriority(), now));
+                admittedSeed.setDepth(0);
+                admitted.add(admittedSeed);
+            }
+        }
+        return admitted;
+    }
+
+    /**
+     * @return copies of the links extracted from parent that are within max depth, with their depth and aged priority
+     * set
+     */
+    public Set<FetchRequest> admit(FetchRequest parent, Set<FetchRequest> extracted) {
+        int depth = parent.getDepth() + 1;
+        if (maxDepth > 0 && depth > maxDepth) {
+            tooDeep.addAndGet(extracted.size());
+            return new HashSet<>();
+        }
+        long now = System.currentTimeMillis();
+        Set<FetchRequest> admitted = new HashSet<>();
+        for (FetchRequest fetchReq : extracted) {
+            if (fetchReq != null) {
+                FetchRequest admittedReq = fetchReq.withPriority(agedPriority(fetchReq.getPriority(), now));
+                admittedReq.setDepth(depth);
+                admitted.add(admittedReq);
+            }
+        }
+        return admitted;
+    }
+
+    /**
+     * Takes one fetch out of the quota of the request page type.
+     * @return false if the quota is used up and the request should be dropped instead of fetched
+     */
+    public boolean tryAcquire(FetchRequest fetchReq) {
+        Integer quota = fetchReq.getPageType() != null ? quotas.get(fetchReq.getPageType()) : null;
+        if (quota == null) {
+            return true;
+        }
+        AtomicInteger count = fetched.computeIfAbsent(fetchReq.getPageType(), p -> new AtomicInteger());
+        if (count.incrementAndGet() > quota) {
+            count.decrementAndGet();
+            overQuota.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gives back the quota taken for a request that is handed back to the frontier unfetched
+     */
+    public void release(FetchRequest fetchReq) {
+        if (fetchReq.getPageType() != null && quotas.containsKey(fetchReq.getPageType())) {
+            fetched.get(fetchReq.getPageType()).decrementAndGet();
+        }
+    }
+
+    int agedPriority(int priority, long now) {
+        if (agingMillis <= 0) {
+            return priority;
+        }
+        long aged = (long) priority * PRIORITY_SCALE - (now - agingEpoch) * PRIORITY_SCALE / agingMillis;
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, aged));
+    }
+
+    public String formatStats() {
+        return String.format("fetchedPerPageType=%s tooDeep=%d overQuota=%d", fetched, tooDeep.get(),
+                overQuota.get());
+    }
+}
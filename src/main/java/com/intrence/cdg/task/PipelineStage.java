@@ -0,0 +1,127 @@
+package com.intrence.cdg.task;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One stage of the task processing pipeline, a fixed number of threads fed through a bounded queue.
+ *
+ * Hand-off to a stage blocks while its queue is full, so a slow downstream stage pushes back on the upstream one
+ * instead of buffering pages without bound.
+ */
+public class PipelineStage {
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong totalWaitMillis = new AtomicLong();
+    private final AtomicLong totalServiceMillis = new AtomicLong();
+    private final AtomicLong maxServiceMillis = new AtomicLong();
+
+    public PipelineStage(String name, int threads, int queueSize) {
+        this.name = name;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build(),
+                (task, pool) -> {
+                    if (pool.isShutdown()) {
+                        throw new RejectedExecutionException(String.format("Stage=%s is shut down", name));
+                    }
+                    try {
+                        pool.getQueue().put(task);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException(String.format("Interrupted while handing off to " +
+                                "stage=%s", name), e);
+                    }
+                });
+    }
+
+    /**
+     * Hands the work over to this stage, blocking while the stage queue is full.
+     *
+     * @param work unit of work to run on the stage threads
+     * @return future completed with the result of the work, or exceptionally with a CompletionException
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long submitted = System.currentTimeMillis();
+        try {
+            executor.execute(() -> {
+                long start = System.currentTimeMillis();
+                totalWaitMillis.addAndGet(start - submitted);
+                try {
+                    result.complete(work.call());
+                } catch (Exception e) {
+                    failedCount.incrementAndGet();
+                    result.completeExceptionally(new CompletionException(e));
+                } finally {
+                    long serviceTime = System.currentTimeMillis() - start;
+                    processedCount.incrementAndGet();
+                    totalServiceMillis.addAndGet(serviceTime);
+                    maxServiceMillis.accumulateAndGet(serviceTime, Math::max);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new CompletionException(e));
+        }
+        return result;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    // average time spent waiting in the stage queue
+    public long getAvgWaitMillis() {
+        long processed = processedCount.get();
+        return processed == 0 ? 0 : totalWaitMillis.get() / processed;
+    }
+
+    // average time spent running on the stage threads
+    public long getAvgServiceMillis() {
+        long processed = processedCount.get();
+        return processed == 0 ? 0 : totalServiceMillis.get() / processed;
+    }
+
+    public long getMaxServiceMillis() {
+        return maxServiceMillis.get();
+    }
+
+    public String formatStats() {
+        return String.format("stage=%s, queueDepth=%d, activeCount=%d, processed=%d, failed=%d, avgWaitMillis=%d, " +
+                        "avgServiceMillis=%d, maxServiceMillis=%d", name, getQueueDepth(), getActiveCount(),
+                getProcessedCount(), getFailedCount(), getAvgWaitMillis(), getAvgServiceMillis(),
+                getMaxServiceMillis());
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -1,9 +1,13 @@
 package com.intrence.cdg.task;
 
+import com.intrence.config.ConfigProvider;
+import com.intrence.config.collection.ConfigMap;
 import com.intrence.cdg.net.FetchRequest;
 import com.intrence.cdg.exception.CdgBackendException;
+import com.intrence.cdg.exception.FetchRejectedException;
 import com.intrence.cdg.exception.ThresholdReachedException;
 import com.intrence.cdg.frontier.FetchRequestFrontier;
+import com.intrence.cdg.net.PageValidator;
 import com.intrence.cdg.net.RequestResponse;
 import com.intrence.cdg.net.WebFetcher;
 import com.intrence.cdg.parser.BaseParser;
@@ -11,16 +15,38 @@ import com.intrence.cdg.parser.ParserFactory;
 import com.intrence.cdg.persistence.PostgresQueryService;
 import com.intrence.cdg.util.Constants;
 import com.intrence.models.model.DataPoint;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
 import org.json.JSONObject;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class SimpleTask extends Task {
 
+    private static final ConfigMap CONFIG_MAP = ConfigProvider.getConfig();
+
     public static int K_PER_BATCH = 10;
 
+    private static final int PARSE_THREADS = CONFIG_MAP.getInteger("parse_threads",
+            Runtime.getRuntime().availableProcessors());
+    private static final int PERSIST_THREADS = CONFIG_MAP.getInteger("persist_threads", 2);
+    private static final int STAGE_QUEUE_SIZE = CONFIG_MAP.getInteger("pipeline_stage_queue_size", 100);
+    private static final boolean CONDITIONAL_GET_ENABLED = CONFIG_MAP.getBoolean("conditional_get_enabled", true);
+    private static final int ASYNC_FETCH_MAX_IN_FLIGHT = CONFIG_MAP.getInteger("async_fetch_max_in_flight", 500);
+
+    // fetch -> parse -> persist, each stage with its own threads and bounded hand-off queue
+    private PipelineStage fetchStage;
+    private PipelineStage parseStage;
+    private PipelineStage persistStage;
+    // page types whose pages yielded links, seeds under "", they never get a validator so their fetches skip the lookup
+    private final Set<String> linkingPageTypes = ConcurrentHashMap.newKeySet();
+
     public SimpleTask(TaskRule rule,
                       PostgresQueryService postgresQueryService,
                       FetchRequestFrontier fetchReqFrontier,
@@ -29,6 +55,28 @@ public class SimpleTask extends Task {
         super(rule, postgresQueryService, fetchReqFrontier, webFetcher, parallelism);
     }
 
+    @Override
+    public void start() {
+        startStages();
+        super.start();
+    }
+
+    // the pipeline stages alone, without the task runner
+    void startStages() {
+        String prefix = String.format("task-%d", rule.getId());
+        fetchStage = new PipelineStage(prefix + "-fetch", parallelism, STAGE_QUEUE_SIZE);
+        parseStage = new PipelineStage(prefix + "-parse", PARSE_THREADS, STAGE_QUEUE_SIZE);
+        persistStage = new PipelineStage(prefix + "-persist", PERSIST_THREADS, STAGE_QUEUE_SIZE);
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        fetchStage.shutdown();
+        parseStage.shutdown();
+        persistStage.shutdown();
+    }
+
     /**
      * Abstract Methods
      */
@@ -37,6 +85,12 @@ public class SimpleTask extends Task {
         return K_PER_BATCH;
     }
 
+    // async fetches hold no thread, the in-flight window is then bounded by the bulkhead and rate limiter of the source
+    @Override
+    protected int maxInFlight() {
+        return isAsyncFetch() ? ASYNC_FETCH_MAX_IN_FLIGHT : super.maxInFlight();
+    }
+
     @Override
     public Set<FetchRequest> processFetchRequests(Set<FetchRequest> fetchReqs) throws InterruptedException, CdgBackendException, ThresholdReachedException {
 
@@ -48,77 +102,280 @@ public class SimpleTask extends Task {
                 throw new InterruptedException();
             }
 
-            try {
+            ProcessedRequest processed = release(persist(parse(fetch(new ProcessedRequest(request)))));
+            if (processed.failed) {
+                failedRequests.add(request);
+            }
+        }
+        return failedRequests;
+    }
 
-                long searchStart = System.currentTimeMillis();
-                RequestResponse response;
+    /**
+     * Runs the request through the fetch, parse and persist stages. Fetch threads hand the response over to the parse
+     * stage as soon as it is received, so they stay on I/O while the parsing runs on its own pool. With
+     * async_fetch_enabled the fetch goes through the async http client instead and holds no fetch thread at all.
+     */
+    @Override
+    protected CompletableFuture<Set<FetchRequest>> processFetchRequestAsync(FetchRequest fetchReq) {
+        CompletableFuture<ProcessedRequest> fetched = isAsyncFetch() ? fetchAsync(new ProcessedRequest(fetchReq))
+                : fetchStage.submit(() -> fetch(new ProcessedRequest(fetchReq)));
+        return fetched
+                .thenCompose(processed -> processed.failed ? CompletableFuture.completedFuture(processed)
+                        : parseStage.submit(() -> parse(processed)))
+                .thenCompose(processed -> processed.failed ? CompletableFuture.completedFuture(processed)
+                        : persistStage.submit(() -> persist(processed)))
+                .thenApply(processed -> release(processed).failed ? Collections.singleton(fetchReq)
+                        : Collections.<FetchRequest>emptySet());
+    }
 
-                try {
-                    infoLog(String.format("Fetching data from the url=%s",request.getWorkRequest()));
+    @Override
+    protected void logProcessingStats() {
+        infoLog("Event=PipelineStageStats " + fetchStage.formatStats());
+        infoLog("Event=PipelineStageStats " + parseStage.formatStats());
+        infoLog("Event=PipelineStageStats " + persistStage.formatStats());
+    }
 
-                    // TaskRule Type "stream"
-                    if (Constants.STREAM_OPERATION.equals(rule.getType())) {
-                        response = webFetcher.getStreamResponse(this.rule.getSource(), request);
-                    } else {
-                        response = webFetcher.getResponse(this.rule.getSource(), request);
-                    }
+    /**
+     * Pipeline Stages
+     */
+    private ProcessedRequest fetch(ProcessedRequest processed) throws InterruptedException, FetchRejectedException {
+        checkInterruption();
+        FetchRequest request = processed.request;
+        long searchStart = System.currentTimeMillis();
 
-                } catch (Exception ex) {
-                    errorLog(String.format("Exception=WebFetcherException error while getting response for url=%s, " +
-                            "time_taken=%d", request.getWorkRequest(), System.currentTimeMillis()-searchStart), ex);
-                    failedRequests.add(request);
-                    continue;
-                }
+        try {
+            infoLog(String.format("Fetching data from the url=%s",request.getWorkRequest()));
 
-                long searchEnd = System.currentTimeMillis();
-                infoLog(String.format("Event=WebFetcherResponse received response for the url=%s, " +
-                                "time_taken=%d, http_status=%d, redirected_url=%s", request.getWorkRequest(),
-                        System.currentTimeMillis()-searchStart, response.getStatusCode(), response.getRedirectedUrl()));
-                
-                long parseTime = 0;
-                int statusCode = response.getStatusCode();
-
-                if (Constants.HTTP_STATUS_CODES_TO_RETRY.contains(statusCode)) {
-                    failedRequests.add(request); 
-                    continue;
-                }
+            // TaskRule Type "stream"
+            if (Constants.STREAM_OPERATION.equals(rule.getType())) {
+                processed.response = webFetcher.getStreamResponse(this.rule.getSource(), request);
+            } else if (isConditionalFetch(request)) {
+                processed.validator = postgresQueryService.getPageValidator(rule.getId(), request.getFingerprint());
+                processed.response = webFetcher.getResponse(this.rule.getSource(), request, processed.validator);
+            } else {
+                processed.response = webFetcher.getResponse(this.rule.getSource(), request);
+            }
 
-                // Successful Responses
-                if (statusCode >= 200 && statusCode < 300) {
-                    Set<FetchRequest> extractedReqs = handleSuccessfulRequests(response);
-                    if (extractedReqs != null) {
-                        scheduleExtractedRequests(extractedReqs);
+        } catch (FetchRejectedException ex) {
+            logRejection(request, ex);
+            throw ex;
+        } catch (Exception ex) {
+            return fetchFailed(processed, ex, searchStart);
+        }
+        return fetched(processed, searchStart);
+    }
+
+    /**
+     * Non-blocking fetch on the async http client. Only the validator lookup of a conditional fetch runs on the fetch
+     * stage, the response is handed over to the parse stage from the async response threads.
+     */
+    private CompletableFuture<ProcessedRequest> fetchAsync(ProcessedRequest processed) {
+        FetchRequest request = processed.request;
+        CompletableFuture<ProcessedRequest> lookedUp = !isConditionalFetch(request)
+                ? CompletableFuture.completedFuture(processed)
+                : fetchStage.submit(() -> {
+                    long lookupStart = System.currentTimeMillis();
+                    try {
+                        processed.validator = postgresQueryService.getPageValidator(rule.getId(),
+                                request.getFingerprint());
+                    } catch (Exception ex) {
+                        fetchFailed(processed, ex, lookupStart);
                     }
-                    parseTime = System.currentTimeMillis() - searchEnd;
-                } else if (Constants.HTTP_REDIRECTION_STATUS_CODES.contains(response.getStatusCode())) {
-                    if (response.getResponse() != null) {
-                        FetchRequest redirectedReq = handleRedirectedRequests(response);
-                        if (redirectedReq != null) {
-                            Set<FetchRequest> reqs = new HashSet<>();
-                            reqs.add(redirectedReq);
-                            scheduleExtractedRequests(reqs);
+                    return processed;
+                });
+
+        return lookedUp.thenCompose(looked -> {
+            if (looked.failed) {
+                return CompletableFuture.completedFuture(looked);
+            }
+            infoLog(String.format("Fetching data from the url=%s", request.getWorkRequest()));
+            long searchStart = System.currentTimeMillis();
+            return webFetcher.getResponseAsync(rule.getSource(), request, looked.validator)
+                    .handle((response, e) -> {
+                        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                        if (cause instanceof FetchRejectedException) {
+                            logRejection(request, (FetchRejectedException) cause);
+                            throw new CompletionException(cause);
+                        } else if (cause instanceof Exception) {
+                            return fetchFailed(looked, (Exception) cause, searchStart);
+                        } else if (cause != null) {
+                            throw new CompletionException(cause);
                         }
+                        looked.response = response;
+                        return fetched(looked, searchStart);
+                    });
+        });
+    }
+
+    // nothing was sent, the task holds the request back instead of counting a failed attempt
+    private void logRejection(FetchRequest request, FetchRejectedException ex) {
+        infoLog(String.format("Event=FetchRejected url=%s, retry_after_millis=%d, reason=%s",
+                request.getWorkRequest(), ex.getRetryAfterMillis(), ex.getMessage()));
+    }
+
+    private ProcessedRequest fetchFailed(ProcessedRequest processed, Exception ex, long searchStart) {
+        errorLog(String.format("Exception=WebFetcherException error while getting response for url=%s, " +
+                "time_taken=%d", processed.request.getWorkRequest(), System.currentTimeMillis()-searchStart), ex);
+        processed.failed = true;
+        return processed;
+    }
+
+    private ProcessedRequest fetched(ProcessedRequest processed, long searchStart) {
+        FetchRequest request = processed.request;
+        processed.crawlTime = System.currentTimeMillis() - searchStart;
+        infoLog(String.format("Event=WebFetcherResponse received response for the url=%s, " +
+                        "time_taken=%d, http_status=%d, redirected_url=%s", request.getWorkRequest(),
+                processed.crawlTime, processed.response.getStatusCode(), processed.response.getRedirectedUrl()));
+
+        if (Constants.HTTP_STATUS_CODES_TO_RETRY.contains(processed.response.getStatusCode())) {
+            processed.failed = true;
+        }
+        // unchanged since the previous run, either told by the server or recognized from the content
+        processed.notModified = processed.validator != null
+                && (processed.response.getStatusCode() == HttpStatus.SC_NOT_MODIFIED
+                || (processed.response.isSuccess() && processed.response.getResponseContent() != null
+                && PageValidator.contentHash(processed.response.getResponseContent())
+                        .equals(processed.validator.getContentHash())));
+        return processed;
+    }
+
+    /**
+     * Refetches of recurring rules are conditional. Validators are only kept for pages without links (e.g. product
+     * pages), skipping the parse of an unchanged listing page would leave the pages it links to out of the run. Once a
+     * page of a type has yielded links, the other pages of that type are fetched without looking up a validator.
+     */
+    private boolean isConditionalFetch(FetchRequest request) {
+        return CONDITIONAL_GET_ENABLED && rule.getRecurrence() != null
+                && HttpGet.METHOD_NAME.equals(request.getMethodType())
+                && !linkingPageTypes.contains(pageTypeKey(request));
+    }
+
+    // stream responses are only read by the blocking path
+    private boolean isAsyncFetch() {
+        return webFetcher.isAsyncFetchEnabled() && !Constants.STREAM_OPERATION.equals(rule.getType());
+    }
+
+    private static String pageTypeKey(FetchRequest request) {
+        return request.getPageType() != null ? request.getPageType() : "";
+    }
+
+    private ProcessedRequest parse(ProcessedRequest processed) throws InterruptedException,
+            ThresholdReachedException {
+        if (processed.failed) {
+            return processed;
+        }
+        if (processed.notModified) {
+            infoLog(String.format("Event=PageNotModified http_status=%d, url=%s", processed.response.getStatusCode(),
+                    processed.request.getWorkRequest()));
+            return processed;
+        }
+        checkInterruption();
+        RequestResponse response = processed.response;
+        long parseStart = System.currentTimeMillis();
+
+        try {
+            int statusCode = response.getStatusCode();
+
+            // Successful Responses
+            if (statusCode >= 200 && statusCode < 300) {
+                processed.extractedReqs = handleSuccessfulRequests(response);
+            } else if (Constants.HTTP_REDIRECTION_STATUS_CODES.contains(statusCode)) {
+                if (response.getResponseContent() != null) {
+                    FetchRequest redirectedReq = handleRedirectedRequests(response);
+                    if (redirectedReq != null) {
+                        processed.extractedReqs = new HashSet<>();
+                        processed.extractedReqs.add(redirectedReq);
                     }
                 }
+            }
+        } catch (ThresholdReachedException ex) {
+            throw ex;
+        } catch (Exception ex){
+            processed.failed = true;
+            errorLog(String.format("Exception=FetchReqProcessing for the url=%s", processed.request.getWorkRequest()),ex);
+        }
 
-                long end = System.currentTimeMillis();
-                infoLog(String.format("Event=FetchReqProcessing crawl_time=%s, place_parse_time=%s," +
-                        "total_time=%s, url=%s ", searchEnd - searchStart, parseTime,
-                        end - searchStart, request.getWorkRequest()));
+        processed.parseTime = System.currentTimeMillis() - parseStart;
+        return processed;
+    }
 
-            } catch (ThresholdReachedException ex) {
-                throw ex;
-            } catch (Exception ex){
-                failedRequests.add(request);
-                errorLog(String.format("Exception=FetchReqProcessing for the url=%s", request.getWorkRequest()),ex);
+    private ProcessedRequest persist(ProcessedRequest processed) throws InterruptedException {
+        if (processed.failed) {
+            return processed;
+        }
+        checkInterruption();
+        long persistStart = System.currentTimeMillis();
+
+        try {
+            if (processed.extractedReqs != null) {
+                scheduleExtractedRequests(processed.request, processed.extractedReqs);
             }
+            saveValidator(processed);
+        } catch (Exception ex){
+            processed.failed = true;
+            errorLog(String.format("Exception=FetchReqProcessing for the url=%s", processed.request.getWorkRequest()),ex);
+            return processed;
+        }
+
+        long persistTime = System.currentTimeMillis() - persistStart;
+        infoLog(String.format("Event=FetchReqProcessing crawl_time=%s, place_parse_time=%s, persist_time=%s, " +
+                "total_time=%s, url=%s ", processed.crawlTime, processed.parseTime, persistTime,
+                processed.crawlTime + processed.parseTime + persistTime, processed.request.getWorkRequest()));
+        return processed;
+    }
+
+    private void saveValidator(ProcessedRequest processed) {
+        if (!isConditionalFetch(processed.request) || !processed.response.isSuccess()) {
+            return;
+        }
+        if (processed.extractedReqs != null && !processed.extractedReqs.isEmpty()) {
+            linkingPageTypes.add(pageTypeKey(processed.request));
+            return;
+        }
+        PageValidator validator = PageValidator.fromResponse(processed.response);
+        if (validator != null && !validator.equals(processed.validator)) {
+            postgresQueryService.savePageValidator(rule.getId(), processed.request.getFingerprint(), rule.getSource(),
+                    processed.request.getWorkRequest(), validator);
+        }
+    }
+
+    // the response is not used past the persist stage, its buffers go to the next fetches
+    private ProcessedRequest release(ProcessedRequest processed) {
+        if (processed.response != null) {
+            processed.response.releaseBody();
+        }
+        return processed;
+    }
+
+    private void checkInterruption() throws InterruptedException {
+        if (Thread.currentThread().isInterrupted()) {
+            infoLog("Task stop flag activated, throwing InterruptedException");
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * State of a fetch request as it moves through the pipeline stages.
+     */
+    private static class ProcessedRequest {
+        private final FetchRequest request;
+        private RequestResponse response;
+        private Set<FetchRequest> extractedReqs;
+        private boolean failed;
+        // validators of the previous fetch, null when not conditional
+        private PageValidator validator;
+        private boolean notModified;
+        private long crawlTime;
+        private long parseTime;
+
+        private ProcessedRequest(FetchRequest request) {
+            this.request = request;
         }
-        return failedRequests;
     }
 
     
-    protected void scheduleExtractedRequests(Set<FetchRequest> reqs) throws CdgBackendException {
-        fetchReqFrontier.addAll(this.rule.getId(),reqs);
+    protected void scheduleExtractedRequests(FetchRequest parent, Set<FetchRequest> reqs) throws CdgBackendException {
+        fetchReqFrontier.addAll(this.rule.getId(), crawlBudget.admit(parent, reqs));
     }
 
     protected void persistRawData(RequestResponse requestResponse){
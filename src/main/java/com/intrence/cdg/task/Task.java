@@ -4,6 +4,7 @@ import com.intrence.config.ConfigProvider;
 import com.intrence.config.collection.ConfigMap;
 import com.intrence.cdg.net.FetchRequest;
 import com.intrence.cdg.exception.CdgBackendException;
+import com.intrence.cdg.exception.FetchRejectedException;
 import com.intrence.cdg.exception.ThresholdReachedException;
 import com.intrence.cdg.frontier.FetchRequestFrontier;
 import com.intrence.cdg.net.WebFetcher;
@@ -14,18 +15,23 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.log4j.Logger;
 import org.json.JSONObject;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Abstract class for task execution that calls implementations of abstract methods to process fetch reqs.
@@ -39,10 +45,12 @@ public abstract class Task {
     protected ExecutorService singleThreadTaskRunner = Executors.newFixedThreadPool(1);
     private ExecutorService fetchReqProcessingThreads;
 
-    private Integer BAD_RESPONSE_RATE_DELAY = CONFIG_MAP.getInteger("bad_response_rate_delay", 60000);
     private final Integer ALLOWED_CONSECUTIVE_BAD_RESPONSES = 3;
     private static final double BAD_RESPONSE_RATE = 0.2;
     private static final int MAX_RETRIES = 3;
+    // how long a claimed fetch request is reserved for this task before other tasks/nodes may take it over
+    private static final long FRONTIER_LEASE_MILLIS = CONFIG_MAP.getInteger("frontier_lease_millis", 300000);
+    private static final long LEASE_WAIT_MILLIS = 1000;
 
     protected Integer parallelism;
     protected TaskRule rule;
@@ -52,6 +60,7 @@ public abstract class Task {
     protected FetchRequestFrontier fetchReqFrontier;
     protected WebFetcher webFetcher;
     protected SeedUrlProvider seedUrlProvider;
+    protected CrawlBudget crawlBudget;
 
     protected Task(TaskRule rule,
                    PostgresQueryService postgresQueryService,
@@ -100,11 +109,16 @@ public abstract class Task {
     public abstract Set<FetchRequest> processFetchRequests(Set<FetchRequest> fetchReqs) throws InterruptedException,
             CdgBackendException, ThresholdReachedException;
 
+    // requests kept in flight by the task runner, one per processing thread plus the prefetch buffer
+    protected int maxInFlight() {
+        return parallelism + numberOfFetchReqsPerBatch();
+    }
+
     // Create seed urls and append to the fetchReqFrontier to process
     public void queueSeedRequests() throws Exception {
         seedUrlProvider = ParserFactory.createSeedUrlProvider(rule.getSource());
         Set<FetchRequest> seedUrls = seedUrlProvider.buildSeedUrls(rule.getSearchParams());
-        fetchReqFrontier.addAll(rule.getId(), seedUrls);
+        fetchReqFrontier.addAll(rule.getId(), crawlBudget != null ? crawlBudget.admitSeeds(seedUrls) : seedUrls);
     }
 
     protected void persistRawData(JSONObject jsonObject) {
@@ -138,23 +152,40 @@ public abstract class Task {
 
     /**
      * Task Runnable Implementation
+     *
+     * Requests flow continuously instead of in top-K batches: the runner keeps up to maxInFlight() requests in flight,
+     * by default parallelism + K (the ones not picked up yet by a processing thread form the prefetch buffer), and as
+     * soon as one of them completes it is acknowledged on its own and the buffer is topped up again from the frontier.
+     * A slow url thus only holds its own processing thread.
+     *
+     * Requests are claimed (leased) from the frontier rather than peeked, so other tasks or nodes running the same rule
+     * never get them while they are in flight here.
+     *
+     * Requests turned down by an open circuit breaker or a full bulkhead were never sent: they are held until the
+     * circuit probes again, without counting as a failed attempt nor as a bad response, and handed back to the frontier
+     * if their lease would expire first.
      */
     protected class TasksRunnable implements Runnable {
 
         @Override
         public void run() {
 
-            // topK fetchReqs to be processed per batch
+            // fetchReqs buffered per processing thread, also the window used to compute the bad response rate
             int k = numberOfFetchReqsPerBatch();
+            int maxInFlight = maxInFlight();
 
-            // Setup retry and fail records
-            Map<FetchRequest, Integer> failedRequestsRetryMap = new HashMap();
-            Set<FetchRequest> allFailedRequests = new HashSet<>();
-            Set<FetchRequest> topKReqs = new HashSet<>();
+            // Setup retry and in-flight records
+            Map<FetchRequest, Integer> failedRequestsRetryMap = new HashMap<>();
+            Set<FetchRequest> inFlightRequests = new HashSet<>();
+            BlockingQueue<CompletedRequest> completedRequests = new LinkedBlockingQueue<>();
+            // rejected requests waiting for their retry time, still in flight and leased to this task
+            DelayQueue<DeferredRequest> deferredRequests = new DelayQueue<>();
+            Map<FetchRequest, Long> leaseExpiries = new HashMap<>();
 
             try {
                 // task-run table is for recording history of runs, every time a rule is run, a new row is created in task_run
                 run = postgresQueryService.createTaskRun(rule);
+                crawlBudget = new CrawlBudget(rule, ParserFactory.getCrawlConfig(rule.getSource()));
 
                 // If rule is in RUNNABLE state, queue seed reqs and then mark the state to RUNNING
                 if (TaskRule.Status.RUNNABLE.equals(rule.getStatus())) {
@@ -166,6 +197,8 @@ public abstract class Task {
 
                 int urlsFetched = postgresQueryService.getUrlsFetchedCount(rule.getId());
                 int badResponseOccurrence = 0;
+                int windowCompleted = 0;
+                int windowFailed = 0;
 
                 // Mark the TaskRule state to RUNNING
                 TaskRule.Builder ruleBuilder = new TaskRule.Builder(rule);
@@ -175,87 +208,126 @@ public abstract class Task {
                 postgresQueryService.updateTaskRunStatus(run.getId(), TaskRule.Status.RUNNING.toString());
 
                 // ----- FETCHING ----- //
-                // while the frontier queue has some fetch reqs, keep processing them and update task_run
-                while ((topKReqs = fetchReqFrontier.getTopK(rule.getId(), k)) != null && !topKReqs.isEmpty()) {
+                // while the frontier queue or the in-flight window has some fetch reqs, keep processing them
+                while (true) {
 
                     checkThreadInterruption();
 
-                    infoLog(String.format("Event=ProcessTopKBatch k=%s", topKReqs.size()));
-
-                    //divide topK among threads and submit for processing
-                    List<Set<FetchRequest>> subsets = subset(topKReqs, parallelism);
-                    List<Future<Set<FetchRequest>>> futures = new ArrayList<>();
-                    for (Set<FetchRequest> subset : subsets) {                        
-                        Future<Set<FetchRequest>> future = fetchReqProcessingThreads.submit( () -> {
-                            try{
-                                // it returns only failed Requests
-                                return processFetchRequests(subset);
-                            } catch (ThresholdReachedException e) {
-                                throw e;
-                            } catch (InterruptedException e) {
-                                warnLog("interrupted exception happened from processing threads",e);
-                                // returning the entire subset in case of InterruptedException is just
-                                // a precautionary measure for other threads to take it up instead of
-                                // deleting it from queue.
-                                return subset;
-                            }
-                        } );
-                        futures.add(future);
+                    // send the held back requests whose retry time came
+                    for (DeferredRequest deferred; (deferred = deferredRequests.poll()) != null; ) {
+                        dispatch(deferred.request, completedRequests);
                     }
 
-                    // wait for processing to finish and gather result
-                    for (Future<Set<FetchRequest>> future: futures) {
-                        try {
-                            Set<FetchRequest> failedRequests = future.get();
-                            // Accumulate all failed request from all the threads
-                            allFailedRequests.addAll(failedRequests);
-                        }
-                        // InterruptedException from all processing threads would be consumed and ignored here,
-                        //  - the topK loop above would eventually find out that the task is cancelled/interrupted and bail out in next iteration
-                        //  - this way it is cleaner as it waits for all processing threads to finish / get interrupted and eventually exit                            
-                        // Any unknown runtime-exceptions are thrown out immediately which will result in marking the task as ERROR
-                        catch (InterruptedException e) {
-                            warnLog("interrupted exception happened from processing threads",e);
-                        } catch(ExecutionException e){
-                            Throwable rootException = ExceptionUtils.getRootCause(e);
-                            if (rootException instanceof InterruptedException) {
-                                warnLog("interrupted exception happened from processings d threads",e);
-                            } else {
-                                throw e;
+                    // top up the in-flight window, never dispatching more than what is left of max_records
+                    int slots = Math.min(maxInFlight, rule.getMaxRecords() - urlsFetched) - inFlightRequests.size();
+                    if (slots > 0) {
+                        // leases may have started before the claim, e.g. requests buffered for politeness
+                        Map<FetchRequest, Long> claimedReqs = fetchReqFrontier.claimWithLeases(rule.getId(), slots,
+                                FRONTIER_LEASE_MILLIS);
+                        Set<FetchRequest> overQuotaReqs = new HashSet<>();
+                        for (Map.Entry<FetchRequest, Long> claimed : claimedReqs.entrySet()) {
+                            FetchRequest fetchReq = claimed.getKey();
+                            if (!crawlBudget.tryAcquire(fetchReq)) {
+                                overQuotaReqs.add(fetchReq);
+                                continue;
                             }
+                            inFlightRequests.add(fetchReq);
+                            leaseExpiries.put(fetchReq, claimed.getValue());
+                            dispatch(fetchReq, completedRequests);
                         }
+                        // page type already got its share of max_records, dropped
+                        fetchReqFrontier.ack(rule.getId(), overQuotaReqs);
                     }
 
-                    checkThreadInterruption();
-                    postgresQueryService.updateTaskRun(run.getId());
-                    
-                    // Sleep if bad responseCodes > 20% of total requests                    
-                    badResponseOccurrence = sleepIfHighBadResponse(topKReqs.size(), badResponseOccurrence,
-                            allFailedRequests.size());
-                    urlsFetched += (topKReqs.size() - allFailedRequests.size());
-
-                    // Update retry count for each failed request, retry MAX_RETRIES(3) times
-                    // Drop the failed request if it either fails after MAX_RETRIES or passed during future retries
-                    updateFailedRequests(failedRequestsRetryMap, allFailedRequests, topKReqs);
-
-                    // clear the set for reuse
-                    allFailedRequests.clear();
-
-                    // Save urlsFetched count in postgres
-                    postgresQueryService.saveUrlsFetchedCount(rule.getId(), urlsFetched);                    
-                    //check UrlsFetched against max_records for remaining urls to be fetched                    
-                    if (urlsFetched >= rule.getMaxRecords()) {
-                        infoLog(String.format("Fetched max no of urls provided, urlsFetched=%d", urlsFetched));
-                        break;
+                    if (inFlightRequests.isEmpty()) {
+                        // max_records reached, or nothing left in the frontier nor leased by anyone
+                        if (slots <= 0 || fetchReqFrontier.leasedCount(rule.getId()) == 0) {
+                            break;
+                        }
+                        // requests leased elsewhere may still be nacked or expire, wait for them
+                        fetchReqFrontier.reapExpiredLeases(rule.getId());
+                        Thread.sleep(LEASE_WAIT_MILLIS);
+                        continue;
+                    }
+
+                    // wait for the next request to finish, or for the next held back one to be due
+                    CompletedRequest completed;
+                    DeferredRequest nextDeferred = deferredRequests.peek();
+                    if (nextDeferred == null) {
+                        completed = completedRequests.take();
                     } else {
-                        k = (rule.getMaxRecords() - urlsFetched) > k ? k : rule.getMaxRecords() - urlsFetched;
+                        completed = completedRequests.poll(nextDeferred.getDelay(TimeUnit.MILLISECONDS),
+                                TimeUnit.MILLISECONDS);
+                        if (completed == null) {
+                            continue;
+                        }
+                    }
+
+                    FetchRejectedException rejection = completed.getRejection();
+                    if (rejection != null) {
+                        long retryAt = System.currentTimeMillis()
+                                + Math.max(rejection.getRetryAfterMillis(), LEASE_WAIT_MILLIS);
+                        if (retryAt < leaseExpiries.getOrDefault(completed.request, 0L)) {
+                            deferredRequests.add(new DeferredRequest(completed.request, retryAt));
+                            continue;
+                        }
+                        // would outlive its lease, back to the frontier without using up a retry
+                        inFlightRequests.remove(completed.request);
+                        leaseExpiries.remove(completed.request);
+                        crawlBudget.release(completed.request);
+                        fetchReqFrontier.nack(rule.getId(), Collections.singleton(completed.request));
+                        continue;
+                    }
+
+                    inFlightRequests.remove(completed.request);
+                    leaseExpiries.remove(completed.request);
+                    Set<FetchRequest> failedRequests = completed.getFailedRequests();
+                    if (failedRequests == null) {
+                        // processing thread was interrupted, hand the request back to the frontier
+                        crawlBudget.release(completed.request);
+                        fetchReqFrontier.nack(rule.getId(), Collections.singleton(completed.request));
+                        continue;
+                    }
+
+                    urlsFetched += 1 - failedRequests.size();
+                    windowCompleted++;
+                    windowFailed += failedRequests.size();
+
+                    // Update retry count if failed, retry MAX_RETRIES(3) times
+                    // Drop the request if it either fails after MAX_RETRIES or passed during future retries
+                    updateFailedRequests(failedRequestsRetryMap, failedRequests,
+                            Collections.singleton(completed.request));
+
+                    if (windowCompleted >= k) {
+                        checkThreadInterruption();
+                        postgresQueryService.updateTaskRun(run.getId());
+
+                        // Fail the rule if bad responseCodes > 20% of requests in too many consecutive windows
+                        badResponseOccurrence = checkBadResponseRate(windowCompleted, badResponseOccurrence,
+                                windowFailed);
+                        windowCompleted = 0;
+                        windowFailed = 0;
+
+                        // Save urlsFetched count in postgres
+                        postgresQueryService.saveUrlsFetchedCount(rule.getId(), urlsFetched);
+                        logProcessingStats();
+                        infoLog("Event=CrawlBudget " + crawlBudget.formatStats());
+
+                        // requeue requests whose lease expired, e.g. claimed by a node that went down
+                        fetchReqFrontier.reapExpiredLeases(rule.getId());
                     }
 
                     //Todo: Handle response codes like 416 (range not satisfiable) etc ?
 
                 }
 
+                postgresQueryService.saveUrlsFetchedCount(rule.getId(), urlsFetched);
+                if (urlsFetched >= rule.getMaxRecords()) {
+                    infoLog(String.format("Fetched max no of urls provided, urlsFetched=%d", urlsFetched));
+                }
+
                 // Finish as no task in fetchReqFrontier
+                fetchReqFrontier.flush(rule.getId());
                 postgresQueryService.markTaskRuleFinished(rule.getId());
                 postgresQueryService.updateTaskRunStatus(run.getId(), TaskRule.Status.FINISHED.toString() );
                 fetchReqFrontier.deleteKey(rule.getId());
@@ -274,19 +346,33 @@ public abstract class Task {
                     // - either case, the task status is unchanged and leave it to user request api to change the status if need be
                     // - this also aids in resuming the task when left in running state
                     warnLog("Task run is cancelled, leaving the status unchanged", e);                    
+                    releaseInFlightRequests(inFlightRequests);
                 } else {
+                    // successful requests are already deleted from the queue as they get acknowledged one by one,
+                    // so if the same task is resumed in future only non-successful urls from the redis are tried
                     errorLog("Exception=TaskExecutionException", e);
+                    releaseInFlightRequests(inFlightRequests);
                     postgresQueryService.updateTaskRuleStatus(rule.getId(), TaskRule.Status.ERROR);
                     postgresQueryService.updateTaskRunStatus(run.getId(), TaskRule.Status.ERROR.toString() );
-                    // Delete all successful requests from the queue, in case of exception thrown
-                    // due to too many bad responses. This is needed if same task is resumed in future,
-                    // then only non-successful urls from the redis should be tried
-                    topKReqs.removeAll(allFailedRequests);
-                    fetchReqFrontier.deleteAll(rule.getId(), topKReqs);
                 }
             }
         }
 
+        private void dispatch(FetchRequest fetchReq, BlockingQueue<CompletedRequest> completedRequests) {
+            processFetchRequestAsync(fetchReq).whenComplete((failedRequests, e) ->
+                    completedRequests.add(new CompletedRequest(fetchReq, failedRequests, e)));
+        }
+
+        // hand the unfinished requests back to the frontier right away instead of waiting for their lease to expire
+        private void releaseInFlightRequests(Set<FetchRequest> inFlightRequests) {
+            try {
+                fetchReqFrontier.nack(rule.getId(), inFlightRequests);
+            } catch (Exception e) {
+                warnLog(String.format("Failed to release in-flight requests=%d, they are requeued once their " +
+                        "lease expires", inFlightRequests.size()), e);
+            }
+        }
+
         private void checkThreadInterruption() throws InterruptedException {
             if (Thread.currentThread().interrupted()) {
                 infoLog("Task.java Task stop flag activated, throwing InterruptedException");
@@ -295,10 +381,92 @@ public abstract class Task {
         }
 	}
 
+    /**
+     * Processes a single fetch request on the processing threads.
+     *
+     * @param fetchReq request to process
+     * @return future completed with the failed requests (empty if the request succeeded) or null if the processing
+     *         thread was interrupted
+     */
+    protected CompletableFuture<Set<FetchRequest>> processFetchRequestAsync(FetchRequest fetchReq) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                // it returns only failed Requests
+                return processFetchRequests(Collections.singleton(fetchReq));
+            } catch (InterruptedException e) {
+                warnLog("interrupted exception happened from processing threads", e);
+                return null;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, fetchReqProcessingThreads);
+    }
+
+    // hook for implementations with their own processing threads to report on them
+    protected void logProcessingStats() {
+    }
+
+    /**
+     * Outcome of one dispatched fetch request, handed back from the processing threads to the task runner.
+     */
+    private static class CompletedRequest {
+        private final FetchRequest request;
+        private final Set<FetchRequest> failedRequests;
+        private final Throwable exception;
+
+        private CompletedRequest(FetchRequest request, Set<FetchRequest> failedRequests, Throwable exception) {
+            this.request = request;
+            this.failedRequests = failedRequests;
+            this.exception = exception;
+        }
+
+        // request turned down before being sent, null otherwise
+        private FetchRejectedException getRejection() {
+            Throwable rootCause = exception != null ? ExceptionUtils.getRootCause(exception) : null;
+            return rootCause instanceof FetchRejectedException ? (FetchRejectedException) rootCause : null;
+        }
+
+        // Any unknown runtime-exceptions are thrown out immediately which will result in marking the task as ERROR,
+        // InterruptedException from the processing threads is consumed and ignored here
+        private Set<FetchRequest> getFailedRequests() throws ExecutionException {
+            if (exception != null) {
+                if (ExceptionUtils.getRootCause(exception) instanceof InterruptedException) {
+                    return null;
+                }
+                throw new ExecutionException(exception);
+            }
+            return failedRequests;
+        }
+    }
+
+    /**
+     * Rejected fetch request held back until its retry time.
+     */
+    private static class DeferredRequest implements Delayed {
+        private final FetchRequest request;
+        private final long retryAt;
+
+        private DeferredRequest(FetchRequest request, long retryAt) {
+            this.request = request;
+            this.retryAt = retryAt;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(retryAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(retryAt, ((DeferredRequest) other).retryAt);
+        }
+    }
+
     /**
      * This method updates the failedRequestRetryMap with the latest retry count and
-     * do the set manipulation to clean this map appropriately. Also, deleted all
-     * successful requests from Redis queue after this set manipulation.
+     * do the set manipulation to clean this map appropriately. Also, acks all
+     * successful requests and the ones that exhausted their retries, the ones to retry
+     * are nacked back to the Redis queue.
      *
      * @param failedRequestsRetryMap used to update the failed requests with the retry count
      * @param failedRequests set of failed request in the current set of topK url fetch
@@ -306,33 +474,44 @@ public abstract class Task {
      */
     public void updateFailedRequests(Map<FetchRequest, Integer> failedRequestsRetryMap,
             Set<FetchRequest> failedRequests, Set<FetchRequest> topKRequests) {
-        Set<FetchRequest> successfulRequests = new HashSet<>();
+        Set<FetchRequest> doneRequests = new HashSet<>();
+        Set<FetchRequest> retryRequests = new HashSet<>();
         for (FetchRequest fetchRequest : topKRequests) {
             if (failedRequests.contains(fetchRequest)) {
                 int retryCount = failedRequestsRetryMap.getOrDefault(fetchRequest, 0);
                 if (++retryCount < MAX_RETRIES) {
                     failedRequestsRetryMap.put(fetchRequest, retryCount);
+                    retryRequests.add(fetchRequest);
                     infoLog(String.format("Failed request=%s, retry_count=%d", fetchRequest, retryCount));
                 } else {
                     failedRequestsRetryMap.remove(fetchRequest);
-                    // Delete all request which have reached their max. retries
-                    fetchReqFrontier.delete(rule.getId(), fetchRequest);
+                    // Drop all request which have reached their max. retries
+                    doneRequests.add(fetchRequest);
                     warnLog(String.format("Dropping request url=%s, exhausted max_retries=%d", fetchRequest,
                             MAX_RETRIES));
                 }
             } else {
-                successfulRequests.add(fetchRequest);
+                doneRequests.add(fetchRequest);
                 // remove request which was not a part of failedRequests, but got
                 // succeeded in their current retries (if any)
                 failedRequestsRetryMap.remove(fetchRequest);
             }
         }
 
-        // Delete all successful requests from the queue
-        fetchReqFrontier.deleteAll(rule.getId(), successfulRequests);
+        // Remove done requests from the frontier, put the ones to retry back in the queue
+        fetchReqFrontier.ack(rule.getId(), doneRequests);
+        fetchReqFrontier.nack(rule.getId(), retryRequests);
+        if (crawlBudget != null) {
+            // counted again when claimed for the retry
+            for (FetchRequest fetchRequest : retryRequests) {
+                crawlBudget.release(fetchRequest);
+            }
+        }
     }
 
-    protected int sleepIfHighBadResponse(int k, int badResponseOccurrence, int badResponseCount) throws Exception {
+    // throttled sources slow down in their AdaptiveRateLimiter, which only holds back requests to the source or host
+    // that backs off rather than pausing the whole task
+    protected int checkBadResponseRate(int k, int badResponseOccurrence, int badResponseCount) throws Exception {
 
         if( badResponseCount > k * BAD_RESPONSE_RATE) {
             badResponseOccurrence++;
@@ -341,36 +520,10 @@ public abstract class Task {
                 throw new Exception(String.format("Too many bad responses=%4.2f%%, marking taskRule status='ERROR'",
                         (double)badResponseCount*100/k));
             }
-            LOGGER.info(String.format("Sleeping for time=%d due to high bad response rate for source=%s, ruleId=%d",
-                    BAD_RESPONSE_RATE_DELAY*badResponseOccurrence, rule.getSource(), rule.getId()));
-            Thread.sleep(BAD_RESPONSE_RATE_DELAY*badResponseOccurrence);
+            LOGGER.info(String.format("Event=HighBadResponseRate badResponses=%4.2f%% occurrence=%d source=%s, " +
+                    "ruleId=%d", (double)badResponseCount*100/k, badResponseOccurrence, rule.getSource(), rule.getId()));
             return badResponseOccurrence;
         }
         return 0;
     }
-
-    // Divide top k fetch request based on number of threads
-    protected List<Set<FetchRequest>> subset(Set<FetchRequest> set, int parallelism) {
-
-        List<Set<FetchRequest>> subsets = new ArrayList<>();
-        int splitSize = (int) Math.ceil((double) set.size() / (double) parallelism);
-
-        Set<FetchRequest> subset = new HashSet<>();
-        int i = 0;
-        for (FetchRequest fetchReq : set) {
-            if (i == splitSize) {
-                subsets.add(subset);
-                i = 0;
-                subset = new HashSet<>();
-            }
-
-            subset.add(fetchReq);
-            i++;
-        }
-
-        if (!subset.isEmpty()) {
-            subsets.add(subset);
-        }
-        return subsets;
-    }
 }
@@ -104,6 +104,7 @@ public class UrlHelper {
         if (StringUtils.isNotBlank(pageType)) {
             CrawlConfig crawlConfig = ParserFactory.getCrawlConfig(source);
             fetchRequest = new FetchRequest(url, crawlConfig.getCrawlablePages().get(pageType).getPriority());
+            fetchRequest.setPageType(pageType);
         }
         return fetchRequest;
     }
@@ -116,6 +116,7 @@ public class Constants {
 
     public static final String CONNECTION_TIMEOUT_KEY = "connection_timeout";
     public static final String SOCKET_TIMEOUT_KEY = "socket_timeout";
+    public static final String MAX_CONCURRENT_FETCHES = "max_concurrent_fetches";
     public static final String TASK_BUCKET = "task_bucket";
 
     //Factual Refreshtask Constants
@@ -0,0 +1,35 @@
+package com.intrence.cdg.util;
+
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.intrence.config.ConfigProvider;
+import com.intrence.config.collection.ConfigMap;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process wide metric registry, published over JMX under the "cdg" domain unless metrics_jmx_enabled is false.
+ */
+public class MetricsProvider {
+
+    private static final ConfigMap CONFIG_MAP = ConfigProvider.getConfig();
+    private static final MetricRegistry REGISTRY = new MetricRegistry();
+
+    static {
+        if (CONFIG_MAP.getBoolean("metrics_jmx_enabled", true)) {
+            JmxReporter.forRegistry(REGISTRY)
+                    .inDomain("cdg")
+                    .convertRatesTo(TimeUnit.SECONDS)
+                    .convertDurationsTo(TimeUnit.MILLISECONDS)
+                    .build()
+                    .start();
+        }
+    }
+
+    private MetricsProvider() {
+    }
+
+    public static MetricRegistry getRegistry() {
+        return REGISTRY;
+    }
+}
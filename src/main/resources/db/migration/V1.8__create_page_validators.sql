@@ -0,0 +1,11 @@
+CREATE TABLE page_validators (
+    task_rule_id integer references task_rules(id),
+    fingerprint varchar(64) not null,
+    source varchar(100) not null,
+    url varchar(5000) not null,
+    etag varchar(1000),
+    last_modified varchar(100),
+    content_hash varchar(64) not null,
+    updated_at timestamp DEFAULT current_timestamp,
+    PRIMARY KEY (task_rule_id, fingerprint)
+);
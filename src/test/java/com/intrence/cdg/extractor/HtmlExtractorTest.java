@@ -79,4 +79,11 @@ public class HtmlExtractorTest {
         );
         System.out.println(itemTitle);
     }
+
+    @Test
+    public void spaceBrTagsTest() {
+        assertEquals("a <br>b <br/>c<bra>", HtmlExtractor.spaceBrTags("a<br>b<br/>c<bra>"));
+        String noBr = "<p>no line break</p>";
+        assertTrue(noBr == HtmlExtractor.spaceBrTags(noBr));
+    }
 }
@@ -0,0 +1,70 @@
+package com.intrence.cdg.frontier;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class BloomFilterTest {
+
+    @Test
+    public void testSizing() {
+        BloomFilter filter = new BloomFilter(1000000, 0.01, 1 << 23);
+        // m = -n * ln(p) / ln(2)^2 ~ 9.59 bits per insertion, k = m / n * ln(2) ~ 7
+        Assert.assertEquals(9585059, filter.getNumBits());
+        Assert.assertEquals(7, filter.getNumHashFunctions());
+        Assert.assertEquals(2, filter.getNumSegments());
+        Assert.assertTrue(filter.getSegmentBits() <= 1 << 23);
+        Assert.assertTrue(filter.getSegmentBits() * filter.getNumSegments() >= filter.getNumBits());
+    }
+
+    @Test
+    public void testPositionsWithinSegments() {
+        BloomFilter filter = new BloomFilter(10000, 0.001, 4096);
+        for (int i = 0; i < 1000; i++) {
+            String value = "http://www.example.com/page/" + i;
+            long[] positions = filter.positions(value);
+            Assert.assertEquals(filter.getNumHashFunctions(), positions.length);
+            Assert.assertArrayEquals(positions, filter.positions(value));
+            for (long position : positions) {
+                Assert.assertTrue(position >= 0 && position < filter.getNumBits());
+                Assert.assertTrue(filter.segment(position) < filter.getNumSegments());
+                Assert.assertTrue(filter.offsetInSegment(position) < filter.getSegmentBits());
+            }
+        }
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        int n = 10000;
+        BloomFilter filter = new BloomFilter(n, 0.01, 1 << 23);
+        Set<Long> bits = new HashSet<>();
+        for (int i = 0; i < n; i++) {
+            for (long position : filter.positions("http://www.example.com/item/" + i)) {
+                bits.add(position);
+            }
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < n; i++) {
+            boolean seen = true;
+            for (long position : filter.positions("http://www.example.com/other/" + i)) {
+                seen &= bits.contains(position);
+            }
+            if (seen) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue("falsePositives=" + falsePositives, falsePositives < n * 0.02);
+
+        double fillRatio = (double) bits.size() / filter.getNumBits();
+        Assert.assertEquals(0.5, fillRatio, 0.05);
+        Assert.assertEquals(0.01, filter.estimatedFalsePositiveRate(fillRatio), 0.005);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testBadFalsePositiveRate() {
+        new BloomFilter(1000, 1.5, 1 << 23);
+    }
+}
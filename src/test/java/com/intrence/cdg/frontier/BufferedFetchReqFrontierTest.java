@@ -0,0 +1,58 @@
+package com.intrence.cdg.frontier;
+
+import com.intrence.cdg.net.FetchRequest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+public class BufferedFetchReqFrontierTest {
+
+    private static final int RULE_ID = 1;
+
+    private final InMemoryFetchReqFrontier delegate = new InMemoryFetchReqFrontier(10000, 0.001, 1024);
+
+    @Test
+    public void testDedupeAndSizeTriggeredFlush() {
+        BufferedFetchReqFrontier frontier = new BufferedFetchReqFrontier(delegate, 3, 0);
+        frontier.addAll(RULE_ID, new HashSet<>(Arrays.asList(
+                new FetchRequest("http://www.example.com/a", 1),
+                new FetchRequest("http://www.example.com/b", 1))));
+        frontier.add(RULE_ID, new FetchRequest("http://www.example.com/a", 7));
+        Assert.assertEquals(2, frontier.pendingCount(RULE_ID));
+        Assert.assertEquals(0, delegate.size(RULE_ID));
+
+        frontier.add(RULE_ID, new FetchRequest("http://www.example.com/c", 1));
+        Assert.assertEquals(0, frontier.pendingCount(RULE_ID));
+        Assert.assertEquals(3, delegate.size(RULE_ID));
+        Assert.assertEquals(7, delegate.getNext(RULE_ID).getPriority());
+    }
+
+    @Test
+    public void testFlushedBeforeAckAndClaim() {
+        BufferedFetchReqFrontier frontier = new BufferedFetchReqFrontier(delegate, 100, 0);
+        FetchRequest page = new FetchRequest("http://www.example.com/page", 1);
+        delegate.add(RULE_ID, page);
+        Assert.assertEquals(Collections.singleton(page), frontier.claim(RULE_ID, 1, 60000));
+
+        frontier.add(RULE_ID, new FetchRequest("http://www.example.com/link", 1));
+        frontier.ack(RULE_ID, Collections.singleton(page));
+        Assert.assertEquals(1, delegate.size(RULE_ID));
+
+        frontier.add(RULE_ID, new FetchRequest("http://www.example.com/other", 1));
+        Assert.assertEquals(2, frontier.claim(RULE_ID, 5, 60000).size());
+    }
+
+    @Test
+    public void testTimeTriggeredFlush() throws InterruptedException {
+        BufferedFetchReqFrontier frontier = new BufferedFetchReqFrontier(delegate, 100, 10);
+        frontier.add(RULE_ID, new FetchRequest("http://www.example.com/a", 1));
+        for (int i = 0; i < 100 && delegate.size(RULE_ID) == 0; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, delegate.size(RULE_ID));
+        frontier.shutdown();
+    }
+}
@@ -0,0 +1,142 @@
+package com.intrence.cdg.frontier;
+
+import com.intrence.cdg.net.FetchRequest;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class DiskFetchReqFrontierTest {
+
+    private static final int RULE_ID = 1;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DiskFetchReqFrontier open(int segmentSize, int headBufferSize) {
+        return new DiskFetchReqFrontier(folder.getRoot().toPath(), segmentSize, headBufferSize,
+                new BloomFilter(10000, 0.001, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testPriorityOrderAndDedupe() {
+        DiskFetchReqFrontier frontier = open(4096, 2);
+        frontier.add(RULE_ID, new FetchRequest("http://www.example.com/a", 1));
+        frontier.add(RULE_ID, new FetchRequest("http://www.example.com/c", 3));
+        Assert.assertEquals("http://www.example.com/c", frontier.getNext(RULE_ID).getWorkRequest());
+
+        // added after the head buffer was filled, still served first
+        frontier.add(RULE_ID, new FetchRequest("http://www.example.com/b", 5));
+        frontier.add(RULE_ID, new FetchRequest("http://www.example.com/a", 9));
+
+        Assert.assertEquals(3, frontier.size(RULE_ID));
+        Assert.assertEquals("http://www.example.com/b", frontier.getNext(RULE_ID).getWorkRequest());
+        Assert.assertEquals(new HashSet<>(Arrays.asList(new FetchRequest("http://www.example.com/b", 5),
+                new FetchRequest("http://www.example.com/c", 3))), frontier.claim(RULE_ID, 2, 60000));
+        Assert.assertEquals("http://www.example.com/a", frontier.getNext(RULE_ID).getWorkRequest());
+    }
+
+    @Test
+    public void testClaimAckNack() {
+        DiskFetchReqFrontier frontier = open(4096, 10);
+        FetchRequest high = new FetchRequest("http://www.example.com/high", 5);
+        FetchRequest low = new FetchRequest("http://www.example.com/low", 1);
+        frontier.addAll(RULE_ID, new HashSet<>(Arrays.asList(high, low)));
+
+        Assert.assertEquals(Collections.singleton(high), frontier.claim(RULE_ID, 1, 60000));
+        Assert.assertEquals(Collections.singleton(low), frontier.claim(RULE_ID, 5, 60000));
+        Assert.assertEquals(2, frontier.leasedCount(RULE_ID));
+
+        frontier.nack(RULE_ID, Collections.singleton(high));
+        frontier.ack(RULE_ID, Collections.singleton(low));
+        Assert.assertEquals(0, frontier.leasedCount(RULE_ID));
+        Assert.assertEquals(1, frontier.size(RULE_ID));
+        Assert.assertEquals(high, frontier.getNext(RULE_ID));
+
+        Assert.assertEquals(1, frontier.claim(RULE_ID, 1, -1).size());
+        Assert.assertEquals(1, frontier.reapExpiredLeases(RULE_ID));
+        Assert.assertEquals(high, frontier.getNext(RULE_ID));
+    }
+
+    @Test
+    public void testConsumedSegmentsAreDeleted() {
+        DiskFetchReqFrontier frontier = open(256, 10);
+        for (int i = 0; i < 200; i++) {
+            frontier.add(RULE_ID, new FetchRequest("http://www.example.com/item/" + i, 1));
+        }
+        File ruleDir = new File(folder.getRoot(), String.valueOf(RULE_ID));
+        int segments = ruleDir.list((dir, name) -> name.endsWith(LogSegment.LOG_SUFFIX)).length;
+        Assert.assertTrue(segments > 10);
+
+        Set<FetchRequest> claimed;
+        while (!(claimed = frontier.claim(RULE_ID, 50, 60000)).isEmpty()) {
+            frontier.ack(RULE_ID, claimed);
+        }
+        Assert.assertEquals(0, frontier.size(RULE_ID));
+        Assert.assertEquals(1, ruleDir.list((dir, name) -> name.endsWith(LogSegment.LOG_SUFFIX)).length);
+    }
+
+    @Test
+    public void testDeleteOfRequestsNotInTheLogs() {
+        DiskFetchReqFrontier frontier = open(4096, 2);
+        FetchRequest acked = new FetchRequest("http://www.example.com/acked", 1);
+        frontier.add(RULE_ID, acked);
+        frontier.ack(RULE_ID, frontier.claim(RULE_ID, 1, 60000));
+        for (int i = 0; i < 5; i++) {
+            frontier.add(RULE_ID, new FetchRequest("http://www.example.com/item/" + i, 1));
+        }
+
+        // acked twice, and pending in the logs behind the head buffer
+        frontier.delete(RULE_ID, acked);
+        frontier.delete(RULE_ID, new FetchRequest("http://www.example.com/item/4", 1));
+        Assert.assertEquals(4, frontier.claim(RULE_ID, 10, 60000).size());
+        Assert.assertEquals(0, frontier.size(RULE_ID));
+        Assert.assertFalse(new File(new File(folder.getRoot(), String.valueOf(RULE_ID)), "tombstones").exists());
+        frontier.shutdown();
+    }
+
+    @Test
+    public void testDeleteKey() {
+        DiskFetchReqFrontier frontier = open(256, 10);
+        for (int i = 0; i < 20; i++) {
+            frontier.add(RULE_ID, new FetchRequest("http://www.example.com/item/" + i, 1));
+        }
+        frontier.deleteKey(RULE_ID);
+        Assert.assertFalse(new File(folder.getRoot(), String.valueOf(RULE_ID)).exists());
+        Assert.assertEquals(0, frontier.size(RULE_ID));
+        frontier.shutdown();
+    }
+
+    @Test
+    public void testReplayAfterRestart() {
+        DiskFetchReqFrontier frontier = open(256, 10);
+        for (int i = 0; i < 30; i++) {
+            frontier.add(RULE_ID, new FetchRequest("http://www.example.com/item/" + i, i % 3));
+        }
+        Set<FetchRequest> acked = frontier.claim(RULE_ID, 10, 60000);
+        frontier.ack(RULE_ID, acked);
+        // leased when going down, pending again after the replay
+        frontier.claim(RULE_ID, 5, 60000);
+        frontier.delete(RULE_ID, new FetchRequest("http://www.example.com/item/0", 0));
+        frontier.shutdown();
+
+        DiskFetchReqFrontier reopened = open(256, 10);
+        Assert.assertEquals(19, reopened.size(RULE_ID));
+        reopened.add(RULE_ID, new FetchRequest("http://www.example.com/item/1", 1));
+
+        Set<FetchRequest> pending = reopened.claim(RULE_ID, 100, 60000);
+        Assert.assertEquals(19, pending.size());
+        for (FetchRequest fetchReq : acked) {
+            Assert.assertFalse(pending.contains(fetchReq));
+        }
+        Assert.assertFalse(pending.contains(new FetchRequest("http://www.example.com/item/0", 0)));
+        reopened.shutdown();
+    }
+}
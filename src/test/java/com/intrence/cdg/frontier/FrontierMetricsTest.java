@@ -0,0 +1,46 @@
+package com.intrence.cdg.frontier;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrontierMetricsTest {
+
+    private static final int RULE_ID = 1;
+
+    private final MetricRegistry registry = new MetricRegistry();
+
+    @Test
+    public void testRuleMetrics() {
+        FrontierMetrics metrics = new FrontierMetrics(registry, "test", 0, taskRuleId -> 42, taskRuleId -> 3,
+                taskRuleId -> 0.01);
+        metrics.enqueued(RULE_ID, 10, 6);
+        metrics.dequeued(RULE_ID, 4);
+        metrics.time("RedisClaim", 5);
+
+        Assert.assertEquals(10, registry.meter("frontier.test.1.enqueued").getCount());
+        Assert.assertEquals(6, registry.meter("frontier.test.1.admitted").getCount());
+        Assert.assertEquals(4, registry.meter("frontier.test.1.seenHits").getCount());
+        Assert.assertEquals(4, registry.meter("frontier.test.1.dequeued").getCount());
+        Assert.assertEquals(1, registry.timer("frontier.test.RedisClaim").getCount());
+        Assert.assertEquals(42L, registry.getGauges().get("frontier.test.1.pending").getValue());
+        Assert.assertEquals(3L, registry.getGauges().get("frontier.test.1.inFlight").getValue());
+        Assert.assertEquals(0.01, registry.getGauges().get("frontier.test.1.seenFalsePositiveRate").getValue());
+    }
+
+    @Test
+    public void testRemoveRule() {
+        FrontierMetrics metrics = new FrontierMetrics(registry, "test", 0, taskRuleId -> 0, taskRuleId -> 0,
+                taskRuleId -> 0);
+        metrics.enqueued(RULE_ID, 1, 1);
+        metrics.enqueued(11, 1, 1);
+        metrics.time("RedisAddAll", 1);
+
+        metrics.removeRule(RULE_ID);
+        for (String name : registry.getNames()) {
+            Assert.assertFalse(name, name.startsWith("frontier.test.1."));
+        }
+        Assert.assertTrue(registry.getNames().contains("frontier.test.11.enqueued"));
+        Assert.assertTrue(registry.getNames().contains("frontier.test.RedisAddAll"));
+    }
+}
@@ -0,0 +1,89 @@
+package com.intrence.cdg.frontier;
+
+import com.intrence.cdg.net.FetchRequest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+public class InMemoryFetchReqFrontierTest {
+
+    private static final int RULE_ID = 1;
+
+    private final InMemoryFetchReqFrontier frontier = new InMemoryFetchReqFrontier(10000, 0.001, 1024);
+
+    @Test
+    public void testPriorityOrderAndDedupe() {
+        frontier.addAll(RULE_ID, new HashSet<>(Arrays.asList(
+                new FetchRequest("http://www.example.com/a", 1),
+                new FetchRequest("http://www.example.com/b", 5),
+                new FetchRequest("http://www.example.com/c", 3))));
+        // same url at another priority is a duplicate
+        frontier.add(RULE_ID, new FetchRequest("http://www.example.com/a", 9));
+
+        Assert.assertEquals(3, frontier.size(RULE_ID));
+        Assert.assertEquals("http://www.example.com/b", frontier.getNext(RULE_ID).getWorkRequest());
+        Assert.assertEquals(2, frontier.getTopK(RULE_ID, 2).size());
+        Assert.assertEquals(3, frontier.size(RULE_ID));
+    }
+
+    @Test
+    public void testClaimAckNack() {
+        FetchRequest high = new FetchRequest("http://www.example.com/high", 5);
+        FetchRequest low = new FetchRequest("http://www.example.com/low", 1);
+        frontier.addAll(RULE_ID, new HashSet<>(Arrays.asList(high, low)));
+
+        Set<FetchRequest> claimed = frontier.claim(RULE_ID, 1, 60000);
+        Assert.assertEquals(Collections.singleton(high), claimed);
+        Assert.assertEquals(1, frontier.leasedCount(RULE_ID));
+        Assert.assertEquals(Collections.singleton(low), frontier.claim(RULE_ID, 5, 60000));
+
+        frontier.nack(RULE_ID, Collections.singleton(high));
+        frontier.ack(RULE_ID, Collections.singleton(low));
+        Assert.assertEquals(0, frontier.leasedCount(RULE_ID));
+        Assert.assertEquals(1, frontier.size(RULE_ID));
+        Assert.assertEquals(high, frontier.getNext(RULE_ID));
+
+        // acked requests stay seen
+        frontier.add(RULE_ID, low);
+        Assert.assertEquals(1, frontier.size(RULE_ID));
+    }
+
+    @Test
+    public void testReapExpiredLeases() {
+        frontier.add(RULE_ID, new FetchRequest("http://www.example.com/a", 1));
+        Assert.assertEquals(1, frontier.claim(RULE_ID, 1, -1).size());
+        Assert.assertEquals(0, frontier.size(RULE_ID));
+
+        Assert.assertEquals(1, frontier.reapExpiredLeases(RULE_ID));
+        Assert.assertEquals(1, frontier.size(RULE_ID));
+        Assert.assertEquals(0, frontier.leasedCount(RULE_ID));
+    }
+
+    @Test
+    public void testPayloadsSurviveCompaction() {
+        for (int i = 0; i < 2000; i++) {
+            frontier.add(RULE_ID, new FetchRequest("http://www.example.com/item/" + i, i % 10));
+        }
+        Set<FetchRequest> done = frontier.claim(RULE_ID, 1500, 60000);
+        frontier.ack(RULE_ID, done);
+
+        Set<FetchRequest> rest = frontier.claim(RULE_ID, 1000, 60000);
+        Assert.assertEquals(500, rest.size());
+        for (FetchRequest fetchReq : rest) {
+            Assert.assertTrue(fetchReq.getWorkRequest().startsWith("http://www.example.com/item/"));
+            Assert.assertFalse(done.contains(fetchReq));
+        }
+    }
+
+    @Test
+    public void testDeleteKey() {
+        frontier.add(RULE_ID, new FetchRequest("http://www.example.com/a", 1));
+        frontier.deleteKey(RULE_ID);
+        Assert.assertNull(frontier.getNext(RULE_ID));
+        Assert.assertFalse(frontier.isSeen(RULE_ID, new FetchRequest("http://www.example.com/a", 1)));
+    }
+}
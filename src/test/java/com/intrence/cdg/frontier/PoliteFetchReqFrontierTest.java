@@ -0,0 +1,104 @@
+package com.intrence.cdg.frontier;
+
+import com.intrence.cdg.net.FetchRequest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class PoliteFetchReqFrontierTest {
+
+    private static final int RULE_ID = 1;
+
+    private final InMemoryFetchReqFrontier delegate = new InMemoryFetchReqFrontier(10000, 0.001, 1024);
+
+    @Test
+    public void testInterleavesHosts() {
+        PoliteFetchReqFrontier frontier = new PoliteFetchReqFrontier(delegate, 60000, 1, 10, 1000);
+        for (int i = 0; i < 5; i++) {
+            // the busy host has all the top priority urls
+            frontier.add(RULE_ID, new FetchRequest("http://www.busy.com/item/" + i, 10));
+        }
+        frontier.add(RULE_ID, new FetchRequest("http://www.quiet.com/a", 1));
+        frontier.add(RULE_ID, new FetchRequest("http://www.other.com/a", 1));
+
+        Set<FetchRequest> claimed = frontier.claim(RULE_ID, 5, 60000);
+        Set<String> hosts = new HashSet<>();
+        for (FetchRequest fetchReq : claimed) {
+            hosts.add(fetchReq.getHost());
+        }
+        Assert.assertEquals(3, claimed.size());
+        Assert.assertEquals(3, hosts.size());
+        Assert.assertEquals(4, frontier.bufferedCount(RULE_ID));
+        Assert.assertEquals(7, frontier.leasedCount(RULE_ID));
+
+        // the busy host is neither free nor due yet
+        frontier.ack(RULE_ID, claimed);
+        Assert.assertTrue(frontier.claim(RULE_ID, 5, 60000).isEmpty());
+    }
+
+    @Test
+    public void testHostConcurrency() {
+        PoliteFetchReqFrontier frontier = new PoliteFetchReqFrontier(delegate, 0, 2, 10, 1000);
+        for (int i = 0; i < 5; i++) {
+            frontier.add(RULE_ID, new FetchRequest("http://www.busy.com/item/" + i, 1));
+        }
+
+        Set<FetchRequest> claimed = frontier.claim(RULE_ID, 5, 60000);
+        Assert.assertEquals(2, claimed.size());
+        Assert.assertTrue(frontier.claim(RULE_ID, 5, 60000).isEmpty());
+
+        FetchRequest done = claimed.iterator().next();
+        frontier.ack(RULE_ID, Collections.singleton(done));
+        Assert.assertEquals(1, frontier.claim(RULE_ID, 5, 60000).size());
+    }
+
+    @Test
+    public void testHostConcurrencyPerDelayWindow() {
+        PoliteFetchReqFrontier frontier = new PoliteFetchReqFrontier(delegate, 60000, 2, 10, 1000);
+        for (int i = 0; i < 5; i++) {
+            frontier.add(RULE_ID, new FetchRequest("http://www.busy.com/item/" + i, 1));
+        }
+
+        // two dispatches within the window, the third has to wait for the oldest to be delayMillis old
+        Set<FetchRequest> claimed = frontier.claim(RULE_ID, 5, 60000);
+        Assert.assertEquals(2, claimed.size());
+        frontier.ack(RULE_ID, claimed);
+        Assert.assertTrue(frontier.claim(RULE_ID, 5, 60000).isEmpty());
+    }
+
+    @Test
+    public void testLeaseTakenWhenBuffered() throws InterruptedException {
+        PoliteFetchReqFrontier frontier = new PoliteFetchReqFrontier(delegate, 50, 1, 10, 1000);
+        frontier.add(RULE_ID, new FetchRequest("http://www.busy.com/a", 1));
+        frontier.add(RULE_ID, new FetchRequest("http://www.busy.com/b", 1));
+
+        long leaseExpiry = System.currentTimeMillis() + 60000;
+        Map<FetchRequest, Long> first = frontier.claimWithLeases(RULE_ID, 2, 60000);
+        Assert.assertEquals(1, first.size());
+        frontier.ack(RULE_ID, first.keySet());
+        Thread.sleep(100);
+
+        // the second one was leased in the delegate along with the first, not when dispatched
+        Map<FetchRequest, Long> second = frontier.claimWithLeases(RULE_ID, 2, 60000);
+        Assert.assertEquals(1, second.size());
+        Assert.assertTrue(second.values().iterator().next() <= leaseExpiry + 50);
+    }
+
+    @Test
+    public void testStaleBufferedRequestsGoBack() {
+        PoliteFetchReqFrontier frontier = new PoliteFetchReqFrontier(delegate, 60000, 1, 10, 1000);
+        frontier.add(RULE_ID, new FetchRequest("http://www.busy.com/a", 1));
+        frontier.add(RULE_ID, new FetchRequest("http://www.busy.com/b", 1));
+
+        Assert.assertEquals(1, frontier.claim(RULE_ID, 2, 0).size());
+        Assert.assertEquals(1, frontier.bufferedCount(RULE_ID));
+
+        frontier.reapExpiredLeases(RULE_ID);
+        Assert.assertEquals(0, frontier.bufferedCount(RULE_ID));
+        Assert.assertEquals(2, delegate.size(RULE_ID));
+    }
+}
@@ -0,0 +1,102 @@
+package com.intrence.cdg.frontier;
+
+import com.intrence.cdg.net.FetchRequest;
+import com.intrence.cdg.net.FetchRequestCodec;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class RedisFrontierSnapshotTest {
+
+    private static final int RULE_ID = 1;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final BloomFilter seenFilter = new BloomFilter(10000, 0.01, 4096);
+
+    private Path write(int numRecords) throws IOException {
+        Path file = folder.getRoot().toPath().resolve("snapshot.gz");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            RedisFrontierSnapshot.Writer writer = new RedisFrontierSnapshot.Writer(out, seenFilter);
+            for (int segment = 0; segment < seenFilter.getNumSegments(); segment++) {
+                writer.writeSegment(new byte[] {(byte) segment, 1});
+            }
+            for (int i = 0; i < numRecords; i++) {
+                FetchRequest fetchReq = new FetchRequest("http://www.example.com/item/" + i, i % 3);
+                writer.writeRecord(fetchReq.getPriority(), fetchReq.getFingerprint(),
+                        FetchRequestCodec.toBinary(fetchReq));
+            }
+            Assert.assertEquals(numRecords, writer.finish());
+        }
+        return file;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Path file = write(2500);
+        Assert.assertEquals(2500, RedisFrontierSnapshot.verify(file));
+
+        try (RedisFrontierSnapshot.Reader reader = new RedisFrontierSnapshot.Reader(Files.newInputStream(file))) {
+            Assert.assertTrue(reader.sameLayout(seenFilter));
+            Assert.assertEquals(seenFilter.getNumSegments(), reader.numSegments);
+            for (int segment = 0; segment < reader.numSegments; segment++) {
+                Assert.assertArrayEquals(new byte[] {(byte) segment, 1}, reader.readSegment());
+            }
+            for (int i = 0; i < 2500; i++) {
+                RedisFrontierSnapshot.Record record = reader.readRecord();
+                FetchRequest fetchReq = FetchRequestCodec.decode(record.payload);
+                Assert.assertEquals("http://www.example.com/item/" + i, fetchReq.getWorkRequest());
+                Assert.assertEquals(fetchReq.getFingerprint(), record.id);
+                Assert.assertEquals(i % 3, record.priority, 0);
+            }
+            Assert.assertNull(reader.readRecord());
+        }
+    }
+
+    @Test
+    public void testLayoutMismatch() throws IOException {
+        Path file = write(10);
+        try (RedisFrontierSnapshot.Reader reader = new RedisFrontierSnapshot.Reader(Files.newInputStream(file))) {
+            Assert.assertFalse(reader.sameLayout(new BloomFilter(1000000, 0.01, 4096)));
+        }
+    }
+
+    @Test
+    public void testTruncatedSnapshotLeavesTheRuleAlone() throws IOException {
+        Path file = write(2500);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length / 2));
+
+        try {
+            RedisFrontierSnapshot.verify(file);
+            Assert.fail("truncated snapshot verified");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // no redis: the restore has to fail before deleting or writing anything
+        RedisFrontierSnapshot snapshot = new RedisFrontierSnapshot(seenFilter,
+                taskRuleId -> Assert.fail("rule deleted before the snapshot was checked"));
+        try {
+            snapshot.restore(null, RULE_ID, file);
+            Assert.fail("truncated snapshot restored");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test (expected = IOException.class)
+    public void testNotASnapshot() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("snapshot.gz");
+        Files.write(file, "{\"workRequest\":\"http://www.example.com\"}".getBytes());
+        RedisFrontierSnapshot.verify(file);
+    }
+}
@@ -0,0 +1,64 @@
+package com.intrence.cdg.frontier;
+
+import com.intrence.cdg.net.FetchRequest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class ShardedFetchReqFrontierTest {
+
+    private static final int RULE_ID = 1;
+
+    private final List<FetchRequestFrontier> shards = new ArrayList<>();
+
+    private ShardedFetchReqFrontier sharded(ShardedFetchReqFrontier.ShardKey shardKey) {
+        for (int i = 0; i < 3; i++) {
+            shards.add(new InMemoryFetchReqFrontier(10000, 0.001, 1024));
+        }
+        return new ShardedFetchReqFrontier(Arrays.asList("r1:6379", "r2:6379", "r3:6379"), shards, shardKey);
+    }
+
+    @Test
+    public void testClaimTakesGlobalTopK() {
+        ShardedFetchReqFrontier frontier = sharded(ShardedFetchReqFrontier.ShardKey.FINGERPRINT);
+        Set<FetchRequest> all = new HashSet<>();
+        for (int i = 0; i < 300; i++) {
+            all.add(new FetchRequest("http://www.example.com/item/" + i, i));
+        }
+        frontier.addAll(RULE_ID, all);
+        frontier.addAll(RULE_ID, all);
+
+        int used = 0;
+        for (FetchRequestFrontier shard : shards) {
+            used += ((InMemoryFetchReqFrontier) shard).size(RULE_ID) > 0 ? 1 : 0;
+        }
+        Assert.assertEquals(3, used);
+        Assert.assertEquals(Arrays.asList(299, 298, 297), frontier.peekPriorities(RULE_ID, 3));
+
+        Set<FetchRequest> claimed = frontier.claim(RULE_ID, 10, 60000);
+        Assert.assertEquals(10, claimed.size());
+        for (FetchRequest fetchReq : claimed) {
+            Assert.assertTrue(fetchReq.getPriority() >= 290);
+        }
+        Assert.assertEquals(10, frontier.leasedCount(RULE_ID));
+
+        frontier.ack(RULE_ID, claimed);
+        Assert.assertEquals(0, frontier.leasedCount(RULE_ID));
+        Assert.assertEquals(289, frontier.getNext(RULE_ID).getPriority());
+    }
+
+    @Test
+    public void testHostKeyKeepsHostOnOneShard() {
+        ShardedFetchReqFrontier frontier = sharded(ShardedFetchReqFrontier.ShardKey.HOST);
+        Set<Integer> owners = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            owners.add(frontier.shardFor(new FetchRequest("http://www.example.com/item/" + i, 1)));
+        }
+        Assert.assertEquals(1, owners.size());
+    }
+}
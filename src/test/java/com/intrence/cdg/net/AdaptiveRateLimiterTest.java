@@ -0,0 +1,93 @@
+package com.intrence.cdg.net;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveRateLimiterTest {
+
+    private static final String HOST = "www.example.com";
+    private static final String OTHER_HOST = "api.example.com";
+    private static final double DELTA = 0.001;
+
+    private AdaptiveRateLimiter limiter() {
+        return new AdaptiveRateLimiter("test", 10, 0.05, 0.5, 0.02, 1000);
+    }
+
+    @Test
+    public void testBackoffOncePerCooldown() {
+        AdaptiveRateLimiter limiter = limiter();
+        limiter.onResponse(HOST, 429, 100);
+        Assert.assertEquals(5, limiter.getRate(), DELTA);
+        Assert.assertEquals(5, limiter.getRate(HOST), DELTA);
+
+        // responses to requests sent before the backoff do not cut it again
+        limiter.onResponse(HOST, 503, 100);
+        limiter.onTimeout(HOST);
+        Assert.assertEquals(5, limiter.getRate(), DELTA);
+    }
+
+    @Test
+    public void testTryAcquireDoesNotWait() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter("test", 1, 0.05, 0.5, 0.02, 1000);
+        Assert.assertEquals(0, limiter.tryAcquire(HOST));
+        // next permit of the host in about a second
+        long retryMillis = limiter.tryAcquire(HOST);
+        Assert.assertTrue(retryMillis > 0 && retryMillis <= 1000);
+    }
+
+    @Test
+    public void testHostPermitGivenBackWhenSourceHasNone() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter("test", 1, 0.05, 0.5, 0.02, 1000);
+        // source at a permit every 2s, the other host still at one per second
+        limiter.onTimeout(HOST);
+        Assert.assertEquals(0, limiter.tryAcquire(HOST));
+
+        Assert.assertEquals(2000, limiter.tryAcquire(OTHER_HOST));
+        // the permit of the other host was handed back, it is still the source holding the request back
+        Assert.assertEquals(2000, limiter.tryAcquire(OTHER_HOST));
+    }
+
+    @Test
+    public void testIncreaseUpToCeiling() {
+        AdaptiveRateLimiter limiter = limiter();
+        limiter.onTimeout(HOST);
+        Assert.assertEquals(5, limiter.getRate(), DELTA);
+
+        // slow or failed responses do not increase the rate
+        limiter.onResponse(HOST, 200, 2000);
+        limiter.onResponse(HOST, 404, 100);
+        Assert.assertEquals(5, limiter.getRate(), DELTA);
+
+        for (int i = 0; i < 1000; i++) {
+            limiter.onResponse(HOST, 200, 100);
+        }
+        Assert.assertEquals(10, limiter.getRate(), DELTA);
+        Assert.assertEquals(10, limiter.getRate(HOST), DELTA);
+    }
+
+    @Test
+    public void testHostsBackOffIndependently() {
+        AdaptiveRateLimiter limiter = limiter();
+        limiter.onResponse(OTHER_HOST, 200, 100);
+        limiter.onResponse(HOST, 429, 100);
+        Assert.assertEquals(5, limiter.getRate(HOST), DELTA);
+        Assert.assertEquals(10, limiter.getRate(OTHER_HOST), DELTA);
+    }
+
+    @Test
+    public void testSetCeilingCapsRates() {
+        AdaptiveRateLimiter limiter = limiter();
+        limiter.onResponse(HOST, 200, 100);
+        limiter.setCeiling(2);
+        Assert.assertEquals(2, limiter.getRate(), DELTA);
+        Assert.assertEquals(2, limiter.getRate(HOST), DELTA);
+
+        // a higher ceiling is reached by increases only
+        limiter.setCeiling(4);
+        Assert.assertEquals(2, limiter.getRate(), DELTA);
+        for (int i = 0; i < 1000; i++) {
+            limiter.onResponse(HOST, 200, 100);
+        }
+        Assert.assertEquals(4, limiter.getRate(), DELTA);
+    }
+}
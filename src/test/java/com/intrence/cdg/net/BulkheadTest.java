@@ -0,0 +1,48 @@
+package com.intrence.cdg.net;
+
+import com.intrence.cdg.exception.CdgBackendException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BulkheadTest {
+
+    @Test
+    public void testRejectedWhenFull() throws Exception {
+        Bulkhead bulkhead = new Bulkhead("test", 2);
+        bulkhead.enter(0);
+        bulkhead.enter(0);
+        Assert.assertEquals(2, bulkhead.getInFlight());
+        try {
+            bulkhead.enter(10);
+            Assert.fail("Expected the bulkhead to be full");
+        } catch (CdgBackendException e) {
+            Assert.assertTrue(e.getMessage().contains("BulkheadFull"));
+        }
+
+        bulkhead.exit();
+        bulkhead.enter(0);
+        Assert.assertEquals(2, bulkhead.getInFlight());
+    }
+
+    @Test
+    public void testSetLimit() throws Exception {
+        Bulkhead bulkhead = new Bulkhead("test", 2);
+        bulkhead.enter(0);
+        bulkhead.enter(0);
+
+        // fetches in flight above the lower limit finish, the next one waits for the in flight count to go below it
+        bulkhead.setLimit(1);
+        bulkhead.exit();
+        try {
+            bulkhead.enter(0);
+            Assert.fail("Expected the bulkhead to be full");
+        } catch (CdgBackendException e) {
+            Assert.assertEquals(1, bulkhead.getInFlight());
+        }
+
+        bulkhead.setLimit(3);
+        bulkhead.enter(0);
+        bulkhead.enter(0);
+        Assert.assertEquals(3, bulkhead.getInFlight());
+    }
+}
@@ -0,0 +1,64 @@
+package com.intrence.cdg.net;
+
+import com.intrence.cdg.exception.FetchRejectedException;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    private static final String HOST = "www.example.com";
+    private static final String OTHER_HOST = "api.example.com";
+
+    @Test
+    public void testHostCircuitOpensAfterConsecutiveFailures() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", 3, 60000);
+        circuitBreaker.onFailure(HOST);
+        circuitBreaker.onFailure(HOST);
+        circuitBreaker.onSuccess(OTHER_HOST);
+        circuitBreaker.onFailure(HOST);
+
+        Assert.assertTrue(circuitBreaker.isOpen(HOST));
+        Assert.assertFalse(circuitBreaker.isOpen());
+        Assert.assertEquals(1, circuitBreaker.openHostCount());
+        circuitBreaker.checkAllowed(OTHER_HOST);
+        try {
+            circuitBreaker.checkAllowed(HOST);
+            Assert.fail("Expected the circuit of the host to be open");
+        } catch (FetchRejectedException e) {
+            Assert.assertTrue(e.getMessage().contains("CircuitOpen"));
+            Assert.assertTrue(e.getRetryAfterMillis() > 0 && e.getRetryAfterMillis() <= 60000);
+        }
+    }
+
+    @Test
+    public void testSourceCircuitOpensForAllHosts() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", 3, 60000);
+        for (int i = 0; i < 3; i++) {
+            circuitBreaker.onFailure("host" + i + ".example.com");
+        }
+        Assert.assertTrue(circuitBreaker.isOpen());
+        try {
+            circuitBreaker.checkAllowed(OTHER_HOST);
+            Assert.fail("Expected the circuit of the source to be open");
+        } catch (FetchRejectedException e) {
+            Assert.assertTrue(e.getMessage().contains("CircuitOpen"));
+        }
+    }
+
+    @Test
+    public void testHalfOpenProbe() throws Exception {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", 1, 0);
+        circuitBreaker.onFailure(HOST);
+        Assert.assertTrue(circuitBreaker.isOpen(HOST));
+
+        // open time already over, the next request is the probe and a failed probe opens the circuit again
+        circuitBreaker.checkAllowed(HOST);
+        circuitBreaker.onFailure(HOST);
+        Assert.assertTrue(circuitBreaker.isOpen(HOST));
+
+        circuitBreaker.checkAllowed(HOST);
+        circuitBreaker.onSuccess(HOST);
+        Assert.assertFalse(circuitBreaker.isOpen(HOST));
+        Assert.assertFalse(circuitBreaker.isOpen());
+    }
+}
@@ -0,0 +1,59 @@
+package com.intrence.cdg.net;
+
+import org.apache.http.client.methods.HttpPost;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+public class FetchRequestCodecTest {
+
+    @Test
+    public void testBinaryRoundTrip() {
+        Map<String, String> params = new HashMap<>();
+        params.put("page_type", "product");
+        params.put("category", "shöes");
+        FetchRequest fetchReq = new FetchRequest("http://www.example.com/search", 7, HttpPost.METHOD_NAME,
+                "q=shoes", params, "cached");
+
+        byte[] payload = FetchRequestCodec.toBinary(fetchReq);
+        Assert.assertTrue(FetchRequestCodec.isBinary(payload));
+
+        FetchRequest decoded = FetchRequestCodec.decode(payload);
+        Assert.assertEquals(fetchReq, decoded);
+        Assert.assertEquals(fetchReq.getFingerprint(), decoded.getFingerprint());
+    }
+
+    @Test
+    public void testCustomMethodAndMinimalRequest() {
+        FetchRequest fetchReq = new FetchRequest("factual-id-1234", 0, "PROPFIND", null);
+        Assert.assertEquals(fetchReq, FetchRequestCodec.decode(FetchRequestCodec.toBinary(fetchReq)));
+
+        FetchRequest noMethod = new FetchRequest("factual-id-1234", -3, null, null);
+        Assert.assertEquals(noMethod, FetchRequestCodec.decode(FetchRequestCodec.toBinary(noMethod)));
+    }
+
+    @Test
+    public void testDepthAndPageType() {
+        FetchRequest fetchReq = new FetchRequest("http://www.example.com/shoes?page=3", 2);
+        fetchReq.setDepth(3);
+        fetchReq.setPageType("page");
+
+        FetchRequest decoded = FetchRequestCodec.decode(FetchRequestCodec.toBinary(fetchReq));
+        Assert.assertEquals(3, decoded.getDepth());
+        Assert.assertEquals("page", decoded.getPageType());
+    }
+
+    @Test
+    public void testLegacyJsonIsNotBinary() {
+        Assert.assertFalse(FetchRequestCodec.isBinary(
+                "{\"workRequest\":\"http://www.example.com\",\"priority\":1}".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testUnknownFormat() {
+        new FetchRequestCodec("avro");
+    }
+}
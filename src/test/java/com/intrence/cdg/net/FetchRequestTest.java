@@ -0,0 +1,31 @@
+package com.intrence.cdg.net;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class FetchRequestTest {
+
+    @Test
+    public void testFingerprintIgnoresPriorityAndParams() {
+        FetchRequest req = new FetchRequest("http://www.example.com/shoes?page=2", 1);
+        FetchRequest samePage = new FetchRequest("http://www.example.com/shoes?page=2", 5, HttpGet.METHOD_NAME, null,
+                Collections.singletonMap("category", "shoes"));
+
+        Assert.assertEquals(32, req.getFingerprint().length());
+        Assert.assertEquals(req.getFingerprint(), samePage.getFingerprint());
+    }
+
+    @Test
+    public void testFingerprintDependsOnMethodAndBody() {
+        FetchRequest get = new FetchRequest("http://www.example.com/search", 1);
+        FetchRequest post = new FetchRequest("http://www.example.com/search", 1, HttpPost.METHOD_NAME, "q=shoes");
+        FetchRequest otherPost = new FetchRequest("http://www.example.com/search", 1, HttpPost.METHOD_NAME, "q=bags");
+
+        Assert.assertFalse(get.getFingerprint().equals(post.getFingerprint()));
+        Assert.assertFalse(post.getFingerprint().equals(otherPost.getFingerprint()));
+    }
+}
@@ -0,0 +1,39 @@
+package com.intrence.cdg.net;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PageValidatorTest {
+
+    private static final String URL = "http://www.example.com/product/1";
+
+    @Test
+    public void testFromResponse() {
+        RequestResponse response = new RequestResponse(new FetchRequest(URL, 1), "<html>page</html>", 200);
+        response.addHeader(HttpHeaders.ETAG, "\"v1\"");
+
+        PageValidator validator = PageValidator.fromResponse(response);
+        Assert.assertEquals("\"v1\"", validator.getEtag());
+        Assert.assertNull(validator.getLastModified());
+        Assert.assertEquals(PageValidator.contentHash("<html>page</html>"), validator.getContentHash());
+        Assert.assertNotEquals(PageValidator.contentHash("<html>page 2</html>"), validator.getContentHash());
+        Assert.assertNull(PageValidator.fromResponse(new RequestResponse(new FetchRequest(URL, 1), (String) null, 304)));
+    }
+
+    @Test
+    public void testConditionalHeaders() {
+        RequestBuilder requestBuilder = RequestBuilder.get(URL);
+        new PageValidator("\"v1\"", "Wed, 21 Oct 2015 07:28:00 GMT", "hash").addConditionalHeaders(requestBuilder);
+        HttpUriRequest request = requestBuilder.build();
+        Assert.assertEquals("\"v1\"", request.getFirstHeader(HttpHeaders.IF_NONE_MATCH).getValue());
+        Assert.assertEquals("Wed, 21 Oct 2015 07:28:00 GMT",
+                request.getFirstHeader(HttpHeaders.IF_MODIFIED_SINCE).getValue());
+
+        requestBuilder = RequestBuilder.get(URL);
+        new PageValidator(null, null, "hash").addConditionalHeaders(requestBuilder);
+        Assert.assertNull(requestBuilder.build().getFirstHeader(HttpHeaders.IF_NONE_MATCH));
+    }
+}
@@ -0,0 +1,87 @@
+package com.intrence.cdg.net;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ProxyPoolTest {
+
+    private static final String URL = "http://www.example.com/page";
+
+    private ProxyPool pool(long ejectMillis, boolean stickySessions) {
+        return new ProxyPool(Arrays.asList("p1:8080:user:pw", "p2:8080:user:pw", "invalid", "p3:port:user:pw", ""), 3, ejectMillis, 1000,
+                stickySessions);
+    }
+
+    @Test
+    public void testInvalidLinesSkipped() {
+        Assert.assertEquals(2, pool(1000, false).getProxies().size());
+    }
+
+    @Test
+    public void testSelectionWeightedByHealth() throws Exception {
+        ProxyPool pool = pool(60000, false);
+        ProxyPool.Proxy healthy = pool.getProxies().get(0);
+        ProxyPool.Proxy failing = pool.getProxies().get(1);
+        for (int i = 0; i < 20; i++) {
+            pool.record(healthy, true, 100);
+            pool.record(failing, i % 2 == 0, 3000);
+        }
+
+        Map<ProxyPool.Proxy, Integer> picks = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            picks.merge(pool.select(URL), 1, Integer::sum);
+        }
+        Assert.assertTrue(picks.toString(), picks.get(healthy) > 4 * picks.getOrDefault(failing, 0));
+    }
+
+    @Test
+    public void testEjectedProxyNotSelected() throws Exception {
+        ProxyPool pool = pool(60000, false);
+        ProxyPool.Proxy failing = pool.getProxies().get(1);
+        for (int i = 0; i < 3; i++) {
+            pool.record(failing, false, 100);
+        }
+        Assert.assertTrue(failing.isEjected());
+        Assert.assertEquals(1, pool.ejectedCount());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertNotSame(failing, pool.select(URL));
+        }
+    }
+
+    @Test
+    public void testProbeReinstatesOrEjectsAgain() throws Exception {
+        ProxyPool pool = pool(0, false);
+        ProxyPool.Proxy failing = pool.getProxies().get(1);
+        for (int i = 0; i < 3; i++) {
+            pool.record(failing, false, 100);
+        }
+        Assert.assertTrue(failing.isEjected());
+
+        // ejection already over, the next request probes it and a failed probe ejects it again
+        Assert.assertSame(failing, pool.select(URL));
+        pool.record(failing, false, 100);
+        Assert.assertTrue(failing.isEjected());
+
+        Assert.assertSame(failing, pool.select(URL));
+        pool.record(failing, true, 100);
+        Assert.assertFalse(failing.isEjected());
+    }
+
+    @Test
+    public void testStickySessionPerHost() throws Exception {
+        ProxyPool pool = pool(60000, true);
+        ProxyPool.Proxy first = pool.select(URL);
+        for (int i = 0; i < 20; i++) {
+            Assert.assertSame(first, pool.select("http://www.example.com/other" + i));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            pool.record(first, false, 100);
+        }
+        Assert.assertNotSame(first, pool.select(URL));
+    }
+}
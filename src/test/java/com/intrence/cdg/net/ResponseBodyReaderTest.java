@@ -0,0 +1,98 @@
+package com.intrence.cdg.net;
+
+import com.intrence.cdg.exception.CdgBackendException;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class ResponseBodyReaderTest {
+
+    private static final String PAGE = "<html><head><meta charset=\"windows-1252\"></head><body>café</body></html>";
+
+    private final ResponseBodyReader reader = new ResponseBodyReader(1024, StandardCharsets.UTF_8);
+
+    @Test
+    public void testCharsetDetection() throws Exception {
+        byte[] cp1252 = PAGE.getBytes("windows-1252");
+        // from the meta tag
+        Assert.assertEquals(PAGE, reader.read(new ByteArrayEntity(cp1252)));
+        // the header wins over the meta tag
+        Assert.assertEquals(PAGE, reader.read(new ByteArrayEntity(PAGE.getBytes(StandardCharsets.UTF_8),
+                ContentType.create("text/html", StandardCharsets.UTF_8))));
+        // a byte order mark wins over the header
+        byte[] bom = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF, 'o', 'k'};
+        Assert.assertEquals("ok", reader.read(new ByteArrayEntity(bom,
+                ContentType.create("text/html", StandardCharsets.ISO_8859_1))));
+        // default charset otherwise
+        Assert.assertEquals("café", reader.read(new ByteArrayEntity("café".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void testContentEncoding() throws Exception {
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(PAGE.getBytes(StandardCharsets.UTF_8));
+        }
+        ByteArrayEntity entity = new ByteArrayEntity(gzipped.toByteArray(),
+                ContentType.create("text/html", StandardCharsets.UTF_8));
+        entity.setContentEncoding("gzip");
+        Assert.assertEquals(PAGE, reader.read(entity));
+
+        // raw deflate, without the zlib header
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(deflated, new Deflater(Deflater.DEFAULT_COMPRESSION,
+                true))) {
+            out.write(PAGE.getBytes(StandardCharsets.UTF_8));
+        }
+        entity = new ByteArrayEntity(deflated.toByteArray(), ContentType.create("text/html", StandardCharsets.UTF_8));
+        entity.setContentEncoding("deflate");
+        Assert.assertEquals(PAGE, reader.read(entity));
+    }
+
+    @Test
+    public void testPooledBody() throws Exception {
+        BufferPool pool = new BufferPool(1024 * 1024);
+        ResponseBodyReader pooledReader = new ResponseBodyReader(64 * 1024, StandardCharsets.UTF_8, pool);
+        // larger than the first buffer
+        String page = new String(new char[20000]).replace('\0', 'é') + PAGE;
+        ResponseBody body = pooledReader.readBody(new ByteArrayEntity(page.getBytes(StandardCharsets.UTF_8),
+                ContentType.create("text/html", StandardCharsets.UTF_8)));
+        Assert.assertEquals(page.length(), body.length());
+        Assert.assertEquals('é', body.charAt(0));
+        Assert.assertEquals(PageValidator.contentHash(page), PageValidator.contentHash(body));
+        Assert.assertEquals(page, body.toString());
+        Assert.assertEquals(0, pool.getPooledBytes());
+
+        body.release();
+        Assert.assertTrue(pool.getPooledBytes() > 0);
+        // the String stays valid, the buffers are reused by the next body
+        Assert.assertEquals(page, body.toString());
+        long pooled = pool.getPooledBytes();
+        ResponseBody next = pooledReader.readBody(new ByteArrayEntity(page.getBytes(StandardCharsets.UTF_8)));
+        Assert.assertTrue(pool.getPooledBytes() < pooled);
+        next.release();
+    }
+
+    @Test(expected = CdgBackendException.class)
+    public void testBodyOverCap() throws Exception {
+        reader.read(new ByteArrayEntity(new byte[2048]));
+    }
+
+    @Test(expected = CdgBackendException.class)
+    public void testDecompressedBodyOverCap() throws Exception {
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(new byte[64 * 1024]);
+        }
+        ByteArrayEntity entity = new ByteArrayEntity(gzipped.toByteArray());
+        entity.setContentEncoding("gzip");
+        reader.read(entity);
+    }
+}
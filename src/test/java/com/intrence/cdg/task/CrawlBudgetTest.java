@@ -0,0 +1,79 @@
+package com.intrence.cdg.task;
+
+import com.intrence.cdg.net.FetchRequest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+public class CrawlBudgetTest {
+
+    @Test
+    public void testMaxDepth() {
+        CrawlBudget budget = new CrawlBudget(2, new HashMap<>(), 0, 0);
+        FetchRequest seed = new FetchRequest("http://www.example.com/", 1);
+        budget.admitSeeds(Collections.singleton(seed));
+
+        Set<FetchRequest> first = budget.admit(seed,
+                Collections.singleton(new FetchRequest("http://www.example.com/list?page=2", 1)));
+        FetchRequest page2 = first.iterator().next();
+        Assert.assertEquals(1, page2.getDepth());
+
+        FetchRequest page3 = budget.admit(page2,
+                Collections.singleton(new FetchRequest("http://www.example.com/list?page=3", 1))).iterator().next();
+        Assert.assertEquals(2, page3.getDepth());
+        Assert.assertTrue(budget.admit(page3,
+                Collections.singleton(new FetchRequest("http://www.example.com/list?page=4", 1))).isEmpty());
+    }
+
+    @Test
+    public void testPageTypeQuota() {
+        CrawlBudget budget = new CrawlBudget(0, Collections.singletonMap("page", 2), 0, 0);
+        FetchRequest page = new FetchRequest("http://www.example.com/list?page=2", 1);
+        page.setPageType("page");
+        FetchRequest product = new FetchRequest("http://www.example.com/p/1", 5);
+        product.setPageType("product");
+
+        Assert.assertTrue(budget.tryAcquire(page));
+        Assert.assertTrue(budget.tryAcquire(page));
+        Assert.assertFalse(budget.tryAcquire(page));
+        Assert.assertTrue(budget.tryAcquire(product));
+
+        budget.release(page);
+        Assert.assertTrue(budget.tryAcquire(page));
+    }
+
+    @Test
+    public void testPriorityAging() {
+        long hour = 3600000;
+        CrawlBudget budget = new CrawlBudget(0, new HashMap<>(), hour, 0);
+        // queued first with priority 1, wins over priority 2 queued more than an hour later
+        int early = budget.agedPriority(1, 0);
+        Assert.assertEquals(CrawlBudget.PRIORITY_SCALE, early);
+        Assert.assertTrue(budget.agedPriority(2, 2 * hour) < early);
+        Assert.assertTrue(budget.agedPriority(2, hour / 2) > early);
+
+        // coarse buckets, an hour of requests at one level lands in a handful of frontier priorities
+        Set<Integer> priorities = new HashSet<>();
+        for (long now = 0; now < hour; now += 1000) {
+            priorities.add(budget.agedPriority(1, now));
+        }
+        Assert.assertEquals(CrawlBudget.PRIORITY_SCALE, priorities.size());
+    }
+
+    @Test
+    public void testAdmitLeavesCallerRequestsUnchanged() {
+        CrawlBudget budget = new CrawlBudget(0, new HashMap<>(), 3600000, System.currentTimeMillis());
+        FetchRequest seed = new FetchRequest("http://www.example.com/", 1);
+        Set<FetchRequest> seeds = new HashSet<>(Collections.singleton(seed));
+
+        FetchRequest admitted = budget.admitSeeds(seeds).iterator().next();
+        Assert.assertEquals(1, seed.getPriority());
+        Assert.assertTrue(seeds.contains(seed));
+        Assert.assertEquals(seed.getFingerprint(), admitted.getFingerprint());
+        Assert.assertTrue(admitted.getPriority() <= CrawlBudget.PRIORITY_SCALE);
+    }
+}
@@ -0,0 +1,107 @@
+package com.intrence.cdg.task;
+
+import com.intrence.cdg.exception.FetchRejectedException;
+import com.intrence.cdg.net.FetchRequest;
+import com.intrence.cdg.net.PageValidator;
+import com.intrence.cdg.net.RequestResponse;
+import com.intrence.cdg.net.WebFetcher;
+import com.intrence.cdg.util.Constants;
+import com.intrence.models.model.SearchParams;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class SimpleTaskTest {
+
+    private final FetchRequest fetchReq = new FetchRequest("http://www.example.com/item/1", 1);
+
+    private AsyncWebFetcher webFetcher;
+    private SimpleTask task;
+
+    @Before
+    public void setUp() {
+        TaskRule rule = new TaskRule.Builder()
+                .id(20)
+                .source("factual")
+                .lastUpdatedBy("test_client")
+                .type(Constants.REFRESH_OPERATION)
+                .autoStart(false)
+                .searchParamsMap(new SearchParams.Builder().country("US").build())
+                .build();
+        webFetcher = new AsyncWebFetcher();
+        task = new SimpleTask(rule, null, null, webFetcher, 2);
+        task.startStages();
+    }
+
+    @Test
+    public void testFetchThroughAsyncClient() throws Exception {
+        webFetcher.response.complete(new RequestResponse(fetchReq, "not found", 404));
+
+        Set<FetchRequest> failedRequests = task.processFetchRequestAsync(fetchReq).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(Collections.emptySet(), failedRequests);
+        Assert.assertEquals(1, webFetcher.asyncFetches);
+    }
+
+    @Test
+    public void testAsyncFetchFailure() throws Exception {
+        webFetcher.response.completeExceptionally(new IOException("connection reset"));
+
+        Set<FetchRequest> failedRequests = task.processFetchRequestAsync(fetchReq).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(Collections.singleton(fetchReq), failedRequests);
+    }
+
+    @Test
+    public void testAsyncFetchRejected() throws Exception {
+        webFetcher.response.completeExceptionally(new FetchRejectedException("Event=BulkheadFull", 0));
+
+        try {
+            task.processFetchRequestAsync(fetchReq).get(5, TimeUnit.SECONDS);
+            Assert.fail("rejected fetch counted as a completed one");
+        } catch (ExecutionException e) {
+            // the task runner holds rejected requests back
+            Assert.assertTrue(ExceptionUtils.getRootCause(e) instanceof FetchRejectedException);
+        }
+    }
+
+    @Test
+    public void testMaxInFlight() {
+        Assert.assertTrue(task.maxInFlight() > 2 + task.numberOfFetchReqsPerBatch());
+        webFetcher.asyncFetchEnabled = false;
+        Assert.assertEquals(2 + task.numberOfFetchReqsPerBatch(), task.maxInFlight());
+    }
+
+    private static class AsyncWebFetcher extends WebFetcher {
+        private final CompletableFuture<RequestResponse> response = new CompletableFuture<>();
+        private boolean asyncFetchEnabled = true;
+        private int asyncFetches;
+
+        private AsyncWebFetcher() {
+            super(null, null);
+        }
+
+        @Override
+        public boolean isAsyncFetchEnabled() {
+            return asyncFetchEnabled;
+        }
+
+        @Override
+        public CompletableFuture<RequestResponse> getResponseAsync(String source, FetchRequest fetchReq,
+                                                                   PageValidator validator) {
+            asyncFetches++;
+            return response;
+        }
+
+        @Override
+        public RequestResponse getResponse(String source, FetchRequest fetchReq) throws Exception {
+            throw new AssertionError("blocking fetch while async fetch is enabled");
+        }
+    }
+}